@@ -13,6 +13,7 @@ package net.goui.phonenumbers;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.util.function.Function.identity;
 
 import com.google.auto.value.AutoValue;
@@ -24,11 +25,15 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import net.goui.phonenumbers.metadata.ClassifierLoader;
+import net.goui.phonenumbers.metadata.ParserData;
 import net.goui.phonenumbers.metadata.RawClassifier;
+import net.goui.phonenumbers.metadata.RawClassifier.ValueMatcher;
 import net.goui.phonenumbers.metadata.VersionInfo;
 
 /**
@@ -174,11 +179,11 @@ public abstract class AbstractPhoneNumberClassifier {
     for (SchemaVersion v : rest) {
       schemaPredicate = schemaPredicate.or(v::isSatisfiedBy);
     }
-    ImmutableList<RawClassifier> rawClassifiers =
-        ClassifierLoader.loadMatchedVersions(
+    Optional<RawClassifier> rawClassifier =
+        ClassifierLoader.loadBestMatchedVersion(
             DATA_VERSION_PREDICATE.and(schemaPredicate), VERSION_ORDERING);
-    if (!rawClassifiers.isEmpty()) {
-      return rawClassifiers.get(0);
+    if (rawClassifier.isPresent()) {
+      return rawClassifier.get();
     }
     List<SchemaVersion> versions = new ArrayList<>();
     versions.add(version);
@@ -209,6 +214,73 @@ public abstract class AbstractPhoneNumberClassifier {
     return getSupportedCallingCodes().contains(callingCode);
   }
 
+  /**
+   * Starts a background task to "warm up" this classifier by exercising the validity, type and
+   * format matchers, as well as formatting and parsing, for all supported calling codes using the
+   * example numbers in the metadata.
+   * This is entirely optional, but can avoid the first few operations performed by users taking
+   * noticeably longer than subsequent ones (due to class loading, lazily created data and JIT
+   * compilation).
+   *
+   * <p>The returned future completes once warm-up has finished, and can be used to delay marking a
+   * service as "ready" until that point. Classifiers are fully usable while warm-up is running.
+   *
+   * @param executor the executor on which to run the warm-up task.
+   */
+  public final CompletableFuture<Void> warmUp(Executor executor) {
+    return CompletableFuture.runAsync(this::exerciseMatchers, executor);
+  }
+
+  /**
+   * Starts a background task to "warm up" this classifier using the common fork-join pool. See
+   * {@link #warmUp(Executor)}.
+   */
+  public final CompletableFuture<Void> warmUp() {
+    return CompletableFuture.runAsync(this::exerciseMatchers);
+  }
+
+  private void exerciseMatchers() {
+    ImmutableSet<String> types = rawClassifier.getSupportedNumberTypes();
+    ImmutableList<PhoneNumberFormatter> formatters =
+        Arrays.stream(FormatType.values())
+            .filter(this::canFormat)
+            .map(this::createFormatter)
+            .collect(toImmutableList());
+    // The parser cannot be created if parser data is missing for any calling code.
+    PhoneNumberParser<String> parser =
+        rawClassifier.getSupportedCallingCodes().stream()
+                .allMatch(cc -> rawClassifier.getParserData(cc) != null)
+            ? createParser(identity())
+            : null;
+    for (DigitSequence cc : rawClassifier.getSupportedCallingCodes()) {
+      ParserData parserData = rawClassifier.getParserData(cc);
+      if (parserData == null) {
+        continue;
+      }
+      for (DigitSequence nn : parserData.getExampleNationalNumbers()) {
+        rawClassifier.match(cc, nn);
+        for (String type : types) {
+          rawClassifier.classify(cc, nn, type);
+          if (rawClassifier.supportsValueMatcher(type)) {
+            // This includes format types, for which the candidate values are tested when
+            // formatting a number.
+            ValueMatcher matcher = rawClassifier.getValueMatcher(cc, type);
+            for (String value : matcher.getCandidateValues(nn)) {
+              matcher.matchValue(nn, value);
+            }
+          }
+        }
+        PhoneNumber number = PhoneNumbers.of(cc, nn);
+        for (PhoneNumberFormatter formatter : formatters) {
+          String formatted = formatter.format(number);
+          if (parser != null) {
+            parser.parseLeniently(formatted, cc);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Returns a formatter for the given format type.
    *
@@ -0,0 +1,155 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * An alternative encoding for digit sequences of up to 15 digits, using 4-bit BCD (binary coded
+ * decimal) nibbles and an explicit length. This is only used if enabled (see {@link
+ * DigitSequenceEncoder}), and has the same API and ordering semantics as the default encoding.
+ *
+ * <p>The length of a sequence is held in the top 4 bits of the encoded value, and digits are held
+ * in the lowest {@code 4 * length} bits (with the last digit in the lowest nibble), so the unsigned
+ * ordering of encoded values is "by length, then lexicographically", and the empty sequence is
+ * encoded as zero. Unlike the default encoding, all operations are shifts and masks, with no
+ * division or searching, but sequences are limited to 15 digits (the maximum length of an <a
+ * href="https://en.wikipedia.org/wiki/E.164">E.164</a> number).
+ */
+final class BcdDigitSequenceEncoder {
+  private static final CharMatcher E164_DIGIT = CharMatcher.inRange('0', '9');
+  // Maximum encoded digits (leaving the top nibble for the length).
+  static final int MAX_DIGITS = 15;
+  private static final int LENGTH_SHIFT = 60;
+  private static final long DIGITS_MASK = (1L << LENGTH_SHIFT) - 1;
+
+  static long encode(String digits) {
+    checkArgument(E164_DIGIT.matchesAllOf(digits), "invalid digit sequence: '%s'", digits);
+    int length = digits.length();
+    checkArgument(length <= MAX_DIGITS, "digit sequence too long (max=%s): %s", MAX_DIGITS, digits);
+    long bcd = 0;
+    for (int n = 0; n < length; n++) {
+      bcd = (bcd << 4) | (digits.charAt(n) - '0');
+    }
+    return withLength(bcd, length);
+  }
+
+  static long encode(long value, int length) {
+    checkArgument(length > 0 && length <= MAX_DIGITS, "invalid sequence length: %s", length);
+    checkArgument(value >= 0, "value too large: %s", value);
+    long bcd = 0;
+    for (int n = 0; n < length; n++, value /= 10) {
+      bcd |= (value % 10) << (4 * n);
+    }
+    checkArgument(value == 0, "value too large for length (%s): %s", length, value);
+    return withLength(bcd, length);
+  }
+
+  static DigitSequence.Digits iterate(long encoded) {
+    return new BcdDigits(encoded & DIGITS_MASK, getLength(encoded));
+  }
+
+  static int getLength(long encoded) {
+    return (int) (encoded >>> LENGTH_SHIFT);
+  }
+
+  static int compareLengthOf(long encoded, int length) {
+    checkArgument(length >= 0 && length <= MAX_DIGITS, "invalid sequence length: %s", length);
+    return Integer.compare(getLength(encoded), length);
+  }
+
+  static int getDigit(int n, long encoded) {
+    int length = getLength(encoded);
+    if (n < 0 || n >= length) {
+      throw new IndexOutOfBoundsException(
+          "invalid index (" + n + ") for sequence: " + toString(encoded));
+    }
+    return (int) (encoded >>> (4 * (length - 1 - n))) & 0xF;
+  }
+
+  static long append(long prefix, long suffix) {
+    if (suffix == 0) {
+      return prefix;
+    } else if (prefix == 0) {
+      return suffix;
+    } else {
+      int suffixLength = getLength(suffix);
+      int length = getLength(prefix) + suffixLength;
+      if (length > MAX_DIGITS) {
+        throw new IllegalArgumentException(
+            "appended sequence too long (prefix="
+                + toString(prefix)
+                + ", suffix="
+                + toString(suffix)
+                + ")");
+      }
+      long bcd = ((prefix & DIGITS_MASK) << (4 * suffixLength)) | (suffix & DIGITS_MASK);
+      return withLength(bcd, length);
+    }
+  }
+
+  static long split(long encoded, int maxLength, boolean prefix) {
+    if (maxLength == 0) {
+      return 0;
+    } else if (compareLengthOf(encoded, maxLength) <= 0) {
+      return encoded;
+    } else {
+      // Implies (0 < maxLength < length <= MAX_DIGITS) here.
+      long bcd = encoded & DIGITS_MASK;
+      long truncated =
+          prefix
+              ? bcd >>> (4 * (getLength(encoded) - maxLength))
+              : bcd & ((1L << (4 * maxLength)) - 1);
+      return withLength(truncated, maxLength);
+    }
+  }
+
+  static String toString(long encoded) {
+    int length = getLength(encoded);
+    char[] chars = new char[length];
+    for (int n = length - 1; n >= 0; n--, encoded >>>= 4) {
+      chars[n] = (char) ('0' + (encoded & 0xF));
+    }
+    return new String(chars);
+  }
+
+  private static long withLength(long bcd, int length) {
+    return ((long) length << LENGTH_SHIFT) | bcd;
+  }
+
+  private static class BcdDigits implements DigitSequence.Digits {
+    private final long bcd;
+    private int shift;
+
+    BcdDigits(long bcd, int length) {
+      this.bcd = bcd;
+      this.shift = 4 * (length - 1);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return shift >= 0;
+    }
+
+    @Override
+    public int next() {
+      checkState(shift >= 0, "no next digit in sequence");
+      int digit = (int) (bcd >>> shift) & 0xF;
+      shift -= 4;
+      return digit;
+    }
+  }
+
+  private BcdDigitSequenceEncoder() {}
+}
@@ -16,6 +16,10 @@ import com.google.auto.value.extension.memoized.Memoized;
 /**
  * Efficient encapsulation of an arbitrary, immutable digit sequence (e.g. "1234", "007" etc.) of up
  * to 19 digits.
+ *
+ * <p>If the {@code net.goui.phonenumbers.bcd_digit_sequences} system property is set to {@code
+ * true}, an alternative encoding with faster digit access is used, but sequences are then limited
+ * to 15 digits (the maximum length of an E.164 number).
  */
 @AutoValue
 public abstract class DigitSequence implements Comparable<DigitSequence> {
@@ -63,7 +67,8 @@ public abstract class DigitSequence implements Comparable<DigitSequence> {
   /**
    * Returns a new sequence which is the result appending the given suffix to this sequence.
    *
-   * @throws IllegalArgumentException if the resulting sequence would be more than 19 digits.
+   * @throws IllegalArgumentException if the resulting sequence would be more than 19 digits (or 15
+   *     digits if the alternative encoding is used).
    */
   public final DigitSequence append(DigitSequence suffix) {
     if (isEmpty()) {
@@ -22,8 +22,17 @@ import java.util.Arrays;
  * <p>Note that a 19 digit sequence is the maximum which can be represented in a 64-bit long value,
  * but this is sufficient to represent <a href="https://en.wikipedia.org/wiki/E.164">E.164</a>
  * values, which should not be longer than 15 digits.
+ *
+ * <p>If the {@value #BCD_ENCODING_PROPERTY} system property is set to {@code true}, all
+ * operations delegate to {@link BcdDigitSequenceEncoder} instead, which is faster (especially for
+ * digit access) but limits sequences to 15 digits. Since encoded values must be consistent for all
+ * instances, this applies to the whole JVM and must be set before any digit sequences are created.
  */
 final class DigitSequenceEncoder {
+  static final String BCD_ENCODING_PROPERTY = "net.goui.phonenumbers.bcd_digit_sequences";
+  // Static final, so the JIT compiler can eliminate the unused encoding from every method.
+  private static final boolean USE_BCD = Boolean.getBoolean(BCD_ENCODING_PROPERTY);
+
   private static final CharMatcher E164_DIGIT = CharMatcher.inRange('0', '9');
   // Maximum encoded digits in a 64-bit long (includes overflow).
   private static final int MAX_DIGITS = 19;
@@ -49,7 +58,15 @@ final class DigitSequenceEncoder {
     MAX_ENCODED_UNSIGNED = threshold - 1;
   }
 
+  // Returns the maximum length of sequences for the current encoding.
+  static int getMaxLength() {
+    return USE_BCD ? BcdDigitSequenceEncoder.MAX_DIGITS : MAX_DIGITS;
+  }
+
   static long encode(String digits) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.encode(digits);
+    }
     checkArgument(E164_DIGIT.matchesAllOf(digits), "invalid digit sequence: '%s'", digits);
     int length = digits.length();
     checkArgument(length <= MAX_DIGITS, "digit sequence too long (max=%s): %s", MAX_DIGITS, digits);
@@ -57,11 +74,14 @@ final class DigitSequenceEncoder {
   }
 
   static long encode(long value, int length) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.encode(value, length);
+    }
     checkArgument(length > 0 && length <= MAX_DIGITS, "invalid sequence length: %s", length);
     checkArgument(
         Long.compareUnsigned(value, MAX_VALUE_UNSIGNED) <= 0, "value too large: %s", value);
     checkArgument(
-        length == MAX_DIGITS || POWERS_OF_TEN[length - 1] > value,
+        length == MAX_DIGITS || Long.compareUnsigned(value, POWERS_OF_TEN[length]) < 0,
         "value too large for length (%s): %s",
         length,
         value);
@@ -69,6 +89,9 @@ final class DigitSequenceEncoder {
   }
 
   static DigitSequence.Digits iterate(long encoded) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.iterate(encoded);
+    }
     // MAX_ENCODED is a negative value due to wrap around, so be careful about range checking.
     checkArgument(encoded >= 0 || encoded <= MAX_ENCODED_UNSIGNED);
     int length = getLength(encoded);
@@ -77,6 +100,9 @@ final class DigitSequenceEncoder {
   }
 
   static int getLength(long encoded) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.getLength(encoded);
+    }
     // Need special case for MAX_DIGITS since it's negative, so we cannot binary search for it.
     if (encoded >= THRESHOLDS[MAX_DIGITS - 1] || encoded < 0) {
       return MAX_DIGITS;
@@ -89,6 +115,9 @@ final class DigitSequenceEncoder {
   }
 
   static int compareLengthOf(long encoded, int length) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.compareLengthOf(encoded, length);
+    }
     checkArgument(length >= 0 && length <= MAX_DIGITS, "invalid sequence length: %s", length);
     if (length > 0 && encoded < THRESHOLDS[length - 1]) {
       return -1;
@@ -100,6 +129,9 @@ final class DigitSequenceEncoder {
   }
 
   static int getDigit(int n, long encoded) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.getDigit(n, encoded);
+    }
     int length = getLength(encoded);
     if (n < 0 || n >= length) {
       throw new IndexOutOfBoundsException(
@@ -112,6 +144,9 @@ final class DigitSequenceEncoder {
   }
 
   static long append(long prefix, long suffix) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.append(prefix, suffix);
+    }
     if (suffix == 0) {
       return prefix;
     } else if (prefix == 0) {
@@ -131,6 +166,9 @@ final class DigitSequenceEncoder {
   }
 
   static long split(long encoded, int maxLength, boolean prefix) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.split(encoded, maxLength, prefix);
+    }
     if (maxLength == 0) {
       return 0;
     } else if (compareLengthOf(encoded, maxLength) <= 0) {
@@ -152,6 +190,9 @@ final class DigitSequenceEncoder {
   }
 
   static String toString(long encoded) {
+    if (USE_BCD) {
+      return BcdDigitSequenceEncoder.toString(encoded);
+    }
     int length = getLength(encoded);
     StringBuilder buf = new StringBuilder(length);
     for (DigitSequence.Digits seq = iterate(encoded); seq.hasNext(); ) {
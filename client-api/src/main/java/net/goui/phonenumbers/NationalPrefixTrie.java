@@ -0,0 +1,139 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A digit trie of the national prefixes for a calling code, used by {@link PhoneNumberParser} to
+ * find the national prefixes of a number, and to reject candidate national numbers, without
+ * allocating.
+ *
+ * <p>Prefixes are identified by their index in the set from which the trie was built, and matching
+ * prefixes are returned as a bit-mask of these indices, so callers can test them in their original
+ * order.
+ *
+ * <p>The trie also holds a "hint" of which pairs of leading digits can start a valid national
+ * number. This relies on the semantics of {@link MatchResult}, whereby if a short sequence is not
+ * {@code MATCHED}, {@code PARTIAL_MATCH} or {@code EXCESS_DIGITS}, then no sequence which starts
+ * with it can be either, and its match result depends only on its length.
+ */
+final class NationalPrefixTrie {
+  // Bit-masks limit the number of prefixes (in practice there are at most a few per calling code).
+  private static final int MAX_PREFIXES = 64;
+
+  /**
+   * Returns a trie for the given national prefixes, using the given predicate to determine which
+   * one or two digit sequences can be the start of a valid national number.
+   */
+  static NationalPrefixTrie of(
+      Set<DigitSequence> prefixes, Predicate<DigitSequence> canStartValidNumber) {
+    checkArgument(prefixes.size() <= MAX_PREFIXES, "too many national prefixes: %s", prefixes);
+    int maxNodes = 1;
+    for (DigitSequence prefix : prefixes) {
+      maxNodes += prefix.length();
+    }
+    int[] children = new int[10 * maxNodes];
+    int[] prefixIndex = new int[maxNodes];
+    int[] prefixLengths = new int[prefixes.size()];
+    prefixIndex[0] = -1;
+    int nodeCount = 1;
+    int index = 0;
+    for (DigitSequence prefix : prefixes) {
+      int node = 0;
+      for (int n = 0; n < prefix.length(); n++) {
+        int child = (10 * node) + prefix.getDigit(n);
+        if (children[child] == 0) {
+          prefixIndex[nodeCount] = -1;
+          children[child] = nodeCount++;
+        }
+        node = children[child];
+      }
+      prefixIndex[node] = index;
+      prefixLengths[index++] = prefix.length();
+    }
+    long[] invalidLeadingDigits = new long[2];
+    for (int digit = 0; digit < 10; digit++) {
+      // If a single digit cannot start a valid number, neither can any pair starting with it.
+      boolean isValidDigit = canStartValidNumber.test(digits(digit, 1));
+      for (int n = 10 * digit; n < 10 * (digit + 1); n++) {
+        if (!isValidDigit || !canStartValidNumber.test(digits(n, 2))) {
+          invalidLeadingDigits[n >> 6] |= 1L << (n & 0x3F);
+        }
+      }
+    }
+    return new NationalPrefixTrie(children, prefixIndex, prefixLengths, invalidLeadingDigits);
+  }
+
+  // The child table, with 10 entries per node (indexed by digit). Since the root node (0) is never
+  // a child, zero entries indicate that a node has no child for that digit.
+  private final int[] children;
+  // The index of the prefix ending at each node, or -1 if no prefix ends there.
+  private final int[] prefixIndex;
+  private final int[] prefixLengths;
+  // A 100-bit set of the two-digit sequences which cannot start a valid national number.
+  private final long[] invalidLeadingDigits;
+
+  private NationalPrefixTrie(
+      int[] children, int[] prefixIndex, int[] prefixLengths, long[] invalidLeadingDigits) {
+    this.children = children;
+    this.prefixIndex = prefixIndex;
+    this.prefixLengths = prefixLengths;
+    this.invalidLeadingDigits = invalidLeadingDigits;
+  }
+
+  /**
+   * Returns a bit-mask of the indices of the national prefixes which are prefixes of the given
+   * sequence (a prefix equal to the whole sequence is included).
+   */
+  long getPrefixMask(DigitSequence seq) {
+    long mask = 0;
+    int node = 0;
+    for (int n = 0; ; n++) {
+      if (prefixIndex[node] >= 0) {
+        mask |= 1L << prefixIndex[node];
+      }
+      if (n == seq.length()) {
+        break;
+      }
+      node = children[(10 * node) + seq.getDigit(n)];
+      if (node == 0) {
+        break;
+      }
+    }
+    return mask;
+  }
+
+  /** Returns the length of the national prefix with the given index. */
+  int getPrefixLength(int index) {
+    return prefixLengths[index];
+  }
+
+  /**
+   * Returns whether the national number starting at the given offset in a sequence might be valid
+   * (or partially valid). If this returns {@code false}, the national number can only be {@link
+   * MatchResult#POSSIBLE_LENGTH} or {@link MatchResult#INVALID}.
+   */
+  boolean canStartValidNumber(DigitSequence seq, int offset) {
+    if (seq.length() - offset < 2) {
+      return true;
+    }
+    int n = (10 * seq.getDigit(offset)) + seq.getDigit(offset + 1);
+    return (invalidLeadingDigits[n >> 6] & (1L << (n & 0x3F))) == 0;
+  }
+
+  private static DigitSequence digits(int value, int length) {
+    return DigitSequence.ofEncoded(DigitSequenceEncoder.encode(value, length));
+  }
+}
@@ -0,0 +1,130 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Static methods for decoding the packed {@code long} results returned by {@link
+ * PhoneNumberParser#parseToLong(String, DigitSequence)}. A packed result holds the same information
+ * as a {@link PhoneNumberResult}, but can be returned without allocating anything.
+ *
+ * <p>Packed results can be compared for equality, but otherwise should be treated as opaque.
+ */
+public final class PackedPhoneNumberResult {
+  /** The packed value returned when text could not be parsed (never a valid result). */
+  public static final long UNPARSEABLE = -1L;
+
+  // Maximum number of digits in a packed national number (the maximum length of E.164 numbers).
+  static final int MAX_DIGITS = 15;
+
+  /*
+   * Bits 54-63: Calling code value (at most 999, so the value of UNPARSEABLE is never valid).
+   * Bit 53: FormatType ordinal.
+   * Bits 50-52: MatchResult ordinal.
+   * Bits 0-49: National number, encoded as "value + REPUNITS[length]" (e.g. "" -> 0, "0" -> 1,
+   *            "9" -> 10, "00" -> 11 ...). This preserves leading zeros without needing a separate
+   *            length field, and 15 digits encode to at most 1111111111111110 (less than 2^50).
+   */
+  private static final int CALLING_CODE_SHIFT = 54;
+  private static final int FORMAT_TYPE_SHIFT = 53;
+  private static final int MATCH_RESULT_SHIFT = 50;
+  private static final long NATIONAL_NUMBER_MASK = (1L << MATCH_RESULT_SHIFT) - 1;
+  // 0, 1, 11, 111 ... (the smallest encoded value for each length).
+  private static final long[] REPUNITS = new long[MAX_DIGITS + 2];
+
+  static {
+    for (int n = 1; n < REPUNITS.length; n++) {
+      REPUNITS[n] = (10 * REPUNITS[n - 1]) + 1;
+    }
+  }
+
+  private static final MatchResult[] MATCH_RESULTS = MatchResult.values();
+  private static final FormatType[] FORMAT_TYPES = FormatType.values();
+
+  // Called from PhoneNumberParser.
+  static long of(
+      DigitSequence callingCode,
+      DigitSequence nationalNumber,
+      MatchResult matchResult,
+      FormatType formatType) {
+    checkArgument(
+        PhoneNumbers.isWellFormedCallingCode(callingCode), "invalid calling code: %s", callingCode);
+    int length = nationalNumber.length();
+    checkArgument(length <= MAX_DIGITS, "national number too long: %s", nationalNumber);
+    long value = 0;
+    for (int n = 0; n < length; n++) {
+      value = (10 * value) + nationalNumber.getDigit(n);
+    }
+    long cc = 0;
+    for (int n = 0; n < callingCode.length(); n++) {
+      cc = (10 * cc) + callingCode.getDigit(n);
+    }
+    return (cc << CALLING_CODE_SHIFT)
+        | ((long) formatType.ordinal() << FORMAT_TYPE_SHIFT)
+        | ((long) matchResult.ordinal() << MATCH_RESULT_SHIFT)
+        | (value + REPUNITS[length]);
+  }
+
+  /** Returns whether the given value is a parsed result (i.e. not {@link #UNPARSEABLE}). */
+  public static boolean isParseable(long packed) {
+    return packed != UNPARSEABLE;
+  }
+
+  /** Returns the match result of a packed result (see {@link PhoneNumberResult}). */
+  public static MatchResult getMatchResult(long packed) {
+    checkParseable(packed);
+    return MATCH_RESULTS[(int) (packed >>> MATCH_RESULT_SHIFT) & 0x7];
+  }
+
+  /** Returns the inferred format of a packed result (see {@link PhoneNumberResult}). */
+  public static FormatType getInferredFormat(long packed) {
+    checkParseable(packed);
+    return FORMAT_TYPES[(int) (packed >>> FORMAT_TYPE_SHIFT) & 0x1];
+  }
+
+  /** Returns the calling code of the phone number in a packed result. */
+  public static DigitSequence getCallingCode(long packed) {
+    checkParseable(packed);
+    int cc = (int) (packed >>> CALLING_CODE_SHIFT);
+    return DigitSequence.ofEncoded(DigitSequenceEncoder.encode(cc, cc < 10 ? 1 : cc < 100 ? 2 : 3));
+  }
+
+  /** Returns the national number of the phone number in a packed result. */
+  public static DigitSequence getNationalNumber(long packed) {
+    checkParseable(packed);
+    long encoded = packed & NATIONAL_NUMBER_MASK;
+    int length = 0;
+    while (encoded >= REPUNITS[length + 1]) {
+      length++;
+    }
+    return length > 0
+        ? DigitSequence.ofEncoded(DigitSequenceEncoder.encode(encoded - REPUNITS[length], length))
+        : DigitSequence.ofEncoded(0);
+  }
+
+  /** Returns the phone number in a packed result (see {@link PhoneNumberResult}). */
+  public static PhoneNumber getPhoneNumber(long packed) {
+    return PhoneNumbers.of(getCallingCode(packed), getNationalNumber(packed));
+  }
+
+  /** Returns the {@link PhoneNumberResult} equivalent to the given packed result. */
+  public static <T> PhoneNumberResult<T> toPhoneNumberResult(long packed) {
+    return PhoneNumberResult.of(
+        getPhoneNumber(packed), getMatchResult(packed), getInferredFormat(packed));
+  }
+
+  private static void checkParseable(long packed) {
+    checkArgument(packed != UNPARSEABLE, "cannot decode an unparseable result");
+  }
+
+  private PackedPhoneNumberResult() {}
+}
@@ -0,0 +1,290 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static net.goui.phonenumbers.MatchResult.MATCHED;
+import static net.goui.phonenumbers.PhoneNumberParser.ANY_DIGIT;
+import static net.goui.phonenumbers.PhoneNumberParser.GROUPING_SEPARATORS;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.CharMatcher;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Finds phone numbers in free text (e.g. messages, emails or OCR output), using a {@link
+ * PhoneNumberParser} to validate candidate numbers.
+ *
+ * <p>Text is scanned once, from start to end, by a simple state machine which identifies
+ * "candidate" sequences of digits and grouping separators (optionally starting with '+' or an
+ * opening parenthesis). Each candidate is parsed (as if passed to {@link
+ * PhoneNumberParser#parseStrictly(String, DigitSequence)}) and only candidates which parse to a
+ * valid ({@link MatchResult#MATCHED}) phone number are returned. Since the length of a candidate
+ * is bounded, the cost of finding numbers is linear in the length of the text.
+ *
+ * <p>Candidates must not be directly preceded or followed by letters or digits (e.g. "ID123456"
+ * is not a candidate), must contain between 4 and 15 digits, and cannot contain more than 3
+ * consecutive separator characters or any line breaks. Note that this means adjacent numbers
+ * separated only by whitespace are treated as a single candidate, which will not be valid.
+ *
+ * <p>Matches are found lazily, so callers which only need the first match do not pay the cost of
+ * scanning the rest of the text.
+ */
+public final class PhoneNumberFinder<T> {
+  // Shortest digit sequence worth parsing (avoids parsing things like small numbers and prices).
+  private static final int MIN_DIGITS = 4;
+  // Longest E.164 number (also ensures candidate digits never exceed DigitSequence limits).
+  private static final int MAX_DIGITS = 15;
+  // Allows things like " - " or ") " between digit groups.
+  private static final int MAX_SEPARATORS = 3;
+
+  private static final CharMatcher LINE_BREAKS =
+      CharMatcher.anyOf("\n\u000B\u000C\r\u0085\u2028\u2029");
+  private static final CharMatcher SEPARATORS =
+      GROUPING_SEPARATORS.or(CharMatcher.whitespace().and(LINE_BREAKS.negate())).precomputed();
+  private static final CharMatcher CANDIDATE_START =
+      ANY_DIGIT.or(CharMatcher.anyOf("+(\uFF08\u2768")).precomputed();
+
+  /** Returns a phone number finder which uses the given parser to validate candidate numbers. */
+  public static <T> PhoneNumberFinder<T> of(PhoneNumberParser<T> parser) {
+    return new PhoneNumberFinder<>(parser);
+  }
+
+  /** A phone number found in some text, along with its position. */
+  @AutoValue
+  public abstract static class Match<T> {
+    static <T> Match<T> of(int start, String text, PhoneNumberResult<T> result) {
+      return new AutoValue_PhoneNumberFinder_Match<>(start, text, result);
+    }
+
+    /** Returns the offset of the first character of the matched text. */
+    public abstract int getStart();
+
+    /**
+     * Returns the matched text, which ends with the last digit of the number and starts with its
+     * first digit, or with a leading '+' or opening parenthesis if present (e.g. "(079) 555 1234").
+     */
+    public abstract String getText();
+
+    /** Returns the parse result of the matched text (which is always {@code MATCHED}). */
+    public abstract PhoneNumberResult<T> getResult();
+
+    /** Returns the offset after the last character of the matched text. */
+    public final int getEnd() {
+      return getStart() + getText().length();
+    }
+  }
+
+  private final PhoneNumberParser<T> parser;
+
+  private PhoneNumberFinder(PhoneNumberParser<T> parser) {
+    this.parser = checkNotNull(parser);
+  }
+
+  public Iterable<Match<T>> findNumbers(CharSequence text) {
+    return findNumbers(text, (DigitSequence) null);
+  }
+
+  public Iterable<Match<T>> findNumbers(CharSequence text, T region) {
+    return findNumbers(text, parser.toCallingCode(region));
+  }
+
+  /**
+   * Returns the phone numbers found in the given text, assuming that nationally formatted numbers
+   * have the given calling code (if present). Each call to {@code iterator()} rescans the text.
+   */
+  public Iterable<Match<T>> findNumbers(CharSequence text, @Nullable DigitSequence callingCode) {
+    checkNotNull(text);
+    return () -> new Scanner(new CharSequenceSource(text), callingCode);
+  }
+
+  public Iterator<Match<T>> findNumbers(Reader reader) {
+    return findNumbers(reader, (DigitSequence) null);
+  }
+
+  public Iterator<Match<T>> findNumbers(Reader reader, T region) {
+    return findNumbers(reader, parser.toCallingCode(region));
+  }
+
+  /**
+   * Returns the phone numbers found in text read from the given reader, assuming that nationally
+   * formatted numbers have the given calling code (if present). Text is read incrementally as the
+   * returned iterator is advanced, and any {@link IOException} is rethrown as an {@link
+   * UncheckedIOException}. The reader is not closed by this method.
+   */
+  public Iterator<Match<T>> findNumbers(Reader reader, @Nullable DigitSequence callingCode) {
+    return new Scanner(new ReaderSource(checkNotNull(reader)), callingCode);
+  }
+
+  /** A source of chars, which returns {@code -1} at the end of the input. */
+  private interface CharSource {
+    int read();
+  }
+
+  private static final class CharSequenceSource implements CharSource {
+    private final CharSequence text;
+    private int index = 0;
+
+    CharSequenceSource(CharSequence text) {
+      this.text = text;
+    }
+
+    @Override
+    public int read() {
+      return index < text.length() ? text.charAt(index++) : -1;
+    }
+  }
+
+  private static final class ReaderSource implements CharSource {
+    private final Reader reader;
+    private final char[] buffer = new char[4096];
+    private int index = 0;
+    private int length = 0;
+
+    ReaderSource(Reader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public int read() {
+      while (index == length) {
+        try {
+          length = reader.read(buffer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        if (length < 0) {
+          // Remain at the end of the input for subsequent calls.
+          index = length = 0;
+          return -1;
+        }
+        index = 0;
+      }
+      return buffer[index++];
+    }
+  }
+
+  private final class Scanner implements Iterator<Match<T>> {
+    private final CharSource source;
+    @Nullable private final DigitSequence callingCode;
+    private final StringBuilder candidate = new StringBuilder();
+    // Offset of the next char to be read from the source.
+    private int offset = 0;
+    // Previous char (or -1 at the start of the input), used to check the start of candidates.
+    private int lastChar = -1;
+    // Offset of the first char of the current candidate, or -1 if not in a candidate.
+    private int candidateStart = -1;
+    // Length of the candidate up to, and including, its last digit.
+    private int candidateLength = 0;
+    private int digitCount = 0;
+    private int separatorCount = 0;
+    @Nullable private Match<T> nextMatch = null;
+    private boolean isDone = false;
+
+    Scanner(CharSource source, @Nullable DigitSequence callingCode) {
+      this.source = source;
+      this.callingCode = callingCode;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (nextMatch == null && !isDone) {
+        nextMatch = scan();
+      }
+      return nextMatch != null;
+    }
+
+    @Override
+    public Match<T> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Match<T> match = nextMatch;
+      nextMatch = null;
+      return match;
+    }
+
+    // Reads chars until the next match is found, or the end of the input is reached.
+    @Nullable
+    private Match<T> scan() {
+      while (true) {
+        int c = source.read();
+        Match<T> match = null;
+        if (candidateStart >= 0) {
+          if (c >= 0 && ANY_DIGIT.matches((char) c)) {
+            separatorCount = 0;
+            if (++digitCount <= MAX_DIGITS) {
+              candidate.append((char) c);
+              candidateLength = candidate.length();
+            }
+            advance(c);
+            continue;
+          }
+          if (c >= 0 && SEPARATORS.matches((char) c) && separatorCount < MAX_SEPARATORS) {
+            separatorCount++;
+            candidate.append((char) c);
+            advance(c);
+            continue;
+          }
+          // The candidate has ended, but its last digit must not run directly into a word (e.g.
+          // "1234abc"). Trailing separators are not part of the candidate.
+          if (c < 0 || separatorCount > 0 || !Character.isLetter(c)) {
+            match = validateCandidate();
+          }
+          candidateStart = -1;
+        }
+        if (c < 0) {
+          isDone = true;
+          return match;
+        }
+        if (CANDIDATE_START.matches((char) c) && !Character.isLetterOrDigit(lastChar)) {
+          startCandidate(c);
+        }
+        advance(c);
+        if (match != null) {
+          return match;
+        }
+      }
+    }
+
+    private void advance(int c) {
+      lastChar = c;
+      offset++;
+    }
+
+    private void startCandidate(int c) {
+      boolean isDigit = ANY_DIGIT.matches((char) c);
+      candidate.setLength(0);
+      candidate.append((char) c);
+      candidateStart = offset;
+      candidateLength = isDigit ? 1 : 0;
+      digitCount = isDigit ? 1 : 0;
+      separatorCount = 0;
+    }
+
+    @Nullable
+    private Match<T> validateCandidate() {
+      if (digitCount < MIN_DIGITS || digitCount > MAX_DIGITS) {
+        return null;
+      }
+      String text = candidate.substring(0, candidateLength);
+      PhoneNumberResult<T> result = parser.parseImpl(text, callingCode);
+      return result != null && result.getMatchResult() == MATCHED
+          ? Match.of(candidateStart, text, result)
+          : null;
+    }
+  }
+}
@@ -13,7 +13,10 @@ package net.goui.phonenumbers;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static net.goui.phonenumbers.FormatType.INTERNATIONAL;
 import static net.goui.phonenumbers.MatchResult.INVALID;
+import static net.goui.phonenumbers.MatchResult.MATCHED;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
 import net.goui.phonenumbers.DigitSequence.Digits;
 import net.goui.phonenumbers.metadata.RawClassifier;
 import net.goui.phonenumbers.metadata.RawClassifier.ValueMatcher;
@@ -59,38 +62,70 @@ public class PhoneNumberFormatter {
 
   /** Formats a phone number according to the type of this formatter. */
   public String format(PhoneNumber phoneNumber) {
-    ValueMatcher matcher = rawClassifier.getValueMatcher(phoneNumber.getCallingCode(), type.id);
+    // Use the same metadata for all the steps below, even if the classifier is reloaded.
+    RawClassifier classifier = rawClassifier.snapshot();
+    ValueMatcher matcher = classifier.getValueMatcher(phoneNumber.getCallingCode(), type.id);
 
     // Fall back to INTERNATIONAL formatting if there are no format specifiers for the given type.
     FormatType bestFormatType = this.type;
     if (matcher.getPossibleValues().isEmpty() && bestFormatType != INTERNATIONAL) {
       bestFormatType = INTERNATIONAL;
-      matcher = rawClassifier.getValueMatcher(phoneNumber.getCallingCode(), bestFormatType.id);
+      matcher = classifier.getValueMatcher(phoneNumber.getCallingCode(), bestFormatType.id);
     }
 
-    // Attempt to find the best format specifier by testing all values in order. A matched number
-    // can have only one value, but a partial number may match several format specifiers. This
-    // loop picks to specifier with the best match (favouring a first match).
+    // Format specifiers are chosen by testing possible values in order, picking the first value
+    // with the best match. Most numbers being formatted are complete, and only the candidate values
+    // suggested by the matcher (usually one or two specifiers, selected by the leading digits of
+    // the number) can be MATCHED, so these are tested first (still in order, since format ranges
+    // may overlap).
+    DigitSequence nationalNumber = phoneNumber.getNationalNumber();
+    ImmutableSet<String> possibleValues = classifier.getPossibleValues(bestFormatType.id);
+    Set<String> candidateValues = matcher.getCandidateValues(nationalNumber);
     String bestFormatSpec = "";
     MatchResult bestResult = INVALID;
-    for (String spec : rawClassifier.getPossibleValues(bestFormatType.id)) {
-      MatchResult result = matcher.matchValue(phoneNumber.getNationalNumber(), spec);
-      if (result.compareTo(bestResult) < 0) {
-        bestResult = result;
-        bestFormatSpec = spec;
-        if (result == MatchResult.MATCHED) {
-          break;
+    int bestIndex = -1;
+    int index = 0;
+    for (String spec : possibleValues) {
+      if (candidateValues.contains(spec)) {
+        MatchResult result = matcher.matchValue(nationalNumber, spec);
+        if (result.isBetterThan(bestResult)) {
+          bestResult = result;
+          bestFormatSpec = spec;
+          bestIndex = index;
+          if (result == MATCHED) {
+            break;
+          }
+        }
+      }
+      index++;
+    }
+
+    // If no match was found, a partial number may still match other format specifiers better (or
+    // equally well, but earlier), so test the remaining values to find the best one (favouring a
+    // first match).
+    if (bestResult != MATCHED) {
+      index = 0;
+      for (String spec : possibleValues) {
+        if (!candidateValues.contains(spec)) {
+          MatchResult result = matcher.matchValue(nationalNumber, spec);
+          if (result.isBetterThan(bestResult)
+              || (result == bestResult && result != INVALID && index < bestIndex)) {
+            bestResult = result;
+            bestFormatSpec = spec;
+            bestIndex = index;
+          }
         }
+        index++;
       }
     }
 
     // It's possible that a partial match was made above (i.e. PartialMatch/ExcessDigits), but that
     // the number is valid but simply has no format spec assigned. So by making a final validity
     // check we can catch this and reset the default specifier.
-    if (bestResult != MatchResult.MATCHED
+    if (bestResult != MATCHED
         && !bestFormatSpec.isEmpty()
-        && rawClassifier
-            .match(phoneNumber.getCallingCode(), phoneNumber.getNationalNumber())
+        && classifier
+            .match(phoneNumber.getCallingCode(), nationalNumber)
             .isBetterThan(bestResult)) {
       bestFormatSpec = "";
     }
@@ -100,10 +135,9 @@ public class PhoneNumberFormatter {
     String formatted;
     if (!bestFormatSpec.isEmpty()) {
       formatted =
-          PhoneNumberFormatter.formatNationalNumber(
-              phoneNumber.getNationalNumber(), bestFormatSpec);
+          PhoneNumberFormatter.formatNationalNumber(nationalNumber, bestFormatSpec);
     } else {
-      formatted = phoneNumber.getNationalNumber().toString();
+      formatted = nationalNumber.toString();
     }
     if (bestFormatType == INTERNATIONAL) {
       formatted = "+" + phoneNumber.getCallingCode() + " " + formatted;
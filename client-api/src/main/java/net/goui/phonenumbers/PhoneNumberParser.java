@@ -14,24 +14,26 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static net.goui.phonenumbers.FormatType.INTERNATIONAL;
 import static net.goui.phonenumbers.FormatType.NATIONAL;
 import static net.goui.phonenumbers.LengthResult.POSSIBLE;
 import static net.goui.phonenumbers.LengthResult.TOO_LONG;
+import static net.goui.phonenumbers.MatchResult.EXCESS_DIGITS;
 import static net.goui.phonenumbers.MatchResult.INVALID;
 import static net.goui.phonenumbers.MatchResult.MATCHED;
+import static net.goui.phonenumbers.MatchResult.PARTIAL_MATCH;
+import static net.goui.phonenumbers.MatchResult.POSSIBLE_LENGTH;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import net.goui.phonenumbers.metadata.ParserData;
 import net.goui.phonenumbers.metadata.RawClassifier;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -76,9 +78,9 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 public final class PhoneNumberParser<T> {
   private static final CharMatcher ASCII_DIGIT = CharMatcher.inRange('0', '9');
   private static final CharMatcher WIDE_DIGIT = CharMatcher.inRange('０', '９');
-  private static final CharMatcher ANY_DIGIT = ASCII_DIGIT.or(WIDE_DIGIT);
+  static final CharMatcher ANY_DIGIT = ASCII_DIGIT.or(WIDE_DIGIT);
   // This must include every character in any format specifier.
-  private static final CharMatcher GROUPING_SEPARATORS =
+  static final CharMatcher GROUPING_SEPARATORS =
       CharMatcher.anyOf(
           "-\uFF0D\u2010\u2011\u2012\u2013\u2014\u2015\u2212"
               + "/\uFF0F\u3000\u2060"
@@ -89,88 +91,126 @@ public final class PhoneNumberParser<T> {
       CharMatcher.whitespace().or(ANY_DIGIT).or(GROUPING_SEPARATORS).or(CharMatcher.is('+'));
 
   private static final DigitSequence CC_ARGENTINA = DigitSequence.parse("54");
-  private static final Pattern ARGENTINA_MOBILE_PREFIX = Pattern.compile("0?(.{2,4})15(.{6,8})");
 
-  private static final Comparator<PhoneNumberResult<?>> COMPARE_RESULTS =
-      Comparator.comparing(PhoneNumberResult::getMatchResult);
+  private static final MatchResult[] MATCH_RESULTS = MatchResult.values();
+  private static final FormatType[] FORMAT_TYPES = FormatType.values();
 
-  private final RawClassifier rawClassifier;
-  private final ImmutableListMultimap<DigitSequence, T> regionCodeMap;
-  private final ImmutableMap<T, DigitSequence> callingCodeMap;
-  private final ImmutableMap<String, PhoneNumber> exampleNumberMap;
-  private final ImmutableSetMultimap<DigitSequence, DigitSequence> nationalPrefixMap;
-  private final ImmutableSet<DigitSequence> nationalPrefixOptional;
-
-  // Called from AbstractPhoneNumberClassifier.
-  PhoneNumberParser(RawClassifier rawClassifier, Function<String, T> converter) {
-    this.rawClassifier = rawClassifier;
-    T worldRegion = checkNotNull(converter.apply("001"));
-    ImmutableListMultimap.Builder<DigitSequence, T> regionCodeMap = ImmutableListMultimap.builder();
-    ImmutableMap.Builder<T, DigitSequence> callingCodeMap = ImmutableMap.builder();
-    // Contains keys for both regions ("US", "GB" and "001") as well as calling codes ("1", "44",
-    // "883").
-    // There is no possibility of clashing between these and it saves having 2 maps.
-    ImmutableMap.Builder<String, PhoneNumber> exampleNumberMap = ImmutableMap.builder();
-    ImmutableSetMultimap.Builder<DigitSequence, DigitSequence> nationalPrefixMap =
-        ImmutableSetMultimap.builder();
-    ImmutableSet.Builder<DigitSequence> nationalPrefixOptional = ImmutableSet.builder();
-    for (DigitSequence cc : rawClassifier.getSupportedCallingCodes()) {
-      ParserData parserData = rawClassifier.getParserData(cc);
-      checkState(parserData != null, "Parser data unavailable for: " + cc);
-      ImmutableSet<T> regions =
-          parserData.getRegions().stream().map(converter).collect(toImmutableSet());
-
-      // Region 001 is treated specially since it's the only region with more than one calling code,
-      // so it cannot be put into the calling code map. It cannot also appear with other regions.
-      // region codes.
-      if (!regions.contains(worldRegion)) {
-        regions.forEach(r -> callingCodeMap.put(r, cc));
-      } else if (regions.size() > 1) {
-        throw new Error("Region 001 must never appear with other region codes: " + regions);
-      }
-      regionCodeMap.putAll(cc, regions);
-
-      ImmutableList<DigitSequence> exampleNationalNumbers = parserData.getExampleNationalNumbers();
-      if (!exampleNationalNumbers.isEmpty()) {
-        checkArgument(
-            exampleNationalNumbers.size() == regions.size(),
-            "Invalid example numbers (should match available regions): %s",
-            exampleNationalNumbers);
-        // This gets a bit complicated due to the existence of the "world" region 001, for which
-        // multiple calling codes and multiple regions exist. To address this we store example
-        // numbers keyed by both calling code and region code (in string form). Luckily it's
-        // impossible for keys to overlap, so we can share the same map.
-        ImmutableList<T> regionsList = regions.asList();
-        for (int i = 0; i < regionsList.size(); i++) {
-          DigitSequence nationalNumber = exampleNationalNumbers.get(i);
-          // Empty example numbers are possible and must just be ignored.
-          if (nationalNumber.isEmpty()) continue;
-          PhoneNumber example = PhoneNumbers.of(cc, nationalNumber);
-          if (i == 0) {
-            // The "main" region is also keyed by its calling code (this is how "world" region
-            // examples can be returned to the user).
-            exampleNumberMap.put(cc.toString(), example);
-          }
-          T region = regionsList.get(i);
-          if (!region.equals(worldRegion)) {
-            // Non-world regions are keyed here.
-            exampleNumberMap.put(region.toString(), example);
+  /*
+   * Immutable parser data derived from a single snapshot of the raw classifier (see
+   * RawClassifier#snapshot()). Each parse operation obtains this once, so all the metadata it uses
+   * comes from the same version, even if the classifier is reloaded during the operation.
+   */
+  private static final class Snapshot<T> {
+    private final RawClassifier rawClassifier;
+    private final ImmutableListMultimap<DigitSequence, T> regionCodeMap;
+    private final ImmutableMap<T, DigitSequence> callingCodeMap;
+    private final ImmutableMap<String, PhoneNumber> exampleNumberMap;
+    private final ImmutableMap<DigitSequence, NationalPrefixTrie> nationalPrefixTries;
+    private final ImmutableSet<DigitSequence> nationalPrefixOptional;
+
+    Snapshot(RawClassifier rawClassifier, Function<String, T> converter) {
+      this.rawClassifier = rawClassifier;
+      T worldRegion = checkNotNull(converter.apply("001"));
+      ImmutableListMultimap.Builder<DigitSequence, T> regionCodeMap =
+          ImmutableListMultimap.builder();
+      ImmutableMap.Builder<T, DigitSequence> callingCodeMap = ImmutableMap.builder();
+      // Contains keys for both regions ("US", "GB" and "001") as well as calling codes ("1", "44",
+      // "883").
+      // There is no possibility of clashing between these and it saves having 2 maps.
+      ImmutableMap.Builder<String, PhoneNumber> exampleNumberMap = ImmutableMap.builder();
+      ImmutableMap.Builder<DigitSequence, NationalPrefixTrie> nationalPrefixTries =
+          ImmutableMap.builder();
+      ImmutableSet.Builder<DigitSequence> nationalPrefixOptional = ImmutableSet.builder();
+      for (DigitSequence cc : rawClassifier.getSupportedCallingCodes()) {
+        ParserData parserData = rawClassifier.getParserData(cc);
+        checkState(parserData != null, "Parser data unavailable for: " + cc);
+        ImmutableSet<T> regions =
+            parserData.getRegions().stream().map(converter).collect(toImmutableSet());
+
+        // Region 001 is treated specially since it's the only region with more than one calling
+        // code, so it cannot be put into the calling code map. It cannot also appear with other
+        // region codes.
+        if (!regions.contains(worldRegion)) {
+          regions.forEach(r -> callingCodeMap.put(r, cc));
+        } else if (regions.size() > 1) {
+          throw new Error("Region 001 must never appear with other region codes: " + regions);
+        }
+        regionCodeMap.putAll(cc, regions);
+
+        ImmutableList<DigitSequence> exampleNationalNumbers =
+            parserData.getExampleNationalNumbers();
+        if (!exampleNationalNumbers.isEmpty()) {
+          checkArgument(
+              exampleNationalNumbers.size() == regions.size(),
+              "Invalid example numbers (should match available regions): %s",
+              exampleNationalNumbers);
+          // This gets a bit complicated due to the existence of the "world" region 001, for which
+          // multiple calling codes and multiple regions exist. To address this we store example
+          // numbers keyed by both calling code and region code (in string form). Luckily it's
+          // impossible for keys to overlap, so we can share the same map.
+          ImmutableList<T> regionsList = regions.asList();
+          for (int i = 0; i < regionsList.size(); i++) {
+            DigitSequence nationalNumber = exampleNationalNumbers.get(i);
+            // Empty example numbers are possible and must just be ignored.
+            if (nationalNumber.isEmpty()) continue;
+            PhoneNumber example = PhoneNumbers.of(cc, nationalNumber);
+            if (i == 0) {
+              // The "main" region is also keyed by its calling code (this is how "world" region
+              // examples can be returned to the user).
+              exampleNumberMap.put(cc.toString(), example);
+            }
+            T region = regionsList.get(i);
+            if (!region.equals(worldRegion)) {
+              // Non-world regions are keyed here.
+              exampleNumberMap.put(region.toString(), example);
+            }
           }
         }
-      }
 
-      if (!parserData.getNationalPrefixes().isEmpty()) {
-        nationalPrefixMap.putAll(cc, parserData.getNationalPrefixes());
-        if (parserData.isNationalPrefixOptional()) {
-          nationalPrefixOptional.add(cc);
+        if (!parserData.getNationalPrefixes().isEmpty()) {
+          nationalPrefixTries.put(
+              cc,
+              NationalPrefixTrie.of(
+                  parserData.getNationalPrefixes(),
+                  leadingDigits -> canStartValidNumber(rawClassifier.match(cc, leadingDigits))));
+          if (parserData.isNationalPrefixOptional()) {
+            nationalPrefixOptional.add(cc);
+          }
         }
       }
+      this.regionCodeMap = regionCodeMap.build();
+      this.callingCodeMap = callingCodeMap.buildOrThrow();
+      this.exampleNumberMap = exampleNumberMap.buildOrThrow();
+      this.nationalPrefixTries = nationalPrefixTries.buildOrThrow();
+      this.nationalPrefixOptional = nationalPrefixOptional.build();
+    }
+  }
+
+  private final RawClassifier rawClassifier;
+  private final Function<String, T> converter;
+  // Rebuilt (once per reload) when the raw classifier snapshot changes.
+  private volatile Snapshot<T> snapshot;
+
+  // Called from AbstractPhoneNumberClassifier.
+  PhoneNumberParser(RawClassifier rawClassifier, Function<String, T> converter) {
+    this.rawClassifier = checkNotNull(rawClassifier);
+    this.converter = checkNotNull(converter);
+    this.snapshot = new Snapshot<>(rawClassifier.snapshot(), converter);
+  }
+
+  /*
+   * Returns the parser data for the current metadata of the raw classifier, rebuilding it if the
+   * metadata was reloaded. If several threads race to rebuild the data, the results are equivalent
+   * and any of them can be kept.
+   */
+  private Snapshot<T> snapshot() {
+    RawClassifier current = rawClassifier.snapshot();
+    Snapshot<T> s = snapshot;
+    if (s.rawClassifier != current) {
+      s = new Snapshot<>(current, converter);
+      snapshot = s;
     }
-    this.regionCodeMap = regionCodeMap.build();
-    this.callingCodeMap = callingCodeMap.buildOrThrow();
-    this.exampleNumberMap = exampleNumberMap.buildOrThrow();
-    this.nationalPrefixMap = nationalPrefixMap.build();
-    this.nationalPrefixOptional = nationalPrefixOptional.build();
+    return s;
   }
 
   /**
@@ -187,7 +227,7 @@ public final class PhoneNumberParser<T> {
    * <p>If the given calling code is not supported, an empty list is returned.
    */
   public ImmutableList<T> getRegions(DigitSequence callingCode) {
-    return regionCodeMap.get(callingCode);
+    return snapshot().regionCodeMap.get(callingCode);
   }
 
   /**
@@ -202,7 +242,7 @@ public final class PhoneNumberParser<T> {
    * <p>If the given region code is not supported, {@link Optional#empty()} is returned.
    */
   public Optional<DigitSequence> getCallingCode(T region) {
-    return Optional.ofNullable(callingCodeMap.get(region));
+    return Optional.ofNullable(snapshot().callingCodeMap.get(region));
   }
 
   /**
@@ -216,8 +256,9 @@ public final class PhoneNumberParser<T> {
    * it cannot be resolved by this method. Use {@link #getExampleNumber(DigitSequence)} instead.
    */
   public Optional<PhoneNumber> getExampleNumber(T region) {
-    return callingCodeMap.containsKey(region)
-        ? Optional.ofNullable(exampleNumberMap.get(region.toString()))
+    Snapshot<T> s = snapshot();
+    return s.callingCodeMap.containsKey(region)
+        ? Optional.ofNullable(s.exampleNumberMap.get(region.toString()))
         : Optional.empty();
   }
 
@@ -231,8 +272,9 @@ public final class PhoneNumberParser<T> {
    * <p>Note: This method will return the example number of the main region of the calling code.
    */
   public Optional<PhoneNumber> getExampleNumber(DigitSequence callingCode) {
-    return regionCodeMap.containsKey(callingCode)
-        ? Optional.ofNullable(exampleNumberMap.get(callingCode.toString()))
+    Snapshot<T> s = snapshot();
+    return s.regionCodeMap.containsKey(callingCode)
+        ? Optional.ofNullable(s.exampleNumberMap.get(callingCode.toString()))
         : Optional.empty();
   }
 
@@ -262,12 +304,405 @@ public final class PhoneNumberParser<T> {
     return result;
   }
 
-  private DigitSequence toCallingCode(T region) {
+  /**
+   * Parses the given text for several possible regions, returning the result with the best match
+   * (e.g. for when the user's region is only inferred from things like IP address or locale). This
+   * returns the same result as calling {@link #parseStrictly(String, Object)} for each region in
+   * turn, and keeping the first result with the best {@link MatchResult}, but it processes the text
+   * and determines the international result only once.
+   *
+   * <p>Regions which are not supported by the parser's metadata (including the "world" region
+   * "001") are ignored, and if no supported regions are given, this is equivalent to {@link
+   * #parseStrictly(String)}.
+   */
+  public PhoneNumberResult<T> parseBest(String text, List<T> candidateRegions) {
+    DigitSequence digits = getDigits(text);
+    PhoneNumberResult<T> result =
+        digits != null
+            ? parseBestImpl(
+                snapshot(), digits, countInternationalPrefixDigits(text), candidateRegions)
+            : null;
+    checkArgument(result != null, "Cannot parse phone number text '%s'", text);
+    return result;
+  }
+
+  public Optional<PhoneNumber> parseLeniently(byte[] utf8, int offset, int length, T region) {
+    return parseLeniently(utf8, offset, length, toCallingCode(region));
+  }
+
+  /**
+   * Parses phone number text given as UTF-8 encoded bytes, without first decoding them into a
+   * string. This accepts exactly the same text as {@link #parseLeniently(String, DigitSequence)}
+   * (malformed UTF-8 is treated as unparseable text).
+   *
+   * @throws IndexOutOfBoundsException if the given offset and length are not valid for the array.
+   */
+  public Optional<PhoneNumber> parseLeniently(
+      byte[] utf8, int offset, int length, @Nullable DigitSequence callingCode) {
+    return parseLeniently(ByteBuffer.wrap(utf8, offset, length), callingCode);
+  }
+
+  public Optional<PhoneNumber> parseLeniently(ByteBuffer utf8, T region) {
+    return parseLeniently(utf8, toCallingCode(region));
+  }
+
+  /**
+   * Parses phone number text given as UTF-8 encoded bytes between the position and limit of the
+   * given buffer, without first decoding them into a string. This accepts exactly the same text as
+   * {@link #parseLeniently(String, DigitSequence)} (malformed UTF-8 is treated as unparseable
+   * text). The position of the buffer is not modified.
+   */
+  public Optional<PhoneNumber> parseLeniently(
+      ByteBuffer utf8, @Nullable DigitSequence callingCode) {
+    return Optional.ofNullable(parseImpl(utf8, callingCode)).map(PhoneNumberResult::getPhoneNumber);
+  }
+
+  public PhoneNumberResult<T> parseStrictly(byte[] utf8, int offset, int length, T region) {
+    return parseStrictly(utf8, offset, length, toCallingCode(region));
+  }
+
+  /**
+   * Parses phone number text given as UTF-8 encoded bytes, without first decoding them into a
+   * string. This accepts exactly the same text as {@link #parseStrictly(String, DigitSequence)}
+   * (malformed UTF-8 is treated as unparseable text).
+   *
+   * @throws IndexOutOfBoundsException if the given offset and length are not valid for the array.
+   */
+  public PhoneNumberResult<T> parseStrictly(
+      byte[] utf8, int offset, int length, @Nullable DigitSequence callingCode) {
+    return parseStrictly(ByteBuffer.wrap(utf8, offset, length), callingCode);
+  }
+
+  public PhoneNumberResult<T> parseStrictly(ByteBuffer utf8, T region) {
+    return parseStrictly(utf8, toCallingCode(region));
+  }
+
+  /**
+   * Parses phone number text given as UTF-8 encoded bytes between the position and limit of the
+   * given buffer, without first decoding them into a string. This accepts exactly the same text as
+   * {@link #parseStrictly(String, DigitSequence)} (malformed UTF-8 is treated as unparseable text).
+   * The position of the buffer is not modified.
+   */
+  public PhoneNumberResult<T> parseStrictly(ByteBuffer utf8, @Nullable DigitSequence callingCode) {
+    PhoneNumberResult<T> result = parseImpl(utf8, callingCode);
+    if (result == null) {
+      // Only decode the text for the error message.
+      throw new IllegalArgumentException(
+          "Cannot parse phone number text '" + UTF_8.decode(utf8.duplicate()) + "'");
+    }
+    return result;
+  }
+
+  public long parseToLong(String text, T region) {
+    return parseToLong(text, toCallingCode(region));
+  }
+
+  /**
+   * Parses phone number text in the same way as {@link #parseStrictly(String, DigitSequence)}, but
+   * returns the result as a packed {@code long} value, which can be decoded using the methods in
+   * {@link PackedPhoneNumberResult}. Text which cannot be parsed results in {@link
+   * PackedPhoneNumberResult#UNPARSEABLE} rather than an exception, and no strings, exceptions or
+   * result instances are created during parsing, making this suitable for the high-rate filtering
+   * of (possibly bad) input.
+   *
+   * <p>Text with more than 15 digits (the maximum length of an E.164 number) is unparseable.
+   *
+   * @throws IllegalArgumentException if the given calling code is not 1 to 3 digits without a
+   *     leading zero (as for {@link #parseStrictly(String, DigitSequence)}).
+   */
+  public long parseToLong(String text, @Nullable DigitSequence callingCode) {
+    checkCallingCode(callingCode);
+    DigitSequence digits = scanDigits(text, PackedPhoneNumberResult.MAX_DIGITS);
+    return parseToLongImpl(
+        snapshot(), digits, digits != null ? countInternationalPrefixDigits(text) : 0, callingCode);
+  }
+
+  public long parseToLong(byte[] utf8, int offset, int length, T region) {
+    return parseToLong(utf8, offset, length, toCallingCode(region));
+  }
+
+  /**
+   * Parses UTF-8 encoded phone number text in the same way as {@link #parseToLong(String,
+   * DigitSequence)}.
+   *
+   * @throws IndexOutOfBoundsException if the given offset and length are not valid for the array.
+   */
+  public long parseToLong(
+      byte[] utf8, int offset, int length, @Nullable DigitSequence callingCode) {
+    return parseToLong(ByteBuffer.wrap(utf8, offset, length), callingCode);
+  }
+
+  public long parseToLong(ByteBuffer utf8, T region) {
+    return parseToLong(utf8, toCallingCode(region));
+  }
+
+  /**
+   * Parses UTF-8 encoded phone number text between the position and limit of the given buffer in
+   * the same way as {@link #parseToLong(String, DigitSequence)}. The position of the buffer is not
+   * modified.
+   */
+  public long parseToLong(ByteBuffer utf8, @Nullable DigitSequence callingCode) {
+    checkCallingCode(callingCode);
+    DigitSequence digits = scanDigits(utf8, PackedPhoneNumberResult.MAX_DIGITS);
+    return parseToLongImpl(
+        snapshot(), digits, digits != null ? countInternationalPrefixDigits(utf8) : 0, callingCode);
+  }
+
+  // Called from PhoneNumberFinder.
+  DigitSequence toCallingCode(T region) {
     Optional<DigitSequence> callingCode = getCallingCode(region);
     checkArgument(callingCode.isPresent(), "Unknown region code: %s", region);
     return callingCode.get();
   }
 
+  // Called from PhoneNumberFinder.
+  @Nullable
+  PhoneNumberResult<T> parseImpl(String text, @Nullable DigitSequence callingCode) {
+    checkCallingCode(callingCode);
+    DigitSequence digits = getDigits(text);
+    return digits != null
+        ? parseImpl(snapshot(), digits, countInternationalPrefixDigits(text), callingCode)
+        : null;
+  }
+
+  /*
+   * A caller supplied calling code is used for national results, so it must be well formed, even
+   * if it is not supported (which just makes every national result invalid).
+   */
+  private static void checkCallingCode(@Nullable DigitSequence callingCode) {
+    checkArgument(
+        callingCode == null || PhoneNumbers.isWellFormedCallingCode(callingCode),
+        "Invalid calling code: %s",
+        callingCode);
+  }
+
+  /*
+   * Returns the digits of the given text, or null if it has no digits, any disallowed chars, or
+   * more digits than a DigitSequence can hold (which depends on the encoding). Text with too many
+   * digits is unparseable, in the same way for String and UTF-8 input.
+   */
+  @Nullable
+  private static DigitSequence getDigits(String text) {
+    return scanDigits(text, DigitSequenceEncoder.getMaxLength());
+  }
+
+  @Nullable
+  private PhoneNumberResult<T> parseImpl(ByteBuffer utf8, @Nullable DigitSequence callingCode) {
+    checkCallingCode(callingCode);
+    DigitSequence digits = scanDigits(utf8, DigitSequenceEncoder.getMaxLength());
+    return digits != null
+        ? parseImpl(snapshot(), digits, countInternationalPrefixDigits(utf8), callingCode)
+        : null;
+  }
+
+  @Nullable
+  private PhoneNumberResult<T> parseImpl(
+      Snapshot<T> s,
+      DigitSequence digits,
+      int internationalPrefixDigits,
+      @Nullable DigitSequence callingCode) {
+    return toPhoneNumberResult(
+        s, parseDigits(s, digits, internationalPrefixDigits, callingCode), digits, callingCode);
+  }
+
+  @Nullable
+  private PhoneNumberResult<T> toPhoneNumberResult(
+      Snapshot<T> s,
+      long result,
+      DigitSequence digits,
+      @Nullable DigitSequence callingCode) {
+    if (result == NO_RESULT) {
+      return null;
+    }
+    DigitSequence cc = getCallingCode(result, digits, callingCode);
+    return PhoneNumberResult.of(
+        PhoneNumbers.of(cc, getNationalNumber(s, result, cc, digits)),
+        getMatchResult(result),
+        getFormatType(result));
+  }
+
+  @Nullable
+  private PhoneNumberResult<T> parseBestImpl(
+      Snapshot<T> s,
+      DigitSequence digits,
+      int internationalPrefixDigits,
+      List<T> candidateRegions) {
+    // The international result is independent of the region, so only calculate it once.
+    DigitSequence extractedCc = PhoneNumbers.extractCallingCode(digits);
+    long internationalParseResult = getInternationalResult(s, digits, extractedCc);
+    long bestResult = internationalParseResult;
+    DigitSequence bestCallingCode = null;
+    for (T region : candidateRegions) {
+      DigitSequence callingCode = s.callingCodeMap.get(region);
+      if (callingCode == null) {
+        continue;
+      }
+      long result =
+          chooseResult(
+              s,
+              digits,
+              internationalPrefixDigits,
+              callingCode,
+              extractedCc,
+              internationalParseResult);
+      // Results for subsequent regions must be strictly better to replace the current result.
+      if (bestCallingCode == null
+          || getMatchResult(result).isBetterThan(getMatchResult(bestResult))) {
+        bestResult = result;
+        bestCallingCode = callingCode;
+        if (getMatchResult(bestResult) == MATCHED) {
+          break;
+        }
+      }
+    }
+    return toPhoneNumberResult(s, bestResult, digits, bestCallingCode);
+  }
+
+  private long parseToLongImpl(
+      Snapshot<T> s,
+      @Nullable DigitSequence digits,
+      int internationalPrefixDigits,
+      @Nullable DigitSequence callingCode) {
+    long result =
+        digits != null
+            ? parseDigits(s, digits, internationalPrefixDigits, callingCode)
+            : NO_RESULT;
+    if (result == NO_RESULT) {
+      return PackedPhoneNumberResult.UNPARSEABLE;
+    }
+    DigitSequence cc = getCallingCode(result, digits, callingCode);
+    return PackedPhoneNumberResult.of(
+        cc,
+        getNationalNumber(s, result, cc, digits),
+        getMatchResult(result),
+        getFormatType(result));
+  }
+
+  /*
+   * Returns the digits of the given text, or null if it contains no digits, more than the given
+   * number of digits, or any disallowed chars. This is equivalent to removing non-digits from the
+   * text (after checking it), but without creating a new string.
+   */
+  @Nullable
+  private static DigitSequence scanDigits(String text, int maxDigits) {
+    long value = 0;
+    int length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int digit = digitOf(c);
+      if (digit >= 0) {
+        if (++length > maxDigits) {
+          return null;
+        }
+        value = (10 * value) + digit;
+      } else if (!ALLOWED_CHARS.matches(c)) {
+        return null;
+      }
+    }
+    return length > 0 ? DigitSequence.ofEncoded(DigitSequenceEncoder.encode(value, length)) : null;
+  }
+
+  /*
+   * As scanDigits(String, int) for UTF-8 encoded text, which is decoded in the same pass (malformed
+   * UTF-8 is treated as a disallowed char). Since DigitSequence can hold at most 19 digits, the
+   * unsigned accumulated value never needs more than 64 bits.
+   */
+  @Nullable
+  private static DigitSequence scanDigits(ByteBuffer utf8, int maxDigits) {
+    long value = 0;
+    int length = 0;
+    for (int i = utf8.position(), end = utf8.limit(); i < end; ) {
+      int cp = utf8.get(i++);
+      if (cp < 0) {
+        // Decode a 2 or 3 byte sequence (all allowed chars are in the Basic Multilingual Plane).
+        if ((cp & 0xE0) == 0xC0 && cp >= (byte) 0xC2 && i < end) {
+          cp = ((cp & 0x1F) << 6) | continuationBits(utf8.get(i++));
+        } else if ((cp & 0xF0) == 0xE0 && i + 1 < end) {
+          cp = ((cp & 0x0F) << 12) | (continuationBits(utf8.get(i++)) << 6);
+          cp |= continuationBits(utf8.get(i++));
+          if (cp < 0x800 || (cp >= 0xD800 && cp <= 0xDFFF)) {
+            return null;
+          }
+        } else {
+          return null;
+        }
+        if (cp < 0) {
+          // At least one bad continuation byte.
+          return null;
+        }
+      }
+      int digit = digitOf((char) cp);
+      if (digit >= 0) {
+        if (++length > maxDigits) {
+          return null;
+        }
+        value = (10 * value) + digit;
+      } else if (!ALLOWED_CHARS.matches((char) cp)) {
+        return null;
+      }
+    }
+    return length > 0 ? DigitSequence.ofEncoded(DigitSequenceEncoder.encode(value, length)) : null;
+  }
+
+  // Returns the lower 6 bits of a UTF-8 continuation byte, or -1 if not a continuation byte.
+  private static int continuationBits(byte b) {
+    return (b & 0xC0) == 0x80 ? (b & 0x3F) : -1;
+  }
+
+  // Returns the value of an ASCII or wide digit, or -1 if not a digit.
+  private static int digitOf(char c) {
+    return c >= '0' && c <= '9' ? c - '0' : c >= '０' && c <= '９' ? c - '０' : -1;
+  }
+
+  /*
+   * The best result is calculated without allocating any intermediate results, which are held as
+   * packed values (see below) until the final result is chosen. Note that the national number of
+   * a result is derived from the parsed digits when needed, rather than being held in the result.
+   */
+  private static final long NO_RESULT = -1;
+  // Bits 0-2: MatchResult ordinal.
+  private static final int MATCH_RESULT_MASK = 0x7;
+  // Bit 3: FormatType ordinal.
+  private static final int FORMAT_TYPE_SHIFT = 3;
+  // Bit 4: Set if the Argentinian mobile token was adjusted (see below).
+  private static final long ADJUSTED_BIT = 1 << 4;
+  // Bits 5+: Length of the removed national prefix.
+  private static final int PREFIX_LENGTH_SHIFT = 5;
+
+  private static long result(
+      MatchResult matchResult, FormatType formatType, boolean isAdjusted, int prefixLength) {
+    return matchResult.ordinal()
+        | (formatType.ordinal() << FORMAT_TYPE_SHIFT)
+        | (isAdjusted ? ADJUSTED_BIT : 0)
+        | ((long) prefixLength << PREFIX_LENGTH_SHIFT);
+  }
+
+  private static MatchResult getMatchResult(long result) {
+    return MATCH_RESULTS[(int) result & MATCH_RESULT_MASK];
+  }
+
+  private static FormatType getFormatType(long result) {
+    return FORMAT_TYPES[(int) (result >>> FORMAT_TYPE_SHIFT) & 1];
+  }
+
+  private static DigitSequence getCallingCode(
+      long result, DigitSequence digits, @Nullable DigitSequence callingCode) {
+    return getFormatType(result) == INTERNATIONAL
+        ? PhoneNumbers.extractCallingCode(digits)
+        : callingCode;
+  }
+
+  // Recreates the national number of a result using the same steps as getBestResult().
+  private static DigitSequence getNationalNumber(
+      Snapshot<?> s, long result, DigitSequence cc, DigitSequence digits) {
+    DigitSequence nn =
+        getFormatType(result) == INTERNATIONAL ? removePrefix(digits, cc.length()) : digits;
+    if ((result & ADJUSTED_BIT) != 0) {
+      nn = maybeAdjustArgentineFixedLineNumber(s, cc, nn);
+    }
+    return removePrefix(nn, (int) (result >>> PREFIX_LENGTH_SHIFT));
+  }
+
   /*
    * The algorithm tries to parse the input assuming both "national" and "international"
    * formatting of the given text.
@@ -303,122 +738,211 @@ public final class PhoneNumberParser<T> {
    *   N/A    || INT [2] | INT [2] | INT [2] | INT [2] | INT [2] | --- [1] |
    * ---------||---------+---------+---------+---------+---------+---------+
    */
-  @Nullable
-  private PhoneNumberResult<T> parseImpl(String text, @Nullable DigitSequence callingCode) {
-    if (!ALLOWED_CHARS.matchesAllOf(text)) {
-      return null;
-    }
-    // Should always succeed even if result is empty.
-    String digitText = removeNonDigitsAndNormalizeToAscii(text);
-    if (digitText.isEmpty()) {
-      return null;
-    }
-    DigitSequence digits = DigitSequence.parse(digitText);
-    DigitSequence extractedCc = PhoneNumbers.extractCallingCode(digitText);
-    PhoneNumberResult<T> nationalParseResult =
-        callingCode != null ? getBestResult(callingCode, digits, NATIONAL) : null;
+  private static long parseDigits(
+      Snapshot<?> s,
+      DigitSequence digits,
+      int internationalPrefixDigits,
+      @Nullable DigitSequence callingCode) {
+    DigitSequence extractedCc = PhoneNumbers.extractCallingCode(digits);
+    return chooseResult(
+        s,
+        digits,
+        internationalPrefixDigits,
+        callingCode,
+        extractedCc,
+        getInternationalResult(s, digits, extractedCc));
+  }
+
+  private static long getInternationalResult(
+      Snapshot<?> s, DigitSequence digits, @Nullable DigitSequence extractedCc) {
+    return extractedCc != null
+        ? getBestResult(s, extractedCc, removePrefix(digits, extractedCc.length()), INTERNATIONAL)
+        : NO_RESULT;
+  }
+
+  // Chooses between the national and (precalculated) international results for a calling code.
+  private static long chooseResult(
+      Snapshot<?> s,
+      DigitSequence digits,
+      int internationalPrefixDigits,
+      @Nullable DigitSequence callingCode,
+      @Nullable DigitSequence extractedCc,
+      long internationalParseResult) {
+    long nationalParseResult =
+        callingCode != null ? getBestResult(s, callingCode, digits, NATIONAL) : NO_RESULT;
     if (extractedCc == null) {
       // This accounts for step [1] (no results) and step [2] with only the national result.
       return nationalParseResult;
     }
-    PhoneNumberResult<T> internationalParseResult =
-        getBestResult(extractedCc, removePrefix(digits, extractedCc.length()), INTERNATIONAL);
-    if (nationalParseResult == null) {
+    if (nationalParseResult == NO_RESULT) {
       // This accounts for step [2] with only the international result.
       return internationalParseResult;
     }
-    if (COMPARE_RESULTS.compare(nationalParseResult, internationalParseResult) < 0) {
+    if (getMatchResult(nationalParseResult).compareTo(getMatchResult(internationalParseResult))
+        < 0) {
       // This accounts for step [3].
       return nationalParseResult;
     }
-    if (callingCode.equals(extractedCc) || looksLikeInternationalFormat(text, extractedCc)) {
+    if (callingCode.equals(extractedCc) || internationalPrefixDigits >= extractedCc.length()) {
       // This accounts for step [4] when the input strongly suggest international format.
       return internationalParseResult;
     }
     return nationalParseResult;
   }
 
-  // This is true for things like "+1234", "(+12) 34" but NOT "+ 12 34", "++1234" or "+1234+".
-  private static boolean looksLikeInternationalFormat(String text, DigitSequence cc) {
+  // Returns the number of consecutive ASCII digits at the start of internationally formatted text,
+  // or zero if the text is not internationally formatted. The text looks like it's internationally
+  // formatted if the extracted calling code is no longer than this value. This is true for things
+  // like "+1234", "(+12) 34" but NOT "+ 12 34", "++1234" or "+1234+".
+  private static int countInternationalPrefixDigits(String text) {
     int firstDigit = ANY_DIGIT.indexIn(text);
-    return firstDigit > 0
-        && text.charAt(firstDigit - 1) == '+'
-        && text.indexOf('+', firstDigit) == -1
-        && text.regionMatches(firstDigit, cc.toString(), 0, cc.length());
+    if (firstDigit <= 0
+        || text.charAt(firstDigit - 1) != '+'
+        || text.indexOf('+', firstDigit) != -1) {
+      return 0;
+    }
+    int end = firstDigit;
+    while (end < text.length() && ASCII_DIGIT.matches(text.charAt(end))) {
+      end++;
+    }
+    return end - firstDigit;
   }
 
-  private PhoneNumberResult<T> getBestResult(
-      DigitSequence cc, DigitSequence nn, FormatType formatType) {
+  // As above, for UTF-8 text already checked by scanDigits(). Multibyte UTF-8 sequences never
+  // contain ASCII bytes, so only wide digits (encoded as "EF BC 90" to "EF BC 99") need decoding.
+  private static int countInternationalPrefixDigits(ByteBuffer utf8) {
+    int start = utf8.position();
+    int end = utf8.limit();
+    int firstDigit = start;
+    while (firstDigit < end
+        && !isAsciiDigit(utf8.get(firstDigit))
+        && !isWideDigit(utf8, firstDigit)) {
+      firstDigit++;
+    }
+    if (firstDigit == start || firstDigit == end || utf8.get(firstDigit - 1) != '+') {
+      return 0;
+    }
+    for (int i = firstDigit; i < end; i++) {
+      if (utf8.get(i) == '+') {
+        return 0;
+      }
+    }
+    int digitsEnd = firstDigit;
+    while (digitsEnd < end && isAsciiDigit(utf8.get(digitsEnd))) {
+      digitsEnd++;
+    }
+    return digitsEnd - firstDigit;
+  }
+
+  private static boolean isAsciiDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isWideDigit(ByteBuffer utf8, int i) {
+    return utf8.get(i) == (byte) 0xEF
+        && i + 2 < utf8.limit()
+        && utf8.get(i + 1) == (byte) 0xBC
+        && utf8.get(i + 2) >= (byte) 0x90
+        && utf8.get(i + 2) <= (byte) 0x99;
+  }
+
+  private static long getBestResult(
+      Snapshot<?> s, DigitSequence cc, DigitSequence nn, FormatType formatType) {
+    RawClassifier rawClassifier = s.rawClassifier;
+    boolean isAdjusted = false;
     if (cc.equals(CC_ARGENTINA)) {
-      nn = maybeAdjustArgentineFixedLineNumber(cc, nn);
+      DigitSequence adjusted = maybeAdjustArgentineFixedLineNumber(s, cc, nn);
+      isAdjusted = adjusted != nn;
+      nn = adjusted;
     }
     if (!rawClassifier.getSupportedCallingCodes().contains(cc)) {
-      return PhoneNumberResult.of(PhoneNumbers.of(cc, nn), INVALID, formatType);
+      return result(INVALID, formatType, isAdjusted, 0);
     }
-    ImmutableSet<DigitSequence> nationalPrefixes = nationalPrefixMap.get(cc);
+    NationalPrefixTrie nationalPrefixes = s.nationalPrefixTries.get(cc);
     MatchResult bestResult = INVALID;
     // We can test the given number (without attempting to remove a national prefix) under some
     // conditions, but avoid doing so when a national prefix is required for national dialling.
     if (formatType == INTERNATIONAL
-        || nationalPrefixes.isEmpty()
-        || nationalPrefixOptional.contains(cc)) {
+        || nationalPrefixes == null
+        || s.nationalPrefixOptional.contains(cc)) {
       bestResult = rawClassifier.match(cc, nn);
     }
-    DigitSequence bestNumber = nn;
-    if (bestResult != MATCHED) {
-      for (DigitSequence np : nationalPrefixes) {
-        if (startsWith(np, nn)) {
-          DigitSequence candidateNumber = removePrefix(nn, np.length());
-          MatchResult candidateResult = rawClassifier.match(cc, candidateNumber);
-          if (candidateResult.isBetterThan(bestResult)) {
-            bestNumber = candidateNumber;
-            bestResult = candidateResult;
-            if (bestResult == MATCHED) {
-              break;
-            }
+    int bestPrefixLength = 0;
+    if (bestResult != MATCHED && nationalPrefixes != null) {
+      // Prefixes are tested in their original order (lowest index first) to preserve precedence.
+      for (long mask = nationalPrefixes.getPrefixMask(nn); mask != 0; mask &= mask - 1) {
+        int prefixLength = nationalPrefixes.getPrefixLength(Long.numberOfTrailingZeros(mask));
+        MatchResult candidateResult;
+        if (nationalPrefixes.canStartValidNumber(nn, prefixLength)) {
+          candidateResult = rawClassifier.match(cc, removePrefix(nn, prefixLength));
+        } else if (bestResult == INVALID) {
+          // Without a valid start, only the length of the candidate can affect its result.
+          candidateResult =
+              rawClassifier.testLength(cc, removePrefix(nn, prefixLength)) == POSSIBLE
+                  ? POSSIBLE_LENGTH
+                  : INVALID;
+        } else {
+          // The candidate cannot be better than the current result.
+          continue;
+        }
+        if (candidateResult.isBetterThan(bestResult)) {
+          bestPrefixLength = prefixLength;
+          bestResult = candidateResult;
+          if (bestResult == MATCHED) {
+            break;
           }
         }
       }
     }
-    return PhoneNumberResult.of(PhoneNumbers.of(cc, bestNumber), bestResult, formatType);
+    return result(bestResult, formatType, isAdjusted, bestPrefixLength);
   }
 
-  private DigitSequence maybeAdjustArgentineFixedLineNumber(DigitSequence cc, DigitSequence nn) {
-    if (rawClassifier.testLength(cc, nn) == TOO_LONG) {
-      Matcher m = ARGENTINA_MOBILE_PREFIX.matcher(nn.toString());
-      if (m.matches()) {
-        DigitSequence candidate = DigitSequence.parse("9" + m.group(1) + m.group(2));
-        if (rawClassifier.testLength(cc, candidate) == POSSIBLE) {
-          return candidate;
-        }
+  private static boolean canStartValidNumber(MatchResult result) {
+    return result == MATCHED || result == PARTIAL_MATCH || result == EXCESS_DIGITS;
+  }
+
+  private static DigitSequence maybeAdjustArgentineFixedLineNumber(
+      Snapshot<?> s, DigitSequence cc, DigitSequence nn) {
+    if (s.rawClassifier.testLength(cc, nn) == TOO_LONG) {
+      DigitSequence candidate = replaceArgentineMobileToken(nn);
+      if (candidate != null && s.rawClassifier.testLength(cc, candidate) == POSSIBLE) {
+        return candidate;
       }
     }
     return nn;
   }
 
-  private static boolean startsWith(DigitSequence prefix, DigitSequence seq) {
-    return prefix.length() <= seq.length() && seq.getPrefix(prefix.length()).equals(prefix);
+  /**
+   * Rewrites a national number matching {@code "0?(.{2,4})15(.{6,8})"} as {@code "9$1$2"}, or
+   * returns null if it does not match. Alternatives are tried in the same order as the equivalent
+   * regular expression would try them, but digits are read directly from the sequence.
+   */
+  @Nullable
+  private static DigitSequence replaceArgentineMobileToken(DigitSequence nn) {
+    int length = nn.length();
+    // The optional leading zero is greedy, so try removing it first.
+    for (int start = (length > 0 && nn.getDigit(0) == 0) ? 1 : 0; start >= 0; start--) {
+      for (int areaCodeLength = 4; areaCodeLength >= 2; areaCodeLength--) {
+        int token = start + areaCodeLength;
+        int subscriberLength = length - (token + 2);
+        if (subscriberLength >= 6
+            && subscriberLength <= 8
+            && nn.getDigit(token) == 1
+            && nn.getDigit(token + 1) == 5) {
+          long value = 9;
+          for (int n = start; n < length; n++) {
+            if (n != token && n != token + 1) {
+              value = (10 * value) + nn.getDigit(n);
+            }
+          }
+          return DigitSequence.ofEncoded(DigitSequenceEncoder.encode(value, length - start - 1));
+        }
+      }
+    }
+    return null;
   }
 
   private static DigitSequence removePrefix(DigitSequence seq, int length) {
     return seq.getSuffix(seq.length() - length);
   }
-
-  private static String removeNonDigitsAndNormalizeToAscii(String s) {
-    if (ASCII_DIGIT.matchesAllOf(s)) {
-      return s;
-    }
-    StringBuilder b = new StringBuilder();
-    ANY_DIGIT
-        .retainFrom(s)
-        .codePoints()
-        .map(PhoneNumberParser::normalizeToAscii)
-        .forEach(b::appendCodePoint);
-    return b.toString();
-  }
-
-  private static int normalizeToAscii(int cp) {
-    // Assume cp already matches ANY_DIGIT.
-    return WIDE_DIGIT.matches((char) cp) ? ('0' + (cp - '０')) : cp;
-  }
 }
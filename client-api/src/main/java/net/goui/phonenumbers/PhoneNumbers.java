@@ -15,6 +15,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.base.CharMatcher;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * Static factory class for obtaining {@link PhoneNumber} instances from E.164 strings.
@@ -63,6 +64,7 @@ public final class PhoneNumbers {
   }
 
   // Visible to PhoneNumberParser, so can be given arbitrary sequence a input.
+  @Nullable
   static DigitSequence extractCallingCode(String seq) {
     int len = seq.length();
     if (len == 0) return null;
@@ -80,6 +82,18 @@ public final class PhoneNumbers {
     return DigitSequence.parse(Integer.toString(cc));
   }
 
+  // As above, but for already parsed digits (avoids creating any strings).
+  @Nullable
+  static DigitSequence extractCallingCode(DigitSequence seq) {
+    int cc = 0;
+    for (int n = 0; n < Math.min(seq.length(), 3); n++) {
+      cc = (10 * cc) + seq.getDigit(n);
+      if (cc == 0) return null;
+      if (isCallingCode(cc)) return seq.getPrefix(n + 1);
+    }
+    return null;
+  }
+
   private static int digitOf(String s, int n) {
     int d = s.charAt(n) - '0';
     checkArgument(d >= 0 && d <= 9, "Invalid decimal digit in: %s", s);
@@ -92,10 +106,12 @@ public final class PhoneNumbers {
   }
 
   private static boolean isCallingCode(DigitSequence cc) {
-    return !cc.isEmpty()
-        && cc.length() <= 3
-        && cc.getDigit(0) != 0
-        && isCallingCode(Integer.parseInt(cc.toString()));
+    return isWellFormedCallingCode(cc) && isCallingCode(Integer.parseInt(cc.toString()));
+  }
+
+  // Visible to PhoneNumberParser and PackedPhoneNumberResult (1 to 3 digits, no leading zero).
+  static boolean isWellFormedCallingCode(DigitSequence cc) {
+    return !cc.isEmpty() && cc.length() <= 3 && cc.getDigit(0) != 0;
   }
 
   @AutoValue
@@ -160,9 +160,10 @@ final class TypeClassifier<V> implements SingleValuedMatcher<V> {
 
   @Override
   public Set<V> getPossibleValues(PhoneNumber number) {
-    ValueMatcher matcher = rawClassifier().getValueMatcher(number.getCallingCode(), typeName);
+    RawClassifier classifier = rawClassifier().snapshot();
+    ValueMatcher matcher = classifier.getValueMatcher(number.getCallingCode(), typeName);
     DigitSequence nationalNumber = number.getNationalNumber();
-    return rawClassifier().getPossibleValues(typeName).stream()
+    return classifier.getPossibleValues(typeName).stream()
         .filter(v -> matcher.matchValue(nationalNumber, v).compareTo(PARTIAL_MATCH) <= 0)
         .map(toValueFn)
         .collect(toImmutableSet());
@@ -10,11 +10,15 @@
 
 package net.goui.phonenumbers.metadata;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
 import java.util.Comparator;
+import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 
 /** A loader for {@link ClassifierService} instance provided via the service loader API. */
@@ -43,4 +47,61 @@ public final class ClassifierLoader {
         .sorted(Comparator.comparing(RawClassifier::getVersion, ordering))
         .collect(toImmutableList());
   }
+
+  /**
+   * Loads the best available {@link ClassifierService} (via the service loader API) which satisfies
+   * the given version predicate, where services are ordered by their stated versions via the given
+   * ordering. Only the best service is loaded, unless it fails to load, in which case the next best
+   * service is tried, and so on.
+   *
+   * <p>Unlike {@link #loadMatchedVersions(Predicate, Comparator)}, this avoids the cost of loading
+   * metadata which is never used when several compatible services are available.
+   *
+   * @return the loaded classifier, or empty if no available service satisfies the predicate.
+   * @throws RuntimeException if no service which satisfies the predicate could be loaded.
+   */
+  public static Optional<RawClassifier> loadBestMatchedVersion(
+      Predicate<VersionInfo> predicate, Comparator<VersionInfo> ordering) {
+    return loadBestMatchedVersion(
+        ServiceLoader.load(ClassifierService.class), predicate, ordering);
+  }
+
+  /**
+   * Asynchronously loads the best available {@link ClassifierService} (see {@link
+   * #loadBestMatchedVersion(Predicate, Comparator)}) using the given executor. Services are found
+   * using the context class loader of the calling thread.
+   */
+  public static CompletableFuture<Optional<RawClassifier>> loadBestMatchedVersion(
+      Predicate<VersionInfo> predicate, Comparator<VersionInfo> ordering, Executor executor) {
+    checkNotNull(executor);
+    // Create the service loader in the calling thread so it uses the expected class loader.
+    ServiceLoader<ClassifierService> serviceLoader = ServiceLoader.load(ClassifierService.class);
+    return CompletableFuture.supplyAsync(
+        () -> loadBestMatchedVersion(serviceLoader, predicate, ordering), executor);
+  }
+
+  private static Optional<RawClassifier> loadBestMatchedVersion(
+      ServiceLoader<ClassifierService> serviceLoader,
+      Predicate<VersionInfo> predicate,
+      Comparator<VersionInfo> ordering) {
+    // Sorting is stable, so services with equal versions are tried in service loader order.
+    ImmutableList<ClassifierService> services =
+        serviceLoader.stream()
+            .map(ServiceLoader.Provider::get)
+            .filter(s -> predicate.test(s.getStatedVersion()))
+            .sorted(Comparator.comparing(ClassifierService::getStatedVersion, ordering))
+            .collect(toImmutableList());
+    if (services.isEmpty()) {
+      return Optional.empty();
+    }
+    RuntimeException e = new RuntimeException("Error(s) loading classifier metadata.");
+    for (ClassifierService service : services) {
+      ErrorOr<RawClassifier> loaded = service.loadChecked();
+      if (loaded.isSuccess()) {
+        return Optional.of(loaded.get());
+      }
+      e.addSuppressed(loaded.getError());
+    }
+    throw e;
+  }
 }
@@ -62,6 +62,19 @@ public interface RawClassifier {
      * MatchResult#INVALID}).
      */
     ImmutableSet<String> getPossibleValues();
+
+    /**
+     * Returns the subset of possible values which could match the given number, or partial number,
+     * based on its leading digits. Values not in this set are guaranteed not to be returned as
+     * {@link MatchResult#MATCHED} by {@link #matchValue(DigitSequence, String)}, which allows
+     * callers looking for a match to avoid testing every possible value.
+     *
+     * <p>The default implementation simply returns {@link #getPossibleValues()}, but
+     * implementations are encouraged to return a smaller set where possible.
+     */
+    default Set<String> getCandidateValues(DigitSequence nationalNumber) {
+      return getPossibleValues();
+    }
   }
 
   /**
@@ -69,6 +82,19 @@ public interface RawClassifier {
    */
   VersionInfo getVersion();
 
+  /**
+   * Returns a raw classifier whose metadata will not change between calls. Operations which make
+   * several calls to a raw classifier (e.g. parsing or formatting) should obtain a snapshot once,
+   * and use it for every call, so they never mix results from different versions of metadata.
+   *
+   * <p>The default implementation returns this instance, which is correct for any classifier with
+   * fixed metadata. Classifiers which can reload metadata (e.g. {@link ReloadableClassifier}) return
+   * the classifier for the currently loaded metadata.
+   */
+  default RawClassifier snapshot() {
+    return this;
+  }
+
   /**
    * Returns the country calling codes supported by the metadata schema. Different metadata schemas
    * can make different promises about which calling codes are supported, and without knowledge of
@@ -0,0 +1,211 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.metadata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableSet;
+import java.time.Duration;
+import java.util.Set;
+import net.goui.phonenumbers.DigitSequence;
+import net.goui.phonenumbers.LengthResult;
+import net.goui.phonenumbers.MatchResult;
+
+/**
+ * A raw classifier which delegates to metadata that can be replaced at runtime (e.g. to pick up
+ * updated metadata without restarting a server).
+ *
+ * <p>The currently loaded classifier is held in a volatile reference, so reading threads never
+ * block. Each raw method reads this reference once, but operations which make several raw calls
+ * (such as parsing and formatting) must use {@link #snapshot()} to obtain the loaded classifier once
+ * and make all their calls to it. This is done by the parser and formatter APIs, so any operation
+ * in progress when new metadata is loaded will complete using only the previous metadata, and the
+ * parser rebuilds its derived data the first time it is used after a reload. Reloading is
+ * serialized, and the previous metadata remains in use if loading fails.
+ *
+ * <p>Since a type-safe classifier derived from {@code AbstractPhoneNumberClassifier} is bound to
+ * the types and values of its metadata schema, reloaded metadata must have the same schema and
+ * major data version as the current metadata, and must support all the current number types. If the
+ * current metadata has parser data, the reloaded metadata must have it for every calling code.
+ *
+ * <pre>{@code
+ * ReloadableClassifier raw = ReloadableClassifier.load(new MyMetadataService());
+ * MyClassifier classifier = new MyClassifier(raw);
+ * ...
+ * // Later, when new metadata is available:
+ * raw.reload(new MyMetadataService());
+ * }</pre>
+ */
+public final class ReloadableClassifier implements RawClassifier {
+  /**
+   * Returns a reloadable classifier, initially using the metadata of the given service.
+   *
+   * @throws IllegalStateException if the metadata could not be loaded.
+   */
+  public static ReloadableClassifier load(ClassifierService service) {
+    return new ReloadableClassifier(loadOrThrow(service));
+  }
+
+  private static RawClassifier loadOrThrow(ClassifierService service) {
+    ErrorOr<RawClassifier> loaded = service.loadChecked();
+    if (loaded.isError()) {
+      throw new IllegalStateException("Error loading classifier metadata.", loaded.getError());
+    }
+    return loaded.get();
+  }
+
+  // The only mutable state read by classification methods (once per call or snapshot).
+  private volatile RawClassifier current;
+  // Metrics are only updated while holding the lock on this instance, but may be read at any time.
+  private volatile Duration lastReloadDuration = Duration.ZERO;
+  private volatile int reloadCount = 0;
+
+  private ReloadableClassifier(RawClassifier initial) {
+    this.current = checkNotNull(initial);
+  }
+
+  /**
+   * Loads metadata from the given service and, if successful, replaces the current metadata with
+   * it. Calls in progress at the time metadata is replaced will complete using the old metadata.
+   *
+   * @return the version of the newly loaded metadata.
+   * @throws IllegalStateException if the metadata could not be loaded (the existing metadata
+   *     remains in use).
+   * @throws IllegalArgumentException if the loaded metadata is not compatible with the existing
+   *     metadata.
+   */
+  public synchronized VersionInfo reload(ClassifierService service) {
+    long startNanos = System.nanoTime();
+    RawClassifier loaded = loadOrThrow(service);
+    RawClassifier previous = current;
+    VersionInfo oldVersion = previous.getVersion();
+    VersionInfo newVersion = loaded.getVersion();
+    checkArgument(
+        newVersion.getSchema().equals(oldVersion.getSchema())
+            && newVersion.getMajorDataVersion() == oldVersion.getMajorDataVersion(),
+        "reloaded metadata version (%s) is incompatible with the current version (%s)",
+        newVersion,
+        oldVersion);
+    checkArgument(
+        loaded.getSupportedNumberTypes().containsAll(previous.getSupportedNumberTypes()),
+        "reloaded metadata does not support all existing number types: %s",
+        previous.getSupportedNumberTypes());
+    // Parsing and formatting fail if any supported calling code has no parser data, so reloaded
+    // metadata must not remove parser data if it was present before.
+    if (hasParserData(previous)) {
+      for (DigitSequence cc : loaded.getSupportedCallingCodes()) {
+        checkArgument(
+            loaded.getParserData(cc) != null,
+            "reloaded metadata has no parser data for calling code: %s",
+            cc);
+      }
+    }
+    current = loaded;
+    lastReloadDuration = Duration.ofNanos(System.nanoTime() - startNanos);
+    reloadCount++;
+    return newVersion;
+  }
+
+  private static boolean hasParserData(RawClassifier classifier) {
+    return classifier.getSupportedCallingCodes().stream()
+        .allMatch(cc -> classifier.getParserData(cc) != null);
+  }
+
+  /**
+   * Returns the time taken by the most recent successful call to {@link
+   * #reload(ClassifierService)}, or zero if metadata has not been reloaded.
+   */
+  public Duration getLastReloadDuration() {
+    return lastReloadDuration;
+  }
+
+  /** Returns the number of times metadata has been successfully reloaded. */
+  public int getReloadCount() {
+    return reloadCount;
+  }
+
+  /**
+   * Returns the version of the metadata currently in use. Together with {@link
+   * #getLastReloadDuration()} and {@link #getReloadCount()}, this is intended to be exported as a
+   * metric so the version being served can be monitored.
+   */
+  @Override
+  public VersionInfo getVersion() {
+    return current.getVersion();
+  }
+
+  /**
+   * Returns the classifier for the currently loaded metadata, which is unaffected by subsequent
+   * calls to {@link #reload(ClassifierService)}.
+   */
+  @Override
+  public RawClassifier snapshot() {
+    return current;
+  }
+
+  @Override
+  public ImmutableSet<DigitSequence> getSupportedCallingCodes() {
+    return current.getSupportedCallingCodes();
+  }
+
+  @Override
+  public ImmutableSet<String> getSupportedNumberTypes() {
+    return current.getSupportedNumberTypes();
+  }
+
+  @Override
+  public ParserData getParserData(DigitSequence callingCode) {
+    return current.getParserData(callingCode);
+  }
+
+  @Override
+  public LengthResult testLength(DigitSequence callingCode, DigitSequence nationalNumber) {
+    return current.testLength(callingCode, nationalNumber);
+  }
+
+  @Override
+  public MatchResult match(DigitSequence callingCode, DigitSequence nationalNumber) {
+    return current.match(callingCode, nationalNumber);
+  }
+
+  @Override
+  public boolean isSingleValued(String numberType) {
+    return current.isSingleValued(numberType);
+  }
+
+  @Override
+  public boolean supportsValueMatcher(String numberType) {
+    return current.supportsValueMatcher(numberType);
+  }
+
+  @Override
+  public ImmutableSet<String> getPossibleValues(String numberType) {
+    return current.getPossibleValues(numberType);
+  }
+
+  @Override
+  public Set<String> classify(
+      DigitSequence callingCode, DigitSequence nationalNumber, String numberType) {
+    return current.classify(callingCode, nationalNumber, numberType);
+  }
+
+  @Override
+  public String classifyUniquely(
+      DigitSequence callingCode, DigitSequence nationalNumber, String numberType) {
+    return current.classifyUniquely(callingCode, nationalNumber, numberType);
+  }
+
+  @Override
+  public ValueMatcher getValueMatcher(DigitSequence callingCode, String numberType) {
+    return current.getValueMatcher(callingCode, numberType);
+  }
+}
@@ -119,7 +119,11 @@ public abstract class DigitSequenceMatcher {
 
   abstract int size();
 
-  /** Matches the input against this matcher, returning a result code. */
+  /**
+   * Matches the input against this matcher, returning a result code. This is overridden by the
+   * byte array backed matcher, and the default implementation (via {@link OpCode}) is only used
+   * for string backed matchers.
+   */
   public Result match(DigitSequence in) {
     State state = runMatcher(in);
     switch (state) {
@@ -194,6 +198,101 @@ public abstract class DigitSequenceMatcher {
       this.bytes = data;
     }
 
+    /**
+     * Matches the input in a single loop with an inlined switch on the instruction opcode, rather
+     * than via {@link OpCode#execute} and {@link DataView}. This avoids megamorphic calls when
+     * both byte array and string backed matchers are in use, as well as allocating a data view
+     * for every match. The semantics of each case are identical to those of the corresponding
+     * {@link OpCode}.
+     */
+    @Override
+    public Result match(DigitSequence in) {
+      byte[] bytes = this.bytes;
+      int position = 0;
+      while (true) {
+        int op = bytes[position] & 0xFF;
+        int jump;
+        switch (op >>> 5) {
+          case 0:  // BRANCH
+            jump = op & 0xF;
+            position += 1;
+            if ((op & (1 << 4)) != 0) {
+              jump = (jump << 8) + (bytes[position++] & 0xFF);
+            }
+            break;
+
+          case 1:  // SINGLE
+            if (!in.hasNext()) {
+              return ((op & (1 << 4)) != 0) ? Result.MATCHED : Result.TOO_SHORT;
+            }
+            if ((op & 0xF) != in.next()) {
+              return Result.INVALID;
+            }
+            position += 1;
+            continue;
+
+          case 2:  // ANY
+            for (int num = (op & 0xF) + 1; num > 0; num--) {
+              if (!in.hasNext()) {
+                return ((op & (1 << 4)) != 0) ? Result.MATCHED : Result.TOO_SHORT;
+              }
+              in.next();
+            }
+            position += 1;
+            continue;
+
+          case 3: {  // RANGE
+            int range = (op << 8) | (bytes[position + 1] & 0xFF);
+            if (!in.hasNext()) {
+              return ((range & (1 << 12)) != 0) ? Result.MATCHED : Result.TOO_SHORT;
+            }
+            int n = in.next();
+            position += 2;
+            if ((range & (1 << 11)) == 0) {
+              // 2 byte form, non-matched input is invalid.
+              if ((range & (1 << n)) == 0) {
+                return Result.INVALID;
+              }
+              continue;
+            }
+            // 4 byte form uses jump table (use bitwise negation so a set bit becomes a 0 index).
+            jump = bytes[position + ((~range >>> n) & 1)] & 0xFF;
+            break;
+          }
+
+          case 4:  // MAP
+          case 5: {  // TMAP
+            int map = ((bytes[position] & 0xFF) << 24)
+                | ((bytes[position + 1] & 0xFF) << 16)
+                | ((bytes[position + 2] & 0xFF) << 8)
+                | (bytes[position + 3] & 0xFF);
+            if (!in.hasNext()) {
+              return (op >>> 5) == 5 ? Result.MATCHED : Result.TOO_SHORT;
+            }
+            int n = in.next();
+            position += 4;
+            // Coded indices are 1-to-10 (0 is the "invalid" state).
+            int index = (map >>> OpCode.getMapShift(n)) & OpCode.getMapMask(n);
+            if (index == 0) {
+              return Result.INVALID;
+            }
+            // Jump offsets are zero based.
+            jump = bytes[position + index - 1] & 0xFF;
+            break;
+          }
+
+          default:
+            throw new IllegalStateException(
+                "invalid opcode " + (op >>> 5) + " at index " + position);
+        }
+        // A zero jump offset signifies a terminal state.
+        if (jump == 0) {
+          return !in.hasNext() ? Result.MATCHED : Result.TOO_LONG;
+        }
+        position += jump;
+      }
+    }
+
     @Override
     DataView newDataView() {
       return new ByteArrayData();
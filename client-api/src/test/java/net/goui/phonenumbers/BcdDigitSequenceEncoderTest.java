@@ -0,0 +1,136 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.truth.Truth.assertThat;
+import static net.goui.phonenumbers.DigitSequenceEncoderTest.asString;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BcdDigitSequenceEncoderTest {
+  @Test
+  public void testRoundTrip() {
+    assertEncoded("", 0L);
+    assertEncoded("0", 0x1000_0000_0000_0000L);
+    assertEncoded("1", 0x1000_0000_0000_0001L);
+    assertEncoded("000", 0x3000_0000_0000_0000L);
+    assertEncoded("123", 0x3000_0000_0000_0123L);
+    assertEncoded("999", 0x3000_0000_0000_0999L);
+    assertEncoded("000000000000000", 0xF000_0000_0000_0000L);
+    assertEncoded("999999999999999", 0xF999_9999_9999_9999L);
+
+    // Can't go up to 16 digits.
+    assertThrows(
+        IllegalArgumentException.class, () -> BcdDigitSequenceEncoder.encode("1000000000000000"));
+  }
+
+  @Test
+  public void testEncodeValue() {
+    assertThat(BcdDigitSequenceEncoder.encode(123, 3)).isEqualTo(0x3000_0000_0000_0123L);
+    assertThat(BcdDigitSequenceEncoder.encode(123, 5)).isEqualTo(0x5000_0000_0000_0123L);
+    assertThat(BcdDigitSequenceEncoder.encode(999_999_999_999_999L, 15))
+        .isEqualTo(0xF999_9999_9999_9999L);
+
+    assertThrows(IllegalArgumentException.class, () -> BcdDigitSequenceEncoder.encode(1234, 3));
+    assertThrows(IllegalArgumentException.class, () -> BcdDigitSequenceEncoder.encode(0, 16));
+  }
+
+  static void assertEncoded(String digits, long encoded) {
+    assertThat(BcdDigitSequenceEncoder.encode(digits)).isEqualTo(encoded);
+    assertThat(BcdDigitSequenceEncoder.toString(encoded)).isEqualTo(digits);
+    assertThat(asString(BcdDigitSequenceEncoder.iterate(encoded))).isEqualTo(digits);
+    int length = BcdDigitSequenceEncoder.getLength(encoded);
+    assertThat(length).isEqualTo(digits.length());
+    for (int n = 0; n < length; n++) {
+      assertThat(BcdDigitSequenceEncoder.getDigit(n, encoded)).isEqualTo(digits.charAt(n) - '0');
+    }
+  }
+
+  @Test
+  public void testAppend() {
+    assertAppend("", "");
+    assertAppend("", "123");
+    assertAppend("123", "");
+    assertAppend("000", "000");
+    assertAppend("123", "456");
+    assertAppend("0123456789", "98765");
+    assertAppend("9999999999", "99999");
+    assertAppend("123456789098765", "");
+    assertAppend("", "123456789098765");
+
+    long eightDigits = BcdDigitSequenceEncoder.encode("12345678");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> BcdDigitSequenceEncoder.append(eightDigits, eightDigits));
+  }
+
+  // Relies on encode() working as expected.
+  static void assertAppend(String prefix, String suffix) {
+    long prefixEncoded = BcdDigitSequenceEncoder.encode(prefix);
+    long suffixEncoded = BcdDigitSequenceEncoder.encode(suffix);
+    assertEncoded(prefix + suffix, BcdDigitSequenceEncoder.append(prefixEncoded, suffixEncoded));
+  }
+
+  @Test
+  public void testTrim() {
+    assertSplit("", 0);
+    assertSplit("123456", 0);
+    assertSplit("123456", 3);
+    assertSplit("123456", 6);
+    assertSplit("123456789098765", 0);
+    assertSplit("123456789098765", 10);
+    assertSplit("123456789098765", 15);
+  }
+
+  // Relies on encode() working as expected.
+  static void assertSplit(String digits, int index) {
+    long encoded = BcdDigitSequenceEncoder.encode(digits);
+    long prefix = BcdDigitSequenceEncoder.split(encoded, index, true);
+    long suffix = BcdDigitSequenceEncoder.split(encoded, digits.length() - index, false);
+
+    assertEncoded(digits.substring(0, index), prefix);
+    assertEncoded(digits.substring(index), suffix);
+    assertThat(BcdDigitSequenceEncoder.append(prefix, suffix)).isEqualTo(encoded);
+  }
+
+  @Test
+  public void testOrderingMatchesDefaultEncoding() {
+    Random random = new Random(1234);
+    for (int i = 0; i < 10000; i++) {
+      String lhs = randomDigits(random);
+      String rhs = randomDigits(random);
+      int expected =
+          Integer.signum(
+              Long.compareUnsigned(
+                  DigitSequenceEncoder.encode(lhs), DigitSequenceEncoder.encode(rhs)));
+      assertThat(
+              Integer.signum(
+                  Long.compareUnsigned(
+                      BcdDigitSequenceEncoder.encode(lhs), BcdDigitSequenceEncoder.encode(rhs))))
+          .isEqualTo(expected);
+    }
+  }
+
+  private static String randomDigits(Random random) {
+    // Short sequences make equal and same-length pairs common.
+    int length = random.nextInt(2) == 0 ? random.nextInt(4) : random.nextInt(16);
+    StringBuilder digits = new StringBuilder();
+    for (int n = 0; n < length; n++) {
+      digits.append((char) ('0' + random.nextInt(10)));
+    }
+    return digits.toString();
+  }
+}
@@ -0,0 +1,82 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link DigitSequence} when the BCD encoding is enabled. The encoding is fixed when the
+ * encoder class is loaded, so this only runs in a JVM started with the system property set (see
+ * the "bcd-digit-sequences" test execution in the pom file) and is skipped otherwise.
+ */
+@RunWith(JUnit4.class)
+public class BcdDigitSequenceTest {
+  @Before
+  public void requireBcdEncoding() {
+    assumeTrue(Boolean.getBoolean(DigitSequenceEncoder.BCD_ENCODING_PROPERTY));
+  }
+
+  @Test
+  public void testMaxLength() {
+    assertThat(DigitSequenceEncoder.getMaxLength()).isEqualTo(15);
+    assertThat(DigitSequence.parse("123456789012345").length()).isEqualTo(15);
+    assertThrows(IllegalArgumentException.class, () -> DigitSequence.parse("1234567890123456"));
+    DigitSequence eightDigits = DigitSequence.parse("12345678");
+    assertThrows(IllegalArgumentException.class, () -> eightDigits.append(eightDigits));
+  }
+
+  @Test
+  public void testDigitsAndSplitting() {
+    DigitSequence seq = DigitSequence.parse("012345678909876");
+    assertThat(seq.toString()).isEqualTo("012345678909876");
+    for (int n = 0; n < seq.length(); n++) {
+      assertThat(seq.getDigit(n)).isEqualTo("012345678909876".charAt(n) - '0');
+    }
+    for (int n = 0; n <= seq.length(); n++) {
+      DigitSequence prefix = seq.getPrefix(n);
+      DigitSequence suffix = seq.getSuffix(seq.length() - n);
+      assertThat(prefix.toString()).isEqualTo("012345678909876".substring(0, n));
+      assertThat(prefix.append(suffix)).isEqualTo(seq);
+    }
+    StringBuilder iterated = new StringBuilder();
+    DigitSequence.Digits digits = seq.iterate();
+    while (digits.hasNext()) {
+      iterated.append(digits.next());
+    }
+    assertThat(iterated.toString()).isEqualTo(seq.toString());
+  }
+
+  @Test
+  public void testOrdering() {
+    // Shorter sequences sort first, then by value (the same as the default encoding).
+    ImmutableList<String> ordered =
+        ImmutableList.of("", "0", "9", "00", "01", "99", "000", "123", "999999999999999");
+    List<DigitSequence> sequences =
+        ordered.stream().map(DigitSequence::parse).collect(Collectors.toCollection(ArrayList::new));
+    Collections.reverse(sequences);
+    Collections.sort(sequences);
+    assertThat(sequences.stream().map(DigitSequence::toString).collect(Collectors.toList()))
+        .containsExactlyElementsIn(ordered)
+        .inOrder();
+  }
+}
@@ -35,6 +35,18 @@ public class DigitSequenceEncoderTest {
         IllegalArgumentException.class, () -> DigitSequenceEncoder.encode("10000000000000000000"));
   }
 
+  @Test
+  public void testEncodeValue() {
+    assertThat(DigitSequenceEncoder.encode(0, 1)).isEqualTo(DigitSequenceEncoder.encode("0"));
+    assertThat(DigitSequenceEncoder.encode(123, 3)).isEqualTo(DigitSequenceEncoder.encode("123"));
+    assertThat(DigitSequenceEncoder.encode(123, 5)).isEqualTo(DigitSequenceEncoder.encode("00123"));
+    assertThat(DigitSequenceEncoder.encode(Long.parseUnsignedLong("9999999999999999999"), 19))
+        .isEqualTo(DigitSequenceEncoder.encode("9999999999999999999"));
+
+    assertThrows(IllegalArgumentException.class, () -> DigitSequenceEncoder.encode(1234, 3));
+    assertThrows(IllegalArgumentException.class, () -> DigitSequenceEncoder.encode(0, 20));
+  }
+
   static void assertEncoded(String digits, long encoded) {
     assertThat(DigitSequenceEncoder.encode(digits)).isEqualTo(encoded);
     assertThat(asString(DigitSequenceEncoder.iterate(encoded))).isEqualTo(digits);
@@ -0,0 +1,71 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NationalPrefixTrieTest {
+  @Test
+  public void testPrefixMask() {
+    // Indices are assigned in iteration order: "0"=0, "01"=1, "1"=2, "012"=3.
+    NationalPrefixTrie trie = NationalPrefixTrie.of(prefixes("0", "01", "1", "012"), d -> true);
+    assertThat(trie.getPrefixMask(seq(""))).isEqualTo(0L);
+    assertThat(trie.getPrefixMask(seq("9"))).isEqualTo(0L);
+    assertThat(trie.getPrefixMask(seq("0"))).isEqualTo(0b0001L);
+    assertThat(trie.getPrefixMask(seq("02"))).isEqualTo(0b0001L);
+    assertThat(trie.getPrefixMask(seq("01"))).isEqualTo(0b0011L);
+    assertThat(trie.getPrefixMask(seq("0123"))).isEqualTo(0b1011L);
+    assertThat(trie.getPrefixMask(seq("123"))).isEqualTo(0b0100L);
+
+    assertThat(trie.getPrefixLength(0)).isEqualTo(1);
+    assertThat(trie.getPrefixLength(1)).isEqualTo(2);
+    assertThat(trie.getPrefixLength(2)).isEqualTo(1);
+    assertThat(trie.getPrefixLength(3)).isEqualTo(3);
+  }
+
+  @Test
+  public void testCanStartValidNumber() {
+    NationalPrefixTrie trie =
+        NationalPrefixTrie.of(prefixes("0"), NationalPrefixTrieTest::canStartValidNumber);
+    assertThat(trie.canStartValidNumber(seq("0201234"), 1)).isTrue();
+    assertThat(trie.canStartValidNumber(seq("0291234"), 1)).isTrue();
+    assertThat(trie.canStartValidNumber(seq("0701234"), 1)).isTrue();
+    assertThat(trie.canStartValidNumber(seq("0711234"), 1)).isFalse();
+    assertThat(trie.canStartValidNumber(seq("0123456"), 1)).isFalse();
+    assertThat(trie.canStartValidNumber(seq("0123456"), 0)).isFalse();
+    // Too few digits to say.
+    assertThat(trie.canStartValidNumber(seq("01"), 1)).isTrue();
+    assertThat(trie.canStartValidNumber(seq("0"), 1)).isTrue();
+  }
+
+  // Models a numbering plan where all valid national numbers start with "2" or "70".
+  private static boolean canStartValidNumber(DigitSequence leadingDigits) {
+    int first = leadingDigits.getDigit(0);
+    return first == 2
+        || (first == 7 && (leadingDigits.length() == 1 || leadingDigits.getDigit(1) == 0));
+  }
+
+  private static ImmutableSet<DigitSequence> prefixes(String... prefixes) {
+    return Arrays.stream(prefixes).map(DigitSequence::parse).collect(toImmutableSet());
+  }
+
+  private static DigitSequence seq(String digits) {
+    return DigitSequence.parse(digits);
+  }
+}
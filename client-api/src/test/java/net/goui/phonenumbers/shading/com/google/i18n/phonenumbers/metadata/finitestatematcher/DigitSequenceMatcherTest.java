@@ -0,0 +1,110 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher;
+
+import static com.google.common.truth.Truth.assertThat;
+import static net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher.Result.INVALID;
+import static net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher.Result.MATCHED;
+import static net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher.Result.TOO_LONG;
+import static net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher.Result.TOO_SHORT;
+
+import net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher.Result;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that byte array backed matchers (which have their own interpreter loop) behave identically
+ * to string backed matchers (which execute instructions via {@link OpCode}).
+ */
+@RunWith(JUnit4.class)
+public class DigitSequenceMatcherTest {
+  // TMAP instruction: 1 -> JUMP_1, 5 -> JUMP_2
+  private static final int TMAP =
+      (5 << 29) | (1 << OpCode.getMapShift(1)) | (2 << OpCode.getMapShift(5));
+
+  // Matcher data using every instruction type (and variant):
+  // [0-2]( | 1(|7) | 5 ) | [3-9]xxx(|x)
+  private static final byte[] DATA =
+      bytes(
+          // 0: RANGE (with jump table) [0-2] -> 4, otherwise -> 12
+          0x68, 0x07, 0x02, 0x0A,
+          // 4: TMAP 1 -> 10, 5 -> terminal
+          TMAP >>> 24, TMAP >>> 16, TMAP >>> 8, TMAP, 0x02, 0x00,
+          // 10: SINGLE (terminating) 7, BRANCH (terminal)
+          0x37, 0x00,
+          // 12: ANY (x3), BRANCH (2 byte) -> 16
+          0x42, 0x10, 0x01,
+          // 15: (unreachable)
+          0x00,
+          // 16: ANY (terminating), BRANCH (terminal)
+          0x50, 0x00);
+
+  @Test
+  public void testByteArrayMatcher() {
+    DigitSequenceMatcher matcher = DigitSequenceMatcher.create(DATA);
+    assertMatch(matcher, "", TOO_SHORT);
+    assertMatch(matcher, "0", MATCHED);
+    assertMatch(matcher, "1", MATCHED);
+    assertMatch(matcher, "11", MATCHED);
+    assertMatch(matcher, "117", MATCHED);
+    assertMatch(matcher, "1178", TOO_LONG);
+    assertMatch(matcher, "118", INVALID);
+    assertMatch(matcher, "25", MATCHED);
+    assertMatch(matcher, "251", TOO_LONG);
+    assertMatch(matcher, "22", INVALID);
+    assertMatch(matcher, "3", TOO_SHORT);
+    assertMatch(matcher, "312", TOO_SHORT);
+    assertMatch(matcher, "3123", MATCHED);
+    assertMatch(matcher, "31234", MATCHED);
+    assertMatch(matcher, "312345", TOO_LONG);
+  }
+
+  @Test
+  public void testByteArrayAndStringMatchersAreEquivalent() {
+    DigitSequenceMatcher byteMatcher = DigitSequenceMatcher.create(DATA);
+    DigitSequenceMatcher stringMatcher = DigitSequenceMatcher.create(toDataString(DATA));
+    assertThat(stringMatcher.toString()).isEqualTo(byteMatcher.toString());
+    for (int length = 0; length <= 6; length++) {
+      int limit = (int) Math.pow(10, length);
+      for (int n = 0; n < limit; n++) {
+        String digits = length > 0 ? String.format("%0" + length + "d", n) : "";
+        assertMatch(byteMatcher, digits, stringMatcher.match(digitsOf(digits)));
+      }
+    }
+  }
+
+  private static void assertMatch(DigitSequenceMatcher matcher, String digits, Result expected) {
+    assertThat(matcher.match(digitsOf(digits))).isEqualTo(expected);
+  }
+
+  private static DigitSequenceMatcher.DigitSequence digitsOf(String digits) {
+    return DigitSequenceMatcher.digitsFromString(digits);
+  }
+
+  // Packs bytes into chars, padding with 0xFF (as MatcherCompiler does for Java source strings).
+  private static String toDataString(byte[] data) {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < data.length; i += 2) {
+      int lo = i + 1 < data.length ? data[i + 1] & 0xFF : 0xFF;
+      out.append((char) (((data[i] & 0xFF) << 8) | lo));
+    }
+    return out.toString();
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -17,18 +17,31 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static net.goui.phonenumbers.MatchResult.INVALID;
 import static net.goui.phonenumbers.MatchResult.MATCHED;
 import static net.goui.phonenumbers.MatchResult.PARTIAL_MATCH;
+import static org.junit.Assert.assertThrows;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import com.google.common.truth.Expect;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import net.goui.phonenumbers.DigitSequence;
 import net.goui.phonenumbers.MatchResult;
+import net.goui.phonenumbers.PackedPhoneNumberResult;
 import net.goui.phonenumbers.PhoneNumber;
+import net.goui.phonenumbers.PhoneNumberFinder;
 import net.goui.phonenumbers.PhoneNumberParser;
+import net.goui.phonenumbers.PhoneNumberResult;
 import net.goui.phonenumbers.PhoneNumbers;
+import net.goui.phonenumbers.metadata.ClassifierLoader;
+import net.goui.phonenumbers.metadata.RawClassifier;
+import net.goui.phonenumbers.metadata.VersionInfo;
 import net.goui.phonenumbers.testing.RegressionTester;
 import org.junit.Rule;
 import org.junit.Test;
@@ -59,6 +72,203 @@ public class ExampleClassifierTest {
     assertThat(parser.parseLeniently("(+41) 079 555-1234")).hasValue(PhoneNumbers.fromE164("+41795551234"));
   }
 
+  @Test
+  public void testParserArgentineMobileToken() {
+    PhoneNumberParser<String> parser = SIMPLE_CLASSIFIER.getParser();
+    PhoneNumber mobile = PhoneNumbers.fromE164("+5493512345678");
+    // The national mobile token ("15") after the area code is replaced by a leading '9'.
+    assertThat(parser.parseLeniently("0351 15 234 5678", "AR")).hasValue(mobile);
+    assertThat(parser.parseLeniently("351 15 234-5678", "AR")).hasValue(mobile);
+    assertThat(parser.parseLeniently("011 15 2345 6789", "AR"))
+        .hasValue(PhoneNumbers.fromE164("+5491123456789"));
+    assertThat(parser.parseLeniently("02965 15 23 4567", "AR"))
+        .hasValue(PhoneNumbers.fromE164("+5492965234567"));
+    // Numbers which do not need adjusting are unchanged.
+    assertThat(parser.parseLeniently("0351 423 4567", "AR"))
+        .hasValue(PhoneNumbers.fromE164("+543514234567"));
+  }
+
+  @Test
+  public void testParserUtf8() {
+    PhoneNumberParser<String> parser = SIMPLE_CLASSIFIER.getParser();
+    ImmutableList<String> texts =
+        ImmutableList.of(
+            "(079) 555 1234",
+            "(+41) 079 555-1234",
+            "+41 79 555 1234",
+            "+4 1 79 555 1234",
+            "\uFF0B\uFF14\uFF11\u3000\uFF17\uFF19\u2010555\u20101234",
+            "+44 20 8743 8000",
+            "020 8743 8000",
+            "+44 20 8743 8000+",
+            "1234",
+            "079 555 1234 x",
+            "+",
+            "");
+    for (String text : texts) {
+      byte[] utf8 = text.getBytes(UTF_8);
+      // Surround the text with junk to test offsets.
+      byte[] padded = new byte[utf8.length + 4];
+      System.arraycopy(utf8, 0, padded, 2, utf8.length);
+      for (String region : ImmutableList.of("CH", "GB")) {
+        Optional<PhoneNumber> expected = parser.parseLeniently(text, region);
+        expect
+            .withMessage("text='%s', region=%s", text, region)
+            .that(parser.parseLeniently(padded, 2, utf8.length, region))
+            .isEqualTo(expected);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(padded.length).put(padded);
+        buffer.limit(utf8.length + 2).position(2);
+        expect
+            .withMessage("text='%s', region=%s", text, region)
+            .that(parser.parseLeniently(buffer, region))
+            .isEqualTo(expected);
+        expect.that(buffer.position()).isEqualTo(2);
+        if (expected.isPresent()) {
+          expect
+              .that(parser.parseStrictly(utf8, 0, utf8.length, region))
+              .isEqualTo(parser.parseStrictly(text, region));
+        }
+      }
+    }
+    // Malformed UTF-8 (truncated, bad continuation, overlong and 4-byte sequences).
+    for (int[] bad :
+        new int[][] {{'1', 0xEF, 0xBC}, {'1', 0xC2, '1'}, {0xC0, 0xB1}, {0xF0, 0x9F, 0x98, 0x80}}) {
+      byte[] bytes = new byte[bad.length];
+      for (int i = 0; i < bad.length; i++) {
+        bytes[i] = (byte) bad[i];
+      }
+      assertThat(parser.parseLeniently(bytes, 0, bytes.length, "CH")).isEmpty();
+    }
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> parser.parseStrictly(ByteBuffer.wrap("abc".getBytes(UTF_8)), "CH"));
+
+    // Text with more digits than a DigitSequence can hold is unparseable for both input types.
+    String tooLong = "+41 79 555 1234 5678 90123";
+    byte[] tooLongUtf8 = tooLong.getBytes(UTF_8);
+    assertThat(parser.parseLeniently(tooLong, "CH")).isEmpty();
+    assertThat(parser.parseLeniently(tooLongUtf8, 0, tooLongUtf8.length, "CH")).isEmpty();
+    assertThrows(IllegalArgumentException.class, () -> parser.parseStrictly(tooLong, "CH"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> parser.parseStrictly(tooLongUtf8, 0, tooLongUtf8.length, "CH"));
+  }
+
+  @Test
+  public void testParseBest() {
+    PhoneNumberParser<String> parser = SIMPLE_CLASSIFIER.getParser();
+    ImmutableList<String> texts =
+        ImmutableList.of(
+            "(079) 555 1234",
+            "079 555 12",
+            "+41 79 555 1234",
+            "020 8743 8000",
+            "0 11 15-3329-5195",
+            "44 20 8743 8000",
+            "1234");
+    ImmutableList<ImmutableList<String>> regionLists =
+        ImmutableList.of(
+            ImmutableList.of("FR", "CH", "GB"),
+            ImmutableList.of("GB", "CH"),
+            ImmutableList.of("US", "AR", "CA"),
+            ImmutableList.of("DE"));
+    for (String text : texts) {
+      for (ImmutableList<String> regions : regionLists) {
+        // Expected result is the first best result from parsing each region separately.
+        PhoneNumberResult<String> expected = null;
+        for (String region : regions) {
+          PhoneNumberResult<String> result = parser.parseStrictly(text, region);
+          if (expected == null || result.getMatchResult().isBetterThan(expected.getMatchResult())) {
+            expected = result;
+          }
+        }
+        expect
+            .withMessage("text='%s', regions=%s", text, regions)
+            .that(parser.parseBest(text, regions))
+            .isEqualTo(expected);
+      }
+    }
+    // Unsupported regions are ignored.
+    assertThat(parser.parseBest("+41 79 555 1234", ImmutableList.of("001", "XX")))
+        .isEqualTo(parser.parseStrictly("+41 79 555 1234"));
+    assertThrows(
+        IllegalArgumentException.class, () -> parser.parseBest("hello", ImmutableList.of("CH")));
+  }
+
+  @Test
+  public void testParseToLong() {
+    PhoneNumberParser<String> parser = SIMPLE_CLASSIFIER.getParser();
+    ImmutableList<String> texts =
+        ImmutableList.of(
+            "(079) 555 1234",
+            "+41 79 555 1234",
+            "+\uFF14\uFF11\u3000\uFF17\uFF19\u2010555\u20101234",
+            "+44 20 8743 8000",
+            "020 8743 8000",
+            "0 11 15-3329-5195",
+            "+44 0",
+            "1234");
+    for (String text : texts) {
+      byte[] utf8 = text.getBytes(UTF_8);
+      for (String region : ImmutableList.of("CH", "GB", "AR")) {
+        long packed = parser.parseToLong(text, region);
+        assertThat(parser.parseToLong(utf8, 0, utf8.length, region)).isEqualTo(packed);
+        PhoneNumberResult<String> result = parser.parseStrictly(text, region);
+        assertThat(PackedPhoneNumberResult.isParseable(packed)).isTrue();
+        assertThat(PackedPhoneNumberResult.toPhoneNumberResult(packed)).isEqualTo(result);
+        assertThat(PackedPhoneNumberResult.getMatchResult(packed))
+            .isEqualTo(result.getMatchResult());
+      }
+    }
+    // National number starting with zero (Italy).
+    long packed = parser.parseToLong("+39 06 6982 0000", (DigitSequence) null);
+    assertThat(PackedPhoneNumberResult.getNationalNumber(packed)).isEqualTo(seq("0669820000"));
+
+    // An unsupported calling code (India) gives an invalid national result with that code.
+    packed = parser.parseToLong("123456", seq("91"));
+    assertThat(PackedPhoneNumberResult.getCallingCode(packed)).isEqualTo(seq("91"));
+    assertThat(PackedPhoneNumberResult.toPhoneNumberResult(packed))
+        .isEqualTo(parser.parseStrictly("123456", seq("91")));
+    // Calling codes which are not 1 to 3 digits (without a leading zero) are rejected.
+    for (String cc : ImmutableList.of("1234", "01", "")) {
+      assertThrows(IllegalArgumentException.class, () -> parser.parseToLong("123456", seq(cc)));
+      assertThrows(IllegalArgumentException.class, () -> parser.parseStrictly("123456", seq(cc)));
+    }
+
+    assertThat(parser.parseToLong("", "CH")).isEqualTo(PackedPhoneNumberResult.UNPARSEABLE);
+    assertThat(parser.parseToLong("079 555 1234 x", "CH"))
+        .isEqualTo(PackedPhoneNumberResult.UNPARSEABLE);
+    assertThat(parser.parseToLong("1234567890123456", "CH"))
+        .isEqualTo(PackedPhoneNumberResult.UNPARSEABLE);
+    assertThat(parser.parseToLong(new byte[] {(byte) 0xC0, (byte) 0xB1}, 0, 2, "CH"))
+        .isEqualTo(PackedPhoneNumberResult.UNPARSEABLE);
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> PackedPhoneNumberResult.getPhoneNumber(PackedPhoneNumberResult.UNPARSEABLE));
+  }
+
+  @Test
+  public void testFinder() {
+    PhoneNumberFinder<String> finder = PhoneNumberFinder.of(SIMPLE_CLASSIFIER.getParser());
+    String text =
+        "Call the BBC on +44 20 8743 8000, or (079) 555 1234 (not ID2087438000 or 2087438000x).";
+    ImmutableList<PhoneNumberFinder.Match<String>> matches =
+        ImmutableList.copyOf(finder.findNumbers(text, "CH"));
+    assertThat(matches).hasSize(2);
+    assertThat(matches.get(0).getText()).isEqualTo("+44 20 8743 8000");
+    assertThat(matches.get(0).getStart()).isEqualTo(text.indexOf('+'));
+    assertThat(matches.get(0).getResult().getPhoneNumber()).isEqualTo(e164("+442087438000"));
+    assertThat(matches.get(1).getText()).isEqualTo("(079) 555 1234");
+    assertThat(matches.get(1).getEnd()).isEqualTo(text.indexOf(" (not"));
+    assertThat(matches.get(1).getResult().getPhoneNumber()).isEqualTo(e164("+41795551234"));
+
+    // Without a default region, only the internationally formatted number is found.
+    assertThat(finder.findNumbers(text)).hasSize(1);
+    // Reading incrementally gives the same results.
+    assertThat(ImmutableList.copyOf(finder.findNumbers(new StringReader(text), "CH")))
+        .isEqualTo(matches);
+  }
+
   @Test
   public void testParserRegions() {
     PhoneNumberParser<String> parser = SIMPLE_CLASSIFIER.getParser();
@@ -93,6 +303,35 @@ public class ExampleClassifierTest {
         .isEqualTo("+44 20 8743 8000");
   }
 
+  @Test
+  public void testWarmUp() throws Exception {
+    // Warm-up runs over all calling codes and types, so any failure would be a metadata issue.
+    SIMPLE_CLASSIFIER.warmUp(Runnable::run).get();
+    assertThat(SIMPLE_CLASSIFIER.warmUp().get(1, TimeUnit.MINUTES)).isNull();
+  }
+
+  @Test
+  public void testLoadBestMatchedVersion() throws Exception {
+    // Both "lpn" services match, but only the one which sorts first should be loaded.
+    Predicate<VersionInfo> lpnSchemas =
+        v -> v.getSchema().startsWith("goui.net/libphonenumber/examples/lpn/");
+    Comparator<VersionInfo> bySchemaDescending =
+        Comparator.comparing(VersionInfo::getSchema).reversed();
+    Optional<RawClassifier> loaded =
+        ClassifierLoader.loadBestMatchedVersion(lpnSchemas, bySchemaDescending);
+    assertThat(loaded.map(c -> c.getVersion().getSchema()))
+        .hasValue("goui.net/libphonenumber/examples/lpn/dfa/precise");
+
+    Optional<RawClassifier> loadedAsync =
+        ClassifierLoader.loadBestMatchedVersion(
+                lpnSchemas, bySchemaDescending.reversed(), Runnable::run)
+            .get();
+    assertThat(loadedAsync.map(c -> c.getVersion().getSchema()))
+        .hasValue("goui.net/libphonenumber/examples/lpn/dfa/compact");
+
+    assertThat(ClassifierLoader.loadBestMatchedVersion(v -> false, bySchemaDescending)).isEmpty();
+  }
+
   @Test
   public void testGoldenData() throws IOException {
     RegressionTester regressionTester =
@@ -28,8 +28,20 @@ import net.goui.phonenumbers.proto.Metadata.MetadataProto;
  *   super(<version>, "<resource-path>");
  * }
  * }</pre>
+ *
+ * <p>If the {@value #CALLING_CODES_PROPERTY} system property is set, only metadata for the calling
+ * codes it lists is loaded.
  */
 public abstract class AbstractResourceClassifierService extends ClassifierService {
+  /**
+   * System property to restrict loaded metadata to a comma-separated list of calling codes (e.g.
+   * "1,44,49"), to save memory in applications which only handle numbers for a few calling codes.
+   * Other calling codes are unsupported by the loaded classifier (as if they were absent from the
+   * metadata). This also applies to {@link FileClassifierService} and {@link
+   * CompiledRawClassifier}, and is read each time metadata is loaded.
+   */
+  public static final String CALLING_CODES_PROPERTY = "net.goui.phonenumbers.calling_codes";
+
   private final String resourceName;
 
   /**
@@ -48,6 +60,9 @@ public abstract class AbstractResourceClassifierService extends ClassifierServic
     try (InputStream is = getClass().getResourceAsStream(resourceName)) {
       proto = MetadataProto.parseFrom(is);
     }
+    proto =
+        ProtoBasedNumberClassifier.restrictCallingCodes(
+            proto, System.getProperty(CALLING_CODES_PROPERTY));
     ProtoBasedNumberClassifier classifier = new ProtoBasedNumberClassifier(proto);
     checkState(
         classifier.getVersion().satisfies(getStatedVersion()),
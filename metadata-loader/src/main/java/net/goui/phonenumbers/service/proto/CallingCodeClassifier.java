@@ -29,13 +29,38 @@ final class CallingCodeClassifier {
 
   static CallingCodeClassifier from(
       CallingCodeProto callingCodeProto, int typeCount, IntFunction<String> tokenDecoder) {
-    ImmutableList<MatcherFunction> matchers =
-        callingCodeProto.getMatcherDataList().stream()
-            .map(MatcherFunction::fromProto)
-            .collect(toImmutableList());
+    return from(
+        callingCodeProto,
+        typeCount,
+        tokenDecoder,
+        matchersOf(callingCodeProto),
+        ImmutableList.of());
+  }
+
+  /** Returns the matcher functions for the matcher data of the given calling code, in order. */
+  static ImmutableList<MatcherFunction> matchersOf(CallingCodeProto callingCodeProto) {
+    return callingCodeProto.getMatcherDataList().stream()
+        .map(MatcherFunction::fromProto)
+        .collect(toImmutableList());
+  }
+
+  static CallingCodeClassifier from(
+      CallingCodeProto callingCodeProto,
+      int typeCount,
+      IntFunction<String> tokenDecoder,
+      ImmutableList<MatcherFunction> matchers,
+      ImmutableList<MatcherFunction> sharedMatchers) {
+    checkState(
+        matchers.size() == callingCodeProto.getMatcherDataCount(),
+        "invalid matcher functions (expected %s): %s",
+        callingCodeProto.getMatcherDataCount(),
+        matchers.size());
+    // Indices beyond the local matchers reference the shared matchers of the metadata.
+    IntFunction<MatcherFunction> matcherAt =
+        i -> i < matchers.size() ? matchers.get(i) : sharedMatchers.get(i - matchers.size());
     // For now, assume that if there are no validity matcher indices, we just use 0.
     Function<List<Integer>, MatcherFunction> matcherFactory =
-        indices -> indices.isEmpty() ? matchers.get(0) : combinedMatcherOf(matchers, indices);
+        indices -> indices.isEmpty() ? matcherAt.apply(0) : combinedMatcherOf(matcherAt, indices);
 
     MatcherFunction validityMatcher =
         matcherFactory.apply(callingCodeProto.getValidityMatcherIndexList());
@@ -77,8 +102,9 @@ final class CallingCodeClassifier {
   }
 
   private static MatcherFunction combinedMatcherOf(
-      ImmutableList<MatcherFunction> matchers, List<Integer> indices) {
-    return MatcherFunction.combine(indices.stream().map(matchers::get).collect(toImmutableList()));
+      IntFunction<MatcherFunction> matcherAt, List<Integer> indices) {
+    return MatcherFunction.combine(
+        indices.stream().map(matcherAt::apply).collect(toImmutableList()));
   }
 
   private final MatcherFunction validityMatcher;
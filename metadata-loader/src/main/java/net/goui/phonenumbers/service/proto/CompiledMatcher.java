@@ -0,0 +1,29 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import net.goui.phonenumbers.DigitSequence;
+import net.goui.phonenumbers.MatchResult;
+
+/**
+ * The matchers of a single calling code, compiled to Java code by the offline tools (see {@link
+ * CompiledRawClassifier}). This is only intended to be implemented by generated code.
+ */
+@FunctionalInterface
+public interface CompiledMatcher {
+  /**
+   * Matches the given digits with the matcher of the given index (an index into the matcher data
+   * of the calling code). Returns only {@link MatchResult#MATCHED}, {@link
+   * MatchResult#PARTIAL_MATCH}, {@link MatchResult#EXCESS_DIGITS} or {@link MatchResult#INVALID},
+   * with the same semantics as the equivalent {@code DigitSequenceMatcher}.
+   */
+  MatchResult match(int index, DigitSequence.Digits digits);
+}
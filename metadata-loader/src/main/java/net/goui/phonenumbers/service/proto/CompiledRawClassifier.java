@@ -0,0 +1,153 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.Base64;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import net.goui.phonenumbers.DigitSequence;
+import net.goui.phonenumbers.LengthResult;
+import net.goui.phonenumbers.MatchResult;
+import net.goui.phonenumbers.metadata.ParserData;
+import net.goui.phonenumbers.metadata.RawClassifier;
+import net.goui.phonenumbers.metadata.VersionInfo;
+import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherDataProto;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+
+/**
+ * Base class for raw classifiers generated as Java source by the offline tools (using the
+ * {@code JAVA_SOURCE} output type), in which DFA matchers are compiled to Java code rather than
+ * being interpreted from matcher data.
+ *
+ * <p>Generated classes embed the metadata proto, from which the DFA matcher data has been removed,
+ * and provide the compiled matchers for each calling code. Matcher data which was not compiled
+ * (e.g. regular expressions) is loaded as normal.
+ *
+ * <p>As for resource based metadata, the {@link
+ * AbstractResourceClassifierService#CALLING_CODES_PROPERTY} system property can be used to restrict
+ * the calling codes which are loaded.
+ */
+public abstract class CompiledRawClassifier implements RawClassifier {
+  private final RawClassifier classifier;
+
+  /**
+   * Constructs a raw classifier from the encoded metadata and compiled matchers of generated code.
+   *
+   * @param encodedMetadata the Base64 encoded metadata proto, split into chunks.
+   * @param matchers a function returning the compiled matchers for a calling code (or null if
+   *     none of the matchers for that calling code were compiled).
+   */
+  protected CompiledRawClassifier(String[] encodedMetadata, IntFunction<CompiledMatcher> matchers) {
+    MetadataProto proto;
+    try {
+      proto = MetadataProto.parseFrom(Base64.getDecoder().decode(String.join("", encodedMetadata)));
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("invalid metadata in generated classifier", e);
+    }
+    proto =
+        ProtoBasedNumberClassifier.restrictCallingCodes(
+            proto, System.getProperty(AbstractResourceClassifierService.CALLING_CODES_PROPERTY));
+    this.classifier = new ProtoBasedNumberClassifier(proto, cc -> matchersOf(cc, matchers));
+  }
+
+  private static ImmutableList<MatcherFunction> matchersOf(
+      CallingCodeProto callingCodeProto, IntFunction<CompiledMatcher> matchers) {
+    CompiledMatcher compiled = matchers.apply(callingCodeProto.getCallingCode());
+    if (compiled == null) {
+      return CallingCodeClassifier.matchersOf(callingCodeProto);
+    }
+    return IntStream.range(0, callingCodeProto.getMatcherDataCount())
+        .mapToObj(i -> matcherOf(callingCodeProto.getMatcherData(i), compiled, i))
+        .collect(toImmutableList());
+  }
+
+  private static MatcherFunction matcherOf(
+      MatcherDataProto proto, CompiledMatcher compiled, int index) {
+    // Compiled matchers have their matcher data removed, leaving only the possible lengths.
+    boolean isCompiled =
+        proto.getMatcherData().isEmpty()
+            && proto.getRegexData().isEmpty()
+            && proto.getIntervalTableCount() == 0;
+    return isCompiled
+        ? new MatcherFunction.CompiledMatcherFunction(
+            proto.getPossibleLengthsMask(), compiled, index)
+        : MatcherFunction.fromProto(proto);
+  }
+
+  @Override
+  public final VersionInfo getVersion() {
+    return classifier.getVersion();
+  }
+
+  @Override
+  public final ImmutableSet<DigitSequence> getSupportedCallingCodes() {
+    return classifier.getSupportedCallingCodes();
+  }
+
+  @Override
+  public final ImmutableSet<String> getSupportedNumberTypes() {
+    return classifier.getSupportedNumberTypes();
+  }
+
+  @Override
+  public final ParserData getParserData(DigitSequence callingCode) {
+    return classifier.getParserData(callingCode);
+  }
+
+  @Override
+  public final LengthResult testLength(DigitSequence callingCode, DigitSequence nationalNumber) {
+    return classifier.testLength(callingCode, nationalNumber);
+  }
+
+  @Override
+  public final MatchResult match(DigitSequence callingCode, DigitSequence nationalNumber) {
+    return classifier.match(callingCode, nationalNumber);
+  }
+
+  @Override
+  public final boolean isSingleValued(String numberType) {
+    return classifier.isSingleValued(numberType);
+  }
+
+  @Override
+  public final boolean supportsValueMatcher(String numberType) {
+    return classifier.supportsValueMatcher(numberType);
+  }
+
+  @Override
+  public final ImmutableSet<String> getPossibleValues(String numberType) {
+    return classifier.getPossibleValues(numberType);
+  }
+
+  @Override
+  public final Set<String> classify(
+      DigitSequence callingCode, DigitSequence nationalNumber, String numberType) {
+    return classifier.classify(callingCode, nationalNumber, numberType);
+  }
+
+  @Override
+  public final String classifyUniquely(
+      DigitSequence callingCode, DigitSequence nationalNumber, String numberType) {
+    return classifier.classifyUniquely(callingCode, nationalNumber, numberType);
+  }
+
+  @Override
+  public final ValueMatcher getValueMatcher(DigitSequence callingCode, String numberType) {
+    return classifier.getValueMatcher(callingCode, numberType);
+  }
+}
@@ -0,0 +1,87 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.protobuf.ByteString;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher;
+
+/**
+ * A JVM-wide pool of DFA matchers, keyed by the content of their matcher data, so that identical
+ * matchers loaded by different classifiers (e.g. different variants of the same metadata) share a
+ * single instance and a single copy of their data.
+ *
+ * <p>Pooled matchers are weakly referenced, so they are discarded once no classifier uses them.
+ * The statistics reported by this class are cumulative for the lifetime of the JVM, and do not
+ * account for matchers which have since been discarded.
+ */
+public final class DfaMatcherPool {
+  private static final Interner<SharedDfa> POOL = Interners.newWeakInterner();
+  private static final AtomicLong sharedCount = new AtomicLong();
+  private static final AtomicLong bytesSaved = new AtomicLong();
+
+  /** A DFA matcher with its data, which is equal to any other instance with the same data. */
+  static final class SharedDfa {
+    private final byte[] data;
+    private final int hashCode;
+    private final DigitSequenceMatcher matcher;
+
+    private SharedDfa(byte[] data) {
+      this.data = data;
+      this.hashCode = Arrays.hashCode(data);
+      this.matcher = DigitSequenceMatcher.create(data);
+    }
+
+    DigitSequenceMatcher matcher() {
+      return matcher;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SharedDfa)) {
+        return false;
+      }
+      SharedDfa other = (SharedDfa) obj;
+      return hashCode == other.hashCode && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  // Callers must hold the returned instance for as long as they use its matcher.
+  static SharedDfa intern(ByteString dfaBytes) {
+    SharedDfa dfa = new SharedDfa(dfaBytes.toByteArray());
+    SharedDfa pooled = POOL.intern(dfa);
+    if (pooled != dfa) {
+      sharedCount.incrementAndGet();
+      bytesSaved.addAndGet(dfa.data.length);
+    }
+    return pooled;
+  }
+
+  /** Returns the number of times an existing matcher was shared instead of creating a new one. */
+  public static long getSharedMatcherCount() {
+    return sharedCount.get();
+  }
+
+  /** Returns the total size of matcher data which did not need to be retained due to sharing. */
+  public static long getBytesSaved() {
+    return bytesSaved.get();
+  }
+
+  private DfaMatcherPool() {}
+}
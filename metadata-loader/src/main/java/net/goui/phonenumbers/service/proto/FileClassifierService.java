@@ -0,0 +1,69 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import net.goui.phonenumbers.metadata.ClassifierService;
+import net.goui.phonenumbers.metadata.RawClassifier;
+import net.goui.phonenumbers.metadata.VersionInfo;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+
+/**
+ * Loads metadata from a file, rather than a class resource. This is not intended for use with the
+ * service loader API, but rather to supply updated metadata at runtime (e.g. to a {@code
+ * ReloadableClassifier}).
+ *
+ * <pre>{@code
+ * reloadableClassifier.reload(new FileClassifierService(<version>, Path.of("<metadata-file>")));
+ * }</pre>
+ *
+ * <p>As for resource based metadata, the {@link
+ * AbstractResourceClassifierService#CALLING_CODES_PROPERTY} system property can be used to restrict
+ * the calling codes which are loaded.
+ */
+public final class FileClassifierService extends ClassifierService {
+  private final Path path;
+
+  /**
+   * Constructs a {@link ClassifierService} for metadata held in a file.
+   *
+   * @param version a version compatible with the metadata in the given file.
+   * @param path the path of the binary metadata file.
+   */
+  public FileClassifierService(VersionInfo version, Path path) {
+    super(version);
+    this.path = checkNotNull(path);
+  }
+
+  @Override
+  protected RawClassifier load() throws IOException {
+    MetadataProto proto;
+    try (InputStream is = Files.newInputStream(path)) {
+      proto = MetadataProto.parseFrom(is);
+    }
+    proto =
+        ProtoBasedNumberClassifier.restrictCallingCodes(
+            proto, System.getProperty(AbstractResourceClassifierService.CALLING_CODES_PROPERTY));
+    ProtoBasedNumberClassifier classifier = new ProtoBasedNumberClassifier(proto);
+    checkState(
+        classifier.getVersion().satisfies(getStatedVersion()),
+        "loaded metadata version (%s) does not satisfy the stated version (%s)",
+        classifier.getVersion(),
+        getStatedVersion());
+    return classifier;
+  }
+}
@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.protobuf.ByteString;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -40,7 +41,8 @@ import net.goui.phonenumbers.shading.com.google.i18n.phonenumbers.metadata.finit
  * Encapsulation of a function to match digit sequences, either partially or completely.
  *
  * <p>The underlying mechanism for matching is chosen by the metadata used, and may be based on
- * regular expressions or the "libhonenumber" {@code DigitSequenceMatcher}.
+ * regular expressions, the "libhonenumber" {@code DigitSequenceMatcher} or a table of numeric
+ * intervals.
  */
 abstract class MatcherFunction {
 
@@ -84,6 +86,10 @@ abstract class MatcherFunction {
 
   static MatcherFunction fromProto(MatcherDataProto proto) {
     int lengthMask = proto.getPossibleLengthsMask();
+    // Interval tables are only emitted when they are no larger than the DFA matcher data.
+    if (proto.getIntervalTableCount() > 0) {
+      return new IntervalMatcher(lengthMask, proto);
+    }
     ByteString dfaBytes = proto.getMatcherData();
     if (!dfaBytes.isEmpty()) {
       return new DfaMatcher(lengthMask, dfaBytes);
@@ -140,11 +146,15 @@ abstract class MatcherFunction {
   }
 
   static final class DfaMatcher extends MatcherFunction {
+    // Identical matchers are shared between classifiers, and the pool only references them weakly,
+    // so the shared instance must be held even though only its matcher is used.
+    private final DfaMatcherPool.SharedDfa sharedDfa;
     private final DigitSequenceMatcher matcher;
 
     public DfaMatcher(int lengthMask, ByteString dfaBytes) {
       super(lengthMask);
-      this.matcher = DigitSequenceMatcher.create(dfaBytes.toByteArray());
+      this.sharedDfa = DfaMatcherPool.intern(dfaBytes);
+      this.matcher = sharedDfa.matcher();
     }
 
     @Override
@@ -180,6 +190,148 @@ abstract class MatcherFunction {
     }
   }
 
+  static final class IntervalMatcher extends MatcherFunction {
+    // 1, 10, 100, 1000 ...
+    private static final long[] POWERS_OF_TEN = new long[19];
+    // 0, 1, 11, 111 ... (the offset for encoding sequences of each length).
+    private static final long[] OFFSETS = new long[19];
+
+    static {
+      long powerOfTen = 1;
+      long offset = 0;
+      for (int n = 0; n < POWERS_OF_TEN.length; n++) {
+        POWERS_OF_TEN[n] = powerOfTen;
+        OFFSETS[n] = offset;
+        offset += powerOfTen;
+        powerOfTen *= 10;
+      }
+    }
+
+    // Sorted, inclusive bounds (lo[0], hi[0], lo[1], hi[1] ...) of disjoint, encoded intervals.
+    private final long[] bounds;
+    private final int possibleLengths;
+    private final int maxLength;
+
+    IntervalMatcher(int lengthMask, MatcherDataProto proto) {
+      super(lengthMask);
+      int count = proto.getIntervalTableCount();
+      checkState(count % 2 == 0, "invalid interval table (odd length): %s", count);
+      this.bounds = new long[count];
+      long bound = 0;
+      for (int i = 0; i < count; i++) {
+        bound += proto.getIntervalTable(i);
+        bounds[i] = bound;
+      }
+      this.possibleLengths = lengthMask;
+      this.maxLength = 31 - Integer.numberOfLeadingZeros(lengthMask);
+      checkState(
+          maxLength >= 0 && maxLength < POWERS_OF_TEN.length,
+          "invalid length mask: %s",
+          lengthMask);
+    }
+
+    @Override
+    public MatchResult match(DigitSequence s) {
+      // Digits beyond the maximum length can never be matched, so are ignored here.
+      int length = Math.min(s.length(), maxLength);
+      long value = valueOf(s, length);
+      // Find the longest prefix of the input which is also a prefix of some matched sequence (the
+      // empty prefix always is). This mirrors how the DFA matcher consumes input.
+      int n = length;
+      while (n > 0 && !hasMatchWithPrefix(value / POWERS_OF_TEN[length - n], n, n)) {
+        n--;
+      }
+      long prefix = value / POWERS_OF_TEN[length - n];
+      MatchResult result;
+      if (n == s.length()) {
+        result = contains(prefix + OFFSETS[n]) ? MATCHED : PARTIAL_MATCH;
+      } else {
+        // A matched prefix with no longer matched sequences has excess digits, otherwise the input
+        // diverged from the matched sequences.
+        result =
+            contains(prefix + OFFSETS[n]) && !hasMatchWithPrefix(prefix, n, n + 1)
+                ? EXCESS_DIGITS
+                : INVALID;
+      }
+      if (result == INVALID && testLength(s) == POSSIBLE) {
+        result = POSSIBLE_LENGTH;
+      }
+      return result;
+    }
+
+    @Override
+    public boolean isMatch(DigitSequence s) {
+      int length = s.length();
+      return testLength(s) == POSSIBLE && contains(valueOf(s, length) + OFFSETS[length]);
+    }
+
+    // Returns whether any matched sequence of at least the given length starts with the prefix.
+    private boolean hasMatchWithPrefix(long prefix, int prefixLength, int minLength) {
+      for (int n = minLength; n <= maxLength; n++) {
+        if ((possibleLengths & (1 << n)) != 0) {
+          long scale = POWERS_OF_TEN[n - prefixLength];
+          long lo = prefix * scale + OFFSETS[n];
+          if (intersects(lo, lo + scale - 1)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private boolean contains(long key) {
+      int idx = Arrays.binarySearch(bounds, key);
+      // Keys equal to a bound are contained, otherwise an odd insertion point lies inside an
+      // interval.
+      return idx >= 0 || (~idx & 1) != 0;
+    }
+
+    private boolean intersects(long lo, long hi) {
+      int idx = Arrays.binarySearch(bounds, lo);
+      if (idx >= 0 || (~idx & 1) != 0) {
+        return true;
+      }
+      // Otherwise test if the next interval starts before the given interval ends.
+      idx = ~idx;
+      return idx < bounds.length && bounds[idx] <= hi;
+    }
+
+    // Returns the numeric value of the first "length" digits in the given sequence.
+    private static long valueOf(DigitSequence s, int length) {
+      long value = 0;
+      DigitSequence.Digits it = s.iterate();
+      for (int n = 0; n < length; n++) {
+        value = (10 * value) + it.next();
+      }
+      return value;
+    }
+  }
+
+  static final class CompiledMatcherFunction extends MatcherFunction {
+    private final CompiledMatcher matcher;
+    private final int index;
+
+    CompiledMatcherFunction(int lengthMask, CompiledMatcher matcher, int index) {
+      super(lengthMask);
+      this.matcher = matcher;
+      this.index = index;
+    }
+
+    @Override
+    public MatchResult match(DigitSequence s) {
+      MatchResult result = matcher.match(index, s.iterate());
+      if (result == INVALID && testLength(s) == POSSIBLE) {
+        result = POSSIBLE_LENGTH;
+      }
+      return result;
+    }
+
+    @Override
+    public boolean isMatch(DigitSequence s) {
+      return testLength(s) == POSSIBLE && matcher.match(index, s.iterate()) == MATCHED;
+    }
+  }
+
   static final class RegexMatcher extends MatcherFunction {
     private final Pattern pattern;
 
@@ -15,13 +15,17 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.IntStream;
 import net.goui.phonenumbers.DigitSequence;
 import net.goui.phonenumbers.LengthResult;
@@ -29,8 +33,11 @@ import net.goui.phonenumbers.MatchResult;
 import net.goui.phonenumbers.metadata.ParserData;
 import net.goui.phonenumbers.metadata.RawClassifier;
 import net.goui.phonenumbers.metadata.VersionInfo;
-import net.goui.phonenumbers.proto.Metadata;
+import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherFunctionProto;
 import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+import net.goui.phonenumbers.proto.Metadata.NationalNumberDataProto;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 final class ProtoBasedNumberClassifier implements RawClassifier {
   private final VersionInfo version;
@@ -38,18 +45,137 @@ final class ProtoBasedNumberClassifier implements RawClassifier {
   private final ImmutableMap<String, TypeInfo> typeInfoMap;
 
   public ProtoBasedNumberClassifier(MetadataProto metadataProto) {
+    this(metadataProto, CallingCodeClassifier::matchersOf);
+  }
+
+  /**
+   * Creates a classifier using the given function to create the matcher functions for each calling
+   * code (e.g. to use matchers compiled to Java code instead of those from the matcher data).
+   */
+  ProtoBasedNumberClassifier(
+      MetadataProto metadataProto,
+      Function<CallingCodeProto, ImmutableList<MatcherFunction>> matchersFn) {
     this.version = versionOf(metadataProto);
 
     List<String> tokens = metadataProto.getTokenList();
     ImmutableList<String> typeNames =
         metadataProto.getTypeList().stream().map(tokens::get).collect(toImmutableList());
-    this.classifiers = buildCallingCodeClassifiers(metadataProto, typeNames.size(), tokens::get);
+    // Shared matcher data is only loaded once, rather than once per calling code which uses it.
+    ImmutableList<MatcherFunction> sharedMatchers =
+        metadataProto.getSharedMatcherDataList().stream()
+            .map(MatcherFunction::fromProto)
+            .collect(toImmutableList());
+    this.classifiers =
+        buildCallingCodeClassifiers(
+            metadataProto, typeNames.size(), tokens::get, matchersFn, sharedMatchers);
     this.typeInfoMap =
         IntStream.range(0, typeNames.size())
             .boxed()
             .collect(toImmutableMap(typeNames::get, i -> getTypeInfo(metadataProto, i)));
   }
 
+  /**
+   * Returns the given metadata restricted to the calling codes in a comma-separated list (e.g.
+   * "1,44,49"), or the metadata unchanged if the list is {@code null}. Calling codes which are not
+   * present in the metadata are ignored, so the same list can be used for different metadata.
+   * Shared matcher data which is only used by removed calling codes is also removed.
+   *
+   * @throws IllegalArgumentException if the list is empty or contains an invalid calling code.
+   */
+  static MetadataProto restrictCallingCodes(MetadataProto proto, @Nullable String callingCodes) {
+    if (callingCodes == null) {
+      return proto;
+    }
+    ImmutableSet.Builder<Integer> allowed = ImmutableSet.builder();
+    for (String cc : Splitter.on(',').trimResults().omitEmptyStrings().split(callingCodes)) {
+      checkArgument(
+          cc.length() <= 3 && CharMatcher.inRange('0', '9').matchesAllOf(cc),
+          "invalid calling code '%s' in list: %s",
+          cc,
+          callingCodes);
+      allowed.add(Integer.valueOf(cc));
+    }
+    ImmutableSet<Integer> allowedCallingCodes = allowed.build();
+    checkArgument(!allowedCallingCodes.isEmpty(), "empty calling code list: '%s'", callingCodes);
+    return removeUnusedSharedMatcherData(
+        proto.toBuilder()
+            .clearCallingCodeData()
+            .addAllCallingCodeData(
+                proto.getCallingCodeDataList().stream()
+                    .filter(cc -> allowedCallingCodes.contains(cc.getCallingCode()))
+                    .collect(toImmutableList()))
+            .build());
+  }
+
+  /*
+   * Removes shared matcher data which is not referenced by any calling code, so it is not loaded
+   * unnecessarily, and renumbers the indices of the remaining shared data (for a calling code with
+   * N local matchers, index N + i references the i-th shared matcher data).
+   */
+  private static MetadataProto removeUnusedSharedMatcherData(MetadataProto proto) {
+    int sharedCount = proto.getSharedMatcherDataCount();
+    if (sharedCount == 0) {
+      return proto;
+    }
+    boolean[] isUsed = new boolean[sharedCount];
+    for (CallingCodeProto cc : proto.getCallingCodeDataList()) {
+      int localCount = cc.getMatcherDataCount();
+      for (List<Integer> indices : matcherIndexLists(cc)) {
+        for (int i : indices.isEmpty() ? ImmutableList.of(0) : indices) {
+          if (i >= localCount) {
+            isUsed[i - localCount] = true;
+          }
+        }
+      }
+    }
+    MetadataProto.Builder result = proto.toBuilder().clearSharedMatcherData();
+    int[] newSharedIndex = new int[sharedCount];
+    for (int i = 0; i < sharedCount; i++) {
+      if (isUsed[i]) {
+        newSharedIndex[i] = result.getSharedMatcherDataCount();
+        result.addSharedMatcherData(proto.getSharedMatcherData(i));
+      }
+    }
+    if (result.getSharedMatcherDataCount() == sharedCount) {
+      return proto;
+    }
+    for (CallingCodeProto.Builder cc : result.getCallingCodeDataBuilderList()) {
+      int localCount = cc.getMatcherDataCount();
+      IntUnaryOperator remap =
+          i -> i < localCount ? i : localCount + newSharedIndex[i - localCount];
+      List<Integer> validityIndices = remapIndices(cc.getValidityMatcherIndexList(), remap);
+      cc.clearValidityMatcherIndex().addAllValidityMatcherIndex(validityIndices);
+      for (NationalNumberDataProto.Builder data : cc.getNationalNumberDataBuilderList()) {
+        for (MatcherFunctionProto.Builder function : data.getMatcherBuilderList()) {
+          List<Integer> indices = remapIndices(function.getMatcherIndexList(), remap);
+          function.clearMatcherIndex().addAllMatcherIndex(indices);
+        }
+      }
+    }
+    return result.build();
+  }
+
+  private static ImmutableList<List<Integer>> matcherIndexLists(CallingCodeProto cc) {
+    ImmutableList.Builder<List<Integer>> indexLists = ImmutableList.builder();
+    indexLists.add(cc.getValidityMatcherIndexList());
+    for (NationalNumberDataProto data : cc.getNationalNumberDataList()) {
+      for (MatcherFunctionProto function : data.getMatcherList()) {
+        indexLists.add(function.getMatcherIndexList());
+      }
+    }
+    return indexLists.build();
+  }
+
+  // An empty index list means index zero, so it can only remain empty if index zero is unchanged.
+  private static ImmutableList<Integer> remapIndices(
+      List<Integer> indices, IntUnaryOperator remap) {
+    if (indices.isEmpty()) {
+      int index = remap.applyAsInt(0);
+      return index == 0 ? ImmutableList.of() : ImmutableList.of(index);
+    }
+    return indices.stream().map(remap::applyAsInt).collect(toImmutableList());
+  }
+
   private static VersionInfo versionOf(MetadataProto proto) {
     MetadataProto.VersionInfo v = proto.getVersion();
     return VersionInfo.of(
@@ -58,13 +184,22 @@ final class ProtoBasedNumberClassifier implements RawClassifier {
 
   private static ImmutableSortedMap<DigitSequence, CallingCodeClassifier>
       buildCallingCodeClassifiers(
-          MetadataProto metadataProto, int typeCount, IntFunction<String> tokenDecoder) {
+          MetadataProto metadataProto,
+          int typeCount,
+          IntFunction<String> tokenDecoder,
+          Function<CallingCodeProto, ImmutableList<MatcherFunction>> matchersFn,
+          ImmutableList<MatcherFunction> sharedMatchers) {
     ImmutableSortedMap.Builder<DigitSequence, CallingCodeClassifier> classifiers =
         ImmutableSortedMap.naturalOrder();
-    for (Metadata.CallingCodeProto callingCodeProto : metadataProto.getCallingCodeDataList()) {
+    for (CallingCodeProto callingCodeProto : metadataProto.getCallingCodeDataList()) {
       DigitSequence cc = DigitSequence.parse(Integer.toString(callingCodeProto.getCallingCode()));
       CallingCodeClassifier classifier =
-          CallingCodeClassifier.from(callingCodeProto, typeCount, tokenDecoder);
+          CallingCodeClassifier.from(
+              callingCodeProto,
+              typeCount,
+              tokenDecoder,
+              matchersFn.apply(callingCodeProto),
+              sharedMatchers);
       classifiers.put(cc, classifier);
     }
     return classifiers.buildOrThrow();
@@ -12,6 +12,7 @@ package net.goui.phonenumbers.service.proto;
 
 import static com.google.common.base.Preconditions.checkState;
 import static net.goui.phonenumbers.MatchResult.INVALID;
+import static net.goui.phonenumbers.MatchResult.POSSIBLE_LENGTH;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -36,8 +37,20 @@ final class TypeClassifier implements ValueMatcher {
     return new TypeClassifier(proto, tokenDecoder, matcherFactory);
   }
 
+  // Leading digit index has entries for each single digit prefix, followed by each 2-digit prefix.
+  private static final int PREFIX_INDEX_SIZE = 10 + 100;
+
   private final MatcherFunction[] matchers;
   private final ImmutableMap<String, Integer> indexLookup;
+  // Lazily created index from the leading digits of a number to the mask of candidate values.
+  // Only created on demand since most types are never used for matching (only classification).
+  private volatile int[] leadingDigitIndex = null;
+  // True if the values of this classifier are disjoint (so at most one matcher can match a number).
+  // In this case multi-valued classification can also stop after the first match, as single
+  // valued classification always does. The order in which matchers are tested is fixed by the
+  // metadata (which lists the most frequently matched values first when generated with a traffic
+  // sample).
+  private final boolean hasDisjointValues;
 
   private TypeClassifier(
       NationalNumberDataProto proto,
@@ -57,6 +70,7 @@ final class TypeClassifier implements ValueMatcher {
       indexLookup.put(defaultValue, matcherCount);
     }
     this.indexLookup = indexLookup.build();
+    this.hasDisjointValues = proto.getDisjointValues();
   }
 
   private String getValue(int index) {
@@ -78,6 +92,44 @@ final class TypeClassifier implements ValueMatcher {
     return indexLookup.keySet();
   }
 
+  @Override
+  public Set<String> getCandidateValues(DigitSequence nationalNumber) {
+    checkState(
+        matchers.length == indexLookup.size(), "match operations not supported by this classifier");
+    int length = nationalNumber.length();
+    if (length == 0 || matchers.length > 32) {
+      return getPossibleValues();
+    }
+    int prefix =
+        length == 1
+            ? nationalNumber.getDigit(0)
+            : 10 + (10 * nationalNumber.getDigit(0)) + nationalNumber.getDigit(1);
+    return new IndexedValueSet(getLeadingDigitIndex()[prefix]);
+  }
+
+  private int[] getLeadingDigitIndex() {
+    // Benign race: Concurrent callers may each build an index, but they will be identical.
+    int[] index = leadingDigitIndex;
+    if (index == null) {
+      index = new int[PREFIX_INDEX_SIZE];
+      for (int n = 0; n < PREFIX_INDEX_SIZE; n++) {
+        DigitSequence prefix =
+            DigitSequence.parse(n < 10 ? Integer.toString(n) : String.format("%02d", n - 10));
+        int mask = 0;
+        for (int i = 0; i < matchers.length; i++) {
+          // An invalid prefix (as opposed to a partial match) can never be extended to a match.
+          MatchResult result = matchers[i].match(prefix);
+          if (result != INVALID && result != POSSIBLE_LENGTH) {
+            mask |= 1 << i;
+          }
+        }
+        index[n] = mask;
+      }
+      leadingDigitIndex = index;
+    }
+    return index;
+  }
+
   public String classifySingleValue(DigitSequence nationalNumber) {
     int index = indexOfFirstMatch(nationalNumber);
     return index >= 0 ? getValue(index) : "";
@@ -103,6 +155,10 @@ final class TypeClassifier implements ValueMatcher {
   }
 
   public Set<String> classifyMultiValue(DigitSequence nationalNumber) {
+    if (hasDisjointValues) {
+      int index = indexOfOnlyMatch(nationalNumber);
+      return new IndexedValueSet(index >= 0 ? 1 << index : 0);
+    }
     int mask = 0;
     int bit = 1;
     for (MatcherFunction p : matchers) {
@@ -114,6 +170,19 @@ final class TypeClassifier implements ValueMatcher {
     return new IndexedValueSet(mask);
   }
 
+  /**
+   * Returns the index of the only matcher which matches the given number (or -1 if none match).
+   * This must only be called for classifiers with disjoint values.
+   */
+  private int indexOfOnlyMatch(DigitSequence nationalNumber) {
+    for (int index = 0; index < matchers.length; index++) {
+      if (matchers[index].isMatch(nationalNumber)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
   public final class IndexedValueSet extends AbstractSet<String> {
     private final int mask;
 
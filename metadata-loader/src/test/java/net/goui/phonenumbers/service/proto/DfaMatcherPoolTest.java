@@ -0,0 +1,41 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DfaMatcherPoolTest {
+  @Test
+  public void testIdenticalDataIsShared() {
+    // Data is never executed here, so it need not be a valid DFA (but must be unique to this test).
+    byte[] data = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17};
+    long sharedCount = DfaMatcherPool.getSharedMatcherCount();
+    long bytesSaved = DfaMatcherPool.getBytesSaved();
+
+    DfaMatcherPool.SharedDfa first = DfaMatcherPool.intern(ByteString.copyFrom(data));
+    DfaMatcherPool.SharedDfa second = DfaMatcherPool.intern(ByteString.copyFrom(data));
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(second.matcher()).isSameInstanceAs(first.matcher());
+    assertThat(DfaMatcherPool.getSharedMatcherCount()).isAtLeast(sharedCount + 1);
+    assertThat(DfaMatcherPool.getBytesSaved()).isAtLeast(bytesSaved + data.length);
+
+    data[0] = 0;
+    DfaMatcherPool.SharedDfa different = DfaMatcherPool.intern(ByteString.copyFrom(data));
+    assertThat(different).isNotSameInstanceAs(first);
+    assertThat(different.matcher()).isNotSameInstanceAs(first.matcher());
+  }
+}
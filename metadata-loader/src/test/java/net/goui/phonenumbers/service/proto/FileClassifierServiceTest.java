@@ -0,0 +1,105 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import static com.google.common.truth.Truth.assertThat;
+import static net.goui.phonenumbers.MatchResult.MATCHED;
+import static net.goui.phonenumbers.service.proto.ProtoBasedNumberClassifierTest.VERSION;
+import static net.goui.phonenumbers.service.proto.ProtoBasedNumberClassifierTest.seq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import net.goui.phonenumbers.metadata.ClassifierService;
+import net.goui.phonenumbers.metadata.RawClassifier;
+import net.goui.phonenumbers.metadata.ReloadableClassifier;
+import net.goui.phonenumbers.metadata.VersionInfo;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FileClassifierServiceTest {
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testReload() throws IOException {
+    Path metadata = tmp.newFile("metadata.pb").toPath();
+    try (InputStream is = getClass().getResourceAsStream("/test_metadata.pb")) {
+      Files.write(metadata, is.readAllBytes());
+    }
+
+    ReloadableClassifier classifier =
+        ReloadableClassifier.load(new FileClassifierService(VERSION, metadata));
+    assertThat(classifier.getVersion()).isEqualTo(VERSION);
+    assertThat(classifier.getReloadCount()).isEqualTo(0);
+    assertThat(classifier.match(seq("1"), seq("6502123456"))).isEqualTo(MATCHED);
+    RawClassifier snapshot = classifier.snapshot();
+    assertThat(snapshot.snapshot()).isSameInstanceAs(snapshot);
+
+    assertThat(classifier.reload(new FileClassifierService(VERSION, metadata))).isEqualTo(VERSION);
+    assertThat(classifier.getReloadCount()).isEqualTo(1);
+    // A snapshot taken before reloading continues to use the old metadata.
+    assertThat(classifier.snapshot()).isNotSameInstanceAs(snapshot);
+    assertThat(snapshot.match(seq("1"), seq("6502123456"))).isEqualTo(MATCHED);
+    assertThat(classifier.getLastReloadDuration().isNegative()).isFalse();
+    assertThat(classifier.match(seq("1"), seq("6502123456"))).isEqualTo(MATCHED);
+
+    // Failure to load leaves the existing metadata in use.
+    Path missing = tmp.getRoot().toPath().resolve("missing.pb");
+    Assert.assertThrows(
+        IllegalStateException.class,
+        () -> classifier.reload(new FileClassifierService(VERSION, missing)));
+    // Stated version is not satisfied by the metadata in the file.
+    VersionInfo newer = VersionInfo.of(VERSION.getSchema(), 2, 1, 0);
+    Assert.assertThrows(
+        IllegalStateException.class,
+        () -> classifier.reload(new FileClassifierService(newer, metadata)));
+    assertThat(classifier.getReloadCount()).isEqualTo(1);
+    assertThat(classifier.getVersion()).isEqualTo(VERSION);
+  }
+
+  @Test
+  public void testReloadWithoutParserData() throws IOException {
+    Path metadata = tmp.newFile("metadata.pb").toPath();
+    try (InputStream is = getClass().getResourceAsStream("/test_metadata.pb")) {
+      Files.write(metadata, is.readAllBytes());
+    }
+    ReloadableClassifier classifier =
+        ReloadableClassifier.load(new FileClassifierService(VERSION, metadata));
+    RawClassifier snapshot = classifier.snapshot();
+
+    // Otherwise compatible metadata, but without parser data for any calling code.
+    RawClassifier loaded = new FileClassifierService(VERSION, metadata).load();
+    RawClassifier noParserData =
+        (RawClassifier)
+            Proxy.newProxyInstance(
+                RawClassifier.class.getClassLoader(),
+                new Class<?>[] {RawClassifier.class},
+                (proxy, method, args) ->
+                    method.getName().equals("getParserData") ? null : method.invoke(loaded, args));
+    ClassifierService service =
+        new ClassifierService(VERSION) {
+          @Override
+          protected RawClassifier load() {
+            return noParserData;
+          }
+        };
+    Assert.assertThrows(IllegalArgumentException.class, () -> classifier.reload(service));
+    assertThat(classifier.snapshot()).isSameInstanceAs(snapshot);
+    assertThat(classifier.getReloadCount()).isEqualTo(0);
+  }
+}
@@ -30,6 +30,7 @@ import com.google.i18n.phonenumbers.metadata.regex.RegexGenerator;
 import com.google.protobuf.ByteString;
 import java.util.Arrays;
 import java.util.function.Function;
+import java.util.stream.LongStream;
 import net.goui.phonenumbers.DigitSequence;
 import net.goui.phonenumbers.MatchResult;
 import net.goui.phonenumbers.proto.Metadata;
@@ -58,6 +59,7 @@ public class MatcherFunctionTest {
     return ImmutableList.<Function<String[], MatcherFunction>>of(
         MatcherFunctionTest::getRegexMatcherFunction,
         MatcherFunctionTest::getDfaMatcherFunction,
+        MatcherFunctionTest::getIntervalMatcherFunction,
         MatcherFunctionTest::getCombinedMatcherFunction);
   }
 
@@ -87,6 +89,38 @@ public class MatcherFunctionTest {
     assertExcessDigits(matcher, "1234567890", "4561112223330");
   }
 
+  @Test
+  public void testSeveralIntervals() {
+    MatcherFunction matcher = newMatcher("12_xxx", "34_xxx", "56_xxx", "78_xxx");
+    assertMatched(matcher, "12000", "12999", "34567", "56000", "78999");
+    assertPartialMatch(matcher, "1", "34", "5612", "7899");
+    assertExcessDigits(matcher, "123456", "789999");
+    assertMatchResult(matcher, INVALID, "9", "13", "7900");
+    assertMatchResult(matcher, POSSIBLE_LENGTH, "13000", "23456", "79999");
+  }
+
+  @Test
+  public void testAdjacentIntervals() {
+    // Both ranges are a single interval, and together they are a single contiguous interval.
+    MatcherFunction matcher = newMatcher("129_x", "13_xx");
+    assertMatched(matcher, "1290", "1299", "1300", "1399");
+    assertPartialMatch(matcher, "1", "13", "129");
+    assertExcessDigits(matcher, "12999", "13000");
+    assertMatchResult(matcher, INVALID, "128", "14");
+    assertMatchResult(matcher, POSSIBLE_LENGTH, "1289", "1400");
+  }
+
+  @Test
+  public void testFirstAndLastDigitsOfDifferentLengths() {
+    // The first and last intervals of their lengths.
+    MatcherFunction matcher = newMatcher("0_x", "9_xxx");
+    assertMatched(matcher, "00", "09", "9000", "9999");
+    assertPartialMatch(matcher, "0", "9", "900");
+    assertExcessDigits(matcher, "000", "99990");
+    assertMatchResult(matcher, INVALID, "1", "555");
+    assertMatchResult(matcher, POSSIBLE_LENGTH, "10", "1000", "8999");
+  }
+
   private static void assertMatched(MatcherFunction matcher, String... numbers) {
     for (String s : numbers) {
       DigitSequence number = DigitSequence.parse(s);
@@ -133,6 +167,31 @@ public class MatcherFunctionTest {
     return MatcherFunction.fromProto(proto);
   }
 
+  // Only handles specifications with a fixed prefix (e.g. "123_xxx"), which are single intervals.
+  private static MatcherFunction getIntervalMatcherFunction(String... specs) {
+    long[] bounds =
+        Arrays.stream(specs)
+            .map(s -> s.replace("_", ""))
+            .flatMapToLong(s -> LongStream.of(encode(s, '0'), encode(s, '9')))
+            .sorted()
+            .toArray();
+    Metadata.MatcherDataProto.Builder proto =
+        Metadata.MatcherDataProto.newBuilder()
+            .setPossibleLengthsMask(lengthMaskOf(rangesOf(specs)));
+    long previous = 0;
+    for (long bound : bounds) {
+      proto.addIntervalTable(bound - previous);
+      previous = bound;
+    }
+    return MatcherFunction.fromProto(proto.build());
+  }
+
+  // Encodes the min/max digit sequence of a specification (the value plus "111..." for its length).
+  private static long encode(String spec, char anyDigit) {
+    long value = Long.parseLong(spec.replace('x', anyDigit));
+    return value + Long.parseLong("1".repeat(spec.length()));
+  }
+
   private static MatcherFunction getRegexMatcherFunction(String... specs) {
     return matcherFrom(rangesOf(specs));
   }
@@ -19,10 +19,17 @@ import static net.goui.phonenumbers.MatchResult.MATCHED;
 import static net.goui.phonenumbers.MatchResult.PARTIAL_MATCH;
 import static net.goui.phonenumbers.MatchResult.POSSIBLE_LENGTH;
 
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import net.goui.phonenumbers.DigitSequence;
 import net.goui.phonenumbers.metadata.RawClassifier;
 import net.goui.phonenumbers.metadata.VersionInfo;
+import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherFunctionProto;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+import net.goui.phonenumbers.proto.Metadata.NationalNumberDataProto;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -113,6 +120,165 @@ public class ProtoBasedNumberClassifierTest {
     assertThat(classifier.classify(gb, seq("7924123456"), "REGION")).containsExactly("GB", "IM");
   }
 
+  @Test
+  public void testCandidateValues() throws IOException {
+    class TestService extends AbstractResourceClassifierService {
+      protected TestService() {
+        super(VERSION, "/test_metadata.pb");
+      }
+    }
+    RawClassifier classifier = new TestService().load();
+    DigitSequence gb = DigitSequence.parse("44");
+    RawClassifier.ValueMatcher matcher = classifier.getValueMatcher(gb, "TYPE");
+
+    // Candidates are a subset of possible values, but always include any matched value.
+    assertThat(matcher.getCandidateValues(seq("7691123456"))).contains("MOBILE");
+    assertThat(matcher.getCandidateValues(seq("7691123456"))).doesNotContain("FIXED_LINE");
+    assertThat(matcher.getPossibleValues())
+        .containsAtLeastElementsIn(matcher.getCandidateValues(seq("7691123456")));
+    // Single digit prefixes are also indexed.
+    assertThat(matcher.getCandidateValues(seq("7"))).contains("MOBILE");
+    // No digits means no restriction.
+    assertThat(matcher.getCandidateValues(seq("")))
+        .isEqualTo(matcher.getPossibleValues());
+  }
+
+  @Test
+  public void testSharedMatcherData() throws IOException {
+    MetadataProto proto;
+    try (InputStream is =
+        ProtoBasedNumberClassifierTest.class.getResourceAsStream("/test_metadata.pb")) {
+      proto = MetadataProto.parseFrom(is);
+    }
+    // Move all the matcher data for the first calling code into the shared data. Since there is no
+    // local data left, existing matcher indices now reference the shared data directly.
+    MetadataProto.Builder shared = proto.toBuilder();
+    CallingCodeProto.Builder callingCodeData = shared.getCallingCodeDataBuilder(0);
+    shared.addAllSharedMatcherData(callingCodeData.getMatcherDataList());
+    callingCodeData.clearMatcherData();
+
+    RawClassifier original = new ProtoBasedNumberClassifier(proto);
+    RawClassifier classifier = new ProtoBasedNumberClassifier(shared.build());
+    ImmutableList<DigitSequence> numbers =
+        ImmutableList.of(
+            seq("6502123456"), seq("650212345"), seq("65021234567"), seq("7691123456"), seq(""));
+    for (DigitSequence cc : original.getSupportedCallingCodes()) {
+      for (DigitSequence number : numbers) {
+        assertThat(classifier.match(cc, number)).isEqualTo(original.match(cc, number));
+        assertThat(classifier.classify(cc, number, "REGION"))
+            .isEqualTo(original.classify(cc, number, "REGION"));
+      }
+    }
+  }
+
+  @Test
+  public void testCallingCodesProperty() throws IOException {
+    class TestService extends AbstractResourceClassifierService {
+      protected TestService() {
+        super(VERSION, "/test_metadata.pb");
+      }
+    }
+    RawClassifier classifier;
+    System.setProperty(AbstractResourceClassifierService.CALLING_CODES_PROPERTY, " 1, 999 ");
+    try {
+      classifier = new TestService().load();
+    } finally {
+      System.clearProperty(AbstractResourceClassifierService.CALLING_CODES_PROPERTY);
+    }
+    // Unknown calling codes are ignored.
+    assertThat(classifier.getSupportedCallingCodes()).containsExactly(seq("1"));
+    assertThat(classifier.match(seq("1"), seq("6502123456"))).isEqualTo(MATCHED);
+    assertThat(classifier.getPossibleValues("REGION")).doesNotContain("GB");
+    Assert.assertThrows(
+        IllegalArgumentException.class, () -> classifier.match(seq("44"), seq("7691123456")));
+
+    // Without the property, all calling codes are loaded again.
+    assertThat(new TestService().load().getSupportedCallingCodes()).contains(seq("44"));
+  }
+
+  @Test
+  public void testRestrictCallingCodes() throws IOException {
+    MetadataProto proto;
+    try (InputStream is =
+        ProtoBasedNumberClassifierTest.class.getResourceAsStream("/test_metadata.pb")) {
+      proto = MetadataProto.parseFrom(is);
+    }
+    assertThat(ProtoBasedNumberClassifier.restrictCallingCodes(proto, null))
+        .isSameInstanceAs(proto);
+    Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> ProtoBasedNumberClassifier.restrictCallingCodes(proto, "1,+44"));
+    Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> ProtoBasedNumberClassifier.restrictCallingCodes(proto, "1,4444"));
+    // An empty list would silently remove all calling codes.
+    Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> ProtoBasedNumberClassifier.restrictCallingCodes(proto, ""));
+    Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> ProtoBasedNumberClassifier.restrictCallingCodes(proto, " , "));
+  }
+
+  @Test
+  public void testRestrictCallingCodesWithSharedMatcherData() throws IOException {
+    MetadataProto proto;
+    try (InputStream is =
+        ProtoBasedNumberClassifierTest.class.getResourceAsStream("/test_metadata.pb")) {
+      proto = MetadataProto.parseFrom(is);
+    }
+    // Move the matcher data of the first two calling codes into the shared data (in that order).
+    MetadataProto.Builder shared = proto.toBuilder();
+    moveToSharedMatcherData(shared, 0);
+    moveToSharedMatcherData(shared, 1);
+    CallingCodeProto second = proto.getCallingCodeData(1);
+    DigitSequence cc = seq(Integer.toString(second.getCallingCode()));
+
+    // Only the shared data of the retained calling code remains, and its indices are renumbered.
+    MetadataProto restricted =
+        ProtoBasedNumberClassifier.restrictCallingCodes(shared.build(), cc.toString());
+    assertThat(restricted.getSharedMatcherDataList())
+        .containsExactlyElementsIn(second.getMatcherDataList())
+        .inOrder();
+
+    RawClassifier original = new ProtoBasedNumberClassifier(proto);
+    RawClassifier classifier = new ProtoBasedNumberClassifier(restricted);
+    assertThat(classifier.getSupportedCallingCodes()).containsExactly(cc);
+    ImmutableList<DigitSequence> numbers =
+        ImmutableList.of(
+            seq("6502123456"), seq("650212345"), seq("65021234567"), seq("7691123456"), seq(""));
+    for (DigitSequence number : numbers) {
+      assertThat(classifier.match(cc, number)).isEqualTo(original.match(cc, number));
+      for (String type : original.getSupportedNumberTypes()) {
+        assertThat(classifier.classify(cc, number, type))
+            .isEqualTo(original.classify(cc, number, type));
+      }
+    }
+  }
+
+  // Appends the local matcher data of a calling code to the shared data. With no local data left,
+  // local index i becomes (offset + i), and an empty index list (index zero) must become explicit.
+  private static void moveToSharedMatcherData(MetadataProto.Builder proto, int index) {
+    int offset = proto.getSharedMatcherDataCount();
+    CallingCodeProto.Builder cc = proto.getCallingCodeDataBuilder(index);
+    proto.addAllSharedMatcherData(cc.getMatcherDataList());
+    cc.clearMatcherData();
+    List<Integer> validityIndices = offset(cc.getValidityMatcherIndexList(), offset);
+    cc.clearValidityMatcherIndex().addAllValidityMatcherIndex(validityIndices);
+    for (NationalNumberDataProto.Builder data : cc.getNationalNumberDataBuilderList()) {
+      for (MatcherFunctionProto.Builder function : data.getMatcherBuilderList()) {
+        List<Integer> indices = offset(function.getMatcherIndexList(), offset);
+        function.clearMatcherIndex().addAllMatcherIndex(indices);
+      }
+    }
+  }
+
+  private static ImmutableList<Integer> offset(List<Integer> indices, int offset) {
+    return (indices.isEmpty() ? ImmutableList.of(0) : indices).stream()
+        .map(i -> i + offset)
+        .collect(ImmutableList.toImmutableList());
+  }
+
   static DigitSequence seq(String s) {
     return DigitSequence.parse(s);
   }
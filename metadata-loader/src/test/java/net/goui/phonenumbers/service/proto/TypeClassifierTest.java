@@ -0,0 +1,79 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+  Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+  This program and the accompanying materials are made available under the terms of the
+  Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+  Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+  SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.service.proto;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import net.goui.phonenumbers.DigitSequence;
+import net.goui.phonenumbers.proto.Metadata.MatcherDataProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherFunctionProto;
+import net.goui.phonenumbers.proto.Metadata.NationalNumberDataProto;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TypeClassifierTest {
+  // Token 0 is always the empty string.
+  private static final ImmutableList<String> TOKENS =
+      ImmutableList.of("", "PREMIUM_RATE", "MOBILE", "FIXED_LINE", "OTHER");
+  // Disjoint ranges (indexed by matcher index).
+  private static final ImmutableList<MatcherFunction> MATCHERS =
+      ImmutableList.of(regex("90\\d{4}"), regex("7\\d{5}"), regex("[1-6]\\d{5}"));
+
+  @Test
+  public void testDisjointValuesGiveIdenticalResults() {
+    NationalNumberDataProto.Builder proto = NationalNumberDataProto.newBuilder();
+    for (int i = 0; i < MATCHERS.size(); i++) {
+      proto.addMatcher(MatcherFunctionProto.newBuilder().setValue(i + 1).addMatcherIndex(i));
+    }
+    TypeClassifier ordered = classifier(proto.build());
+    TypeClassifier disjoint = classifier(proto.setDisjointValues(true).build());
+    proto.setDefaultValue(4);
+    TypeClassifier orderedWithDefault = classifier(proto.setDisjointValues(false).build());
+    TypeClassifier disjointWithDefault = classifier(proto.setDisjointValues(true).build());
+
+    ImmutableList<DigitSequence> numbers =
+        ImmutableList.of(seq("123456"), seq("712345"), seq("901234"), seq("812345"), seq("12"));
+    for (DigitSequence number : numbers) {
+      assertThat(disjoint.classifySingleValue(number))
+          .isEqualTo(ordered.classifySingleValue(number));
+      assertThat(disjoint.classifyMultiValue(number))
+          .isEqualTo(ordered.classifyMultiValue(number));
+      assertThat(disjointWithDefault.classifySingleValueAsSet(number))
+          .isEqualTo(orderedWithDefault.classifySingleValueAsSet(number));
+    }
+    assertThat(disjoint.classifySingleValue(seq("123456"))).isEqualTo("FIXED_LINE");
+    assertThat(disjoint.classifySingleValue(seq("812345"))).isEmpty();
+    assertThat(disjointWithDefault.classifySingleValue(seq("812345"))).isEqualTo("OTHER");
+    assertThat(disjoint.classifyMultiValue(seq("712345"))).containsExactly("MOBILE");
+  }
+
+  private static TypeClassifier classifier(NationalNumberDataProto proto) {
+    return TypeClassifier.create(proto, TOKENS::get, TypeClassifierTest::combine);
+  }
+
+  private static MatcherFunction combine(List<Integer> indices) {
+    return MatcherFunction.combine(indices.stream().map(MATCHERS::get).collect(toImmutableList()));
+  }
+
+  private static MatcherFunction regex(String regex) {
+    return MatcherFunction.fromProto(
+        MatcherDataProto.newBuilder().setPossibleLengthsMask(1 << 6).setRegexData(regex).build());
+  }
+
+  private static DigitSequence seq(String s) {
+    return DigitSequence.parse(s);
+  }
+}
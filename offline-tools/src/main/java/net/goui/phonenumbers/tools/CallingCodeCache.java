@@ -0,0 +1,125 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+ This program and the accompanying materials are made available under the terms of the
+ Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+ Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema.EXTRA_REGIONS;
+import static com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema.MAIN_REGION;
+import static com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema.NATIONAL_PREFIX;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import net.goui.phonenumbers.tools.MetadataConfig.CallingCodeConfig;
+import net.goui.phonenumbers.tools.proto.Cache.CachedCallingCodeProto;
+
+/**
+ * A content addressed cache of the generated data for individual calling codes. This allows
+ * metadata to be regenerated incrementally, since simplification and matcher compilation only
+ * need to be performed for calling codes whose input data or configuration has changed.
+ *
+ * <p>Cache entries are keyed by a hash of everything which can affect the generated data for a
+ * calling code (the transformed range data, the relevant parts of the calling code's CSV row and
+ * the configuration). Since entries are never invalidated, only superseded, the cache directory
+ * can safely be shared between configurations, or deleted at any time.
+ */
+final class CallingCodeCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  // Increase this whenever code changes would affect the generated data for unchanged inputs
+  // (e.g. changes to simplification, matcher compilation or the cached proto format) to avoid
+  // using stale cache entries.
+  private static final int CACHE_VERSION = 2;
+
+  private final Path cacheDir;
+
+  CallingCodeCache(Path cacheDir) throws IOException {
+    this.cacheDir = Files.createDirectories(cacheDir);
+  }
+
+  /**
+   * Returns the cache key for the data generated for a calling code.
+   *
+   * @param metadata the transformed (but not yet simplified) metadata.
+   * @param cc the calling code.
+   * @param callingCodeConfig the configuration for the calling code.
+   * @param config the overall metadata configuration.
+   */
+  static String keyOf(
+      Metadata metadata,
+      DigitSequence cc,
+      CallingCodeConfig callingCodeConfig,
+      MetadataConfig config) {
+    Hasher hasher = Hashing.sha256().newHasher().putInt(CACHE_VERSION);
+    putString(hasher, cc.toString());
+    putString(hasher, callingCodeConfig.toString());
+    hasher
+        .putBoolean(config.includeParserInfo())
+        .putBoolean(config.includeExampleNumbers())
+        .putBoolean(config.includeEmptyCallingCodes());
+    putString(hasher, config.matcherTypes().toString());
+    putString(hasher, metadata.root().get(cc, MAIN_REGION).toString());
+    putString(hasher, metadata.root().get(cc, EXTRA_REGIONS).toString());
+    putString(hasher, metadata.root().get(cc, NATIONAL_PREFIX).toString());
+    // The string representation of a range map contains all its ranges and values.
+    putString(hasher, metadata.getRangeMap(cc).toString());
+    return hasher.hash().toString();
+  }
+
+  // Length prefixed to avoid ambiguity between adjacent strings.
+  private static void putString(Hasher hasher, String s) {
+    hasher.putInt(s.length()).putString(s, UTF_8);
+  }
+
+  /** Returns the cached data for the given key, if present. */
+  Optional<CachedCallingCodeProto> get(String key) throws IOException {
+    Path path = pathOf(key);
+    if (!Files.exists(path)) {
+      return Optional.empty();
+    }
+    CachedCallingCodeProto data;
+    try (InputStream is = Files.newInputStream(path)) {
+      data = CachedCallingCodeProto.parseFrom(is);
+    }
+    // Should never happen unless files are renamed, but it's cheap to check.
+    if (!data.getKey().equals(key)) {
+      logger.atWarning().log("Ignoring mismatched cache entry: %s", path);
+      return Optional.empty();
+    }
+    return Optional.of(data);
+  }
+
+  /** Adds data to the cache (the data must have its key set). */
+  void put(CachedCallingCodeProto data) throws IOException {
+    checkArgument(!data.getKey().isEmpty(), "cached data must have a key");
+    // Write then rename so concurrent readers never see partially written entries.
+    Path path = pathOf(data.getKey());
+    Path tmpPath = Files.createTempFile(cacheDir, data.getKey(), ".tmp");
+    try (OutputStream os = Files.newOutputStream(tmpPath)) {
+      data.writeTo(os);
+    }
+    Files.move(tmpPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  private Path pathOf(String key) {
+    return cacheDir.resolve(key + ".pb");
+  }
+}
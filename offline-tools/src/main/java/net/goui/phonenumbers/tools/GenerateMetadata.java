@@ -11,29 +11,40 @@ SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
 package net.goui.phonenumbers.tools;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.flogger.FluentLogger;
 import com.google.i18n.phonenumbers.metadata.DigitSequence;
 import com.google.i18n.phonenumbers.metadata.RangeTree;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+import net.goui.phonenumbers.tools.MetadataConfig.CallingCodeConfig;
+import net.goui.phonenumbers.tools.proto.Cache.CachedCallingCodeProto;
 
 /**
  * The primary tool for generating client metadata for phone number classifiers.
@@ -82,21 +93,45 @@ public class GenerateMetadata {
         description = "Output data format (overrides type specified in config)")
     private String outType = "";
 
+    @Parameter(
+        names = "--java_package",
+        description = "Java package of generated classes (required for JAVA_SOURCE output)")
+    private String javaPackage = "";
+
     @Parameter(names = "--log_level", description = "JDK log level name")
     private String logLevel = "INFO";
+
+    @Parameter(
+        names = "--cache_dir",
+        description = "Directory in which to cache data for unchanged calling codes (optional)")
+    private String cacheDir = "";
+
+    @Parameter(
+        names = "--traffic_sample",
+        description =
+            "File of E.164 numbers used to optimize DFA matcher data layout and matcher order"
+                + " (optional)")
+    private String trafficSamplePath = "";
+
+    @Parameter(
+        names = "--parallelism",
+        description = "Number of threads to use (optional, defaults to the number of processors)")
+    private int parallelism = Runtime.getRuntime().availableProcessors();
   }
 
   @SuppressWarnings("unused")
   enum OutType {
     PROTO(".pb") {
       @Override
-      void write(MetadataProto outputProto, OutputStream os) throws IOException {
+      void write(MetadataProto outputProto, Path outPath, Flags flags, OutputStream os)
+          throws IOException {
         outputProto.writeTo(os);
       }
     },
     JSON(".json") {
       @Override
-      void write(MetadataProto outputProto, OutputStream os) throws IOException {
+      void write(MetadataProto outputProto, Path outPath, Flags flags, OutputStream os)
+          throws IOException {
         try (Writer w = new OutputStreamWriter(os, UTF_8)) {
           w.write(MetadataJson.toJsonString(outputProto));
         }
@@ -104,11 +139,29 @@ public class GenerateMetadata {
     },
     JSON_DEBUG(".json") {
       @Override
-      void write(MetadataProto outputProto, OutputStream os) throws IOException {
+      void write(MetadataProto outputProto, Path outPath, Flags flags, OutputStream os)
+          throws IOException {
         try (Writer w = new OutputStreamWriter(os, UTF_8)) {
           w.write(MetadataJson.toDebugJsonString(outputProto));
         }
       }
+    },
+    /** Java source for a {@code RawClassifier} with compiled matchers (see JavaSourceWriter). */
+    JAVA_SOURCE(".java") {
+      @Override
+      void write(MetadataProto outputProto, Path outPath, Flags flags, OutputStream os)
+          throws IOException {
+        // The class name must match the output file name.
+        String className = outPath.getFileName().toString().replaceAll("\\.java$", "");
+        try (Writer w = new OutputStreamWriter(os, UTF_8)) {
+          w.write(JavaSourceWriter.toJavaSource(outputProto, flags.javaPackage, className));
+        }
+      }
+
+      @Override
+      String getFileName(String baseName) {
+        return JavaSourceWriter.toClassName(baseName) + getExtension();
+      }
     };
 
     private final String extension;
@@ -117,11 +170,17 @@ public class GenerateMetadata {
       this.extension = extension;
     }
 
-    abstract void write(MetadataProto outputProto, OutputStream os) throws IOException;
+    abstract void write(MetadataProto outputProto, Path outPath, Flags flags, OutputStream os)
+        throws IOException;
 
     public String getExtension() {
       return extension;
     }
+
+    /** Returns the output file name for the given base name (e.g. the config file name). */
+    String getFileName(String baseName) {
+      return baseName + extension;
+    }
   }
 
   private static void setLogging(String levelName) {
@@ -138,32 +197,69 @@ public class GenerateMetadata {
     // This takes a long time, so only do it once).
     Metadata rawMetadata = Metadata.load(flags.zipPath, flags.dirPath, flags.csvSeparator);
 
-    Optional<Path> configDir =
-        !flags.configDir.isEmpty() ? Optional.of(Paths.get(flags.configDir)) : Optional.empty();
-    if (!flags.configPath.isEmpty()) {
-      Path configPath = Paths.get(flags.configPath);
-      writeMetadataForConfig(rawMetadata, configDir.map(d -> d.resolve(configPath)).orElse(configPath), flags);
-    } else if (!flags.configPattern.isEmpty()) {
-      Predicate<String> isConfig = Pattern.compile(flags.configPattern).asMatchPredicate();
-      Predicate<String> isExcluded =
-          !flags.configExclude.isEmpty()
-              ? Pattern.compile(flags.configExclude).asPredicate()
-              : s -> false;
-      Predicate<Path> shouldProcess =
-          p -> !isExcluded.test(p.toString()) && isConfig.test(p.getFileName().toString());
-
-      int maxDepth = flags.recursive ? Integer.MAX_VALUE : 1;
-      try (Stream<Path> configs =
-          Files.walk(configDir.orElse(Paths.get(".")), maxDepth).filter(shouldProcess)) {
-        Iterator<Path> it = configs.iterator();
-        while (it.hasNext()) {
-          writeMetadataForConfig(rawMetadata, it.next(), flags);
+    TrafficSample sample = TrafficSample.empty();
+    if (!flags.trafficSamplePath.isEmpty()) {
+      // Cached calling code data does not depend on the sample, so the two cannot be mixed.
+      checkArgument(flags.cacheDir.isEmpty(), "--traffic_sample cannot be used with --cache_dir");
+      sample =
+          TrafficSample.load(
+              Paths.get(flags.trafficSamplePath), rawMetadata.getAvailableCallingCodes());
+    }
+
+    // Configs, calling codes and matcher data are all processed concurrently using this pool, but
+    // results are always collected in a fixed order to ensure generated metadata is deterministic.
+    checkArgument(flags.parallelism > 0, "invalid parallelism: %s", flags.parallelism);
+    ForkJoinPool pool = new ForkJoinPool(flags.parallelism);
+    try {
+      Optional<Path> configDir =
+          !flags.configDir.isEmpty() ? Optional.of(Paths.get(flags.configDir)) : Optional.empty();
+      if (!flags.configPath.isEmpty()) {
+        Path configPath = Paths.get(flags.configPath);
+        writeMetadataForConfig(
+            rawMetadata,
+            configDir.map(d -> d.resolve(configPath)).orElse(configPath),
+            flags,
+            sample,
+            pool);
+      } else if (!flags.configPattern.isEmpty()) {
+        Predicate<String> isConfig = Pattern.compile(flags.configPattern).asMatchPredicate();
+        Predicate<String> isExcluded =
+            !flags.configExclude.isEmpty()
+                ? Pattern.compile(flags.configExclude).asPredicate()
+                : s -> false;
+        Predicate<Path> shouldProcess =
+            p -> !isExcluded.test(p.toString()) && isConfig.test(p.getFileName().toString());
+
+        int maxDepth = flags.recursive ? Integer.MAX_VALUE : 1;
+        List<Path> configPaths;
+        try (Stream<Path> configs =
+            Files.walk(configDir.orElse(Paths.get(".")), maxDepth).filter(shouldProcess)) {
+          configPaths = configs.sorted().collect(toImmutableList());
         }
+        // Each config writes its own output file, so they can be processed independently.
+        TrafficSample configSample = sample;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Path configPath : configPaths) {
+          tasks.add(
+              pool.submit(
+                  () -> {
+                    try {
+                      writeMetadataForConfig(
+                          rawMetadata, configPath, flags, configSample, pool);
+                    } catch (IOException e) {
+                      throw new UncheckedIOException(e);
+                    }
+                  }));
+        }
+        tasks.forEach(ForkJoinTask::join);
       }
+    } finally {
+      pool.shutdown();
     }
   }
 
-  private static void writeMetadataForConfig(Metadata rawMetadata, Path configPath, Flags flags)
+  private static void writeMetadataForConfig(
+      Metadata rawMetadata, Path configPath, Flags flags, TrafficSample sample, ForkJoinPool pool)
       throws IOException {
     MetadataConfig config = MetadataConfig.load(configPath);
     Optional<OutType> defaultOutputType = config.getDefaultOutputType();
@@ -175,25 +271,98 @@ public class GenerateMetadata {
         !flags.outType.isEmpty() ? OutType.valueOf(flags.outType) : defaultOutputType.get();
 
     Metadata transformedMetadata = rawMetadata.transform(config.getOutputTransformer());
-    Metadata simplifiedMetadata = MetadataSimplifier.simplify(transformedMetadata, config);
-    validateNoChangeToOriginalRanges(transformedMetadata, simplifiedMetadata);
-    // Do this *after* validation since we could be restricting the validation ranges.
-    simplifiedMetadata = simplifiedMetadata.trimValidRanges(config.includeEmptyCallingCodes());
-
-    MetadataProto outputProto = MetadataProtoBuilder.toMetadataProto(simplifiedMetadata, config);
+    MetadataProto outputProto;
+    if (flags.cacheDir.isEmpty()) {
+      Metadata simplifiedMetadata = MetadataSimplifier.simplify(transformedMetadata, config, pool);
+      validateNoChangeToOriginalRanges(transformedMetadata, simplifiedMetadata);
+      // Do this *after* validation since we could be restricting the validation ranges.
+      simplifiedMetadata = simplifiedMetadata.trimValidRanges(config.includeEmptyCallingCodes());
+      outputProto = MetadataProtoBuilder.toMetadataProto(simplifiedMetadata, config, sample, pool);
+    } else {
+      CallingCodeCache cache = new CallingCodeCache(Paths.get(flags.cacheDir));
+      outputProto = buildMetadataProtoWithCache(transformedMetadata, config, cache, pool);
+    }
     Path outPath = Paths.get(flags.outPath);
     if (flags.outPath.isEmpty()) {
-      outPath = getDerivedOutputPath(configPath, outType.getExtension());
+      outPath = getDerivedOutputPath(configPath, outType);
     }
     logger.atInfo().log("Writing: %s", outPath);
     try (OutputStream os = Files.newOutputStream(outPath)) {
-      outType.write(outputProto, os);
+      outType.write(outputProto, outPath, flags, os);
+    }
+  }
+
+  /**
+   * Builds the metadata proto, reusing cached data for calling codes whose input data and
+   * configuration are unchanged. Only the remaining calling codes are simplified and compiled, and
+   * the output is identical to that built without a cache.
+   */
+  @VisibleForTesting
+  static MetadataProto buildMetadataProtoWithCache(
+      Metadata transformedMetadata,
+      MetadataConfig config,
+      CallingCodeCache cache,
+      ForkJoinPool pool)
+      throws IOException {
+    // Calling codes without configuration are never included in the output.
+    Map<DigitSequence, String> keys = new LinkedHashMap<>();
+    Map<DigitSequence, CachedCallingCodeProto> callingCodeData = new HashMap<>();
+    Metadata.Builder uncachedMetadata = Metadata.builder(transformedMetadata.root());
+    for (DigitSequence cc : transformedMetadata.getAvailableCallingCodes()) {
+      Optional<CallingCodeConfig> callingCodeConfig = config.getCallingCodeConfig(cc);
+      if (callingCodeConfig.isEmpty()) {
+        continue;
+      }
+      String key = CallingCodeCache.keyOf(transformedMetadata, cc, callingCodeConfig.get(), config);
+      keys.put(cc, key);
+      Optional<CachedCallingCodeProto> cached = cache.get(key);
+      if (cached.isPresent()) {
+        callingCodeData.put(cc, cached.get());
+      } else {
+        uncachedMetadata.put(cc, transformedMetadata.getRangeMap(cc));
+      }
+    }
+    logger.atInfo().log(
+        "Using cached data for %d of %d calling codes", callingCodeData.size(), keys.size());
+
+    if (callingCodeData.size() < keys.size()) {
+      Metadata originalMetadata = uncachedMetadata.build();
+      Metadata simplifiedMetadata = MetadataSimplifier.simplify(originalMetadata, config, pool);
+      validateNoChangeToOriginalRanges(originalMetadata, simplifiedMetadata);
+      // Do this *after* validation since we could be restricting the validation ranges.
+      Metadata.Builder trimmedMetadata = Metadata.builder(transformedMetadata.root());
+      boolean hasTrimmedCallingCodes = false;
+      for (DigitSequence cc : simplifiedMetadata.getAvailableCallingCodes()) {
+        Optional<RangeMap> trimmed =
+            simplifiedMetadata.trimValidRanges(cc, config.includeEmptyCallingCodes());
+        if (trimmed.isPresent()) {
+          trimmedMetadata.put(cc, trimmed.get());
+          hasTrimmedCallingCodes = true;
+        } else {
+          CachedCallingCodeProto omitted =
+              CachedCallingCodeProto.newBuilder().setKey(keys.get(cc)).setOmitted(true).build();
+          callingCodeData.put(cc, omitted);
+        }
+      }
+      if (hasTrimmedCallingCodes) {
+        MetadataProtoBuilder.buildCallingCodeData(trimmedMetadata.build(), config, pool)
+            .forEach(
+                (cc, data) ->
+                    callingCodeData.put(cc, data.toBuilder().setKey(keys.get(cc)).build()));
+      }
+      for (DigitSequence cc : simplifiedMetadata.getAvailableCallingCodes()) {
+        cache.put(callingCodeData.get(cc));
+      }
     }
+    return MetadataProtoBuilder.mergeCallingCodeData(
+        transformedMetadata,
+        keys.keySet().stream().map(callingCodeData::get).collect(toImmutableList()),
+        config);
   }
 
-  private static Path getDerivedOutputPath(Path configPath, String extension) {
+  private static Path getDerivedOutputPath(Path configPath, OutType outType) {
     return configPath.resolveSibling(
-        configPath.getFileName().toString().replaceAll("\\.[^.]+$", extension));
+        outType.getFileName(configPath.getFileName().toString().replaceAll("\\.[^.]+$", "")));
   }
 
   private static void validateNoChangeToOriginalRanges(
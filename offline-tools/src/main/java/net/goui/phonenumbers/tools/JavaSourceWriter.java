@@ -0,0 +1,449 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.OpCode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import javax.lang.model.SourceVersion;
+import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherDataProto;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+
+/**
+ * Writes metadata as the Java source of a {@code RawClassifier} (a subclass of {@code
+ * CompiledRawClassifier} in the metadata loader), in which DFA matcher data is compiled to Java
+ * code instead of being interpreted at runtime.
+ *
+ * <p>Each instruction of the matcher data (see {@link OpCode}) becomes a few lines of Java, with
+ * multi-way jumps becoming {@code switch} statements over the next digit. Jump targets reached from
+ * a single place are nested inside the jumping code, while shared targets (and large nested blocks)
+ * become separate methods, so the generated code is proportional in size to the matcher data.
+ * Generated methods are kept small so they can be compiled (and inlined) by the JIT.
+ *
+ * <p>The remaining metadata (with compiled matcher data removed) is embedded in the generated
+ * class as a Base64 encoded string.
+ */
+final class JavaSourceWriter {
+  // Instruction op-codes (the top 3 bits of the first byte of each instruction).
+  private static final int BRANCH = 0;
+  private static final int SINGLE = 1;
+  private static final int ANY = 2;
+  private static final int RANGE = 3;
+  private static final int MAP = 4;
+  private static final int TMAP = 5;
+
+  // Position used for terminating jumps (i.e. a zero jump offset).
+  private static final int TERMINAL = -1;
+  // Maximum matcher data bytes to nest in the jumping code before using a separate method.
+  private static final int MAX_NESTED_BYTES = 64;
+  // Maximum length of each Base64 string literal (the class file limit is 65535 bytes).
+  private static final int MAX_LITERAL_LENGTH = 16000;
+
+  private static final String TERMINAL_RESULT = "return in.hasNext() ? EXCESS_DIGITS : MATCHED;";
+
+  /** Returns a Java class name derived from an output file name (e.g. "foo_bar" -> "FooBar"). */
+  static String toClassName(String baseName) {
+    return CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, baseName.replace('-', '_'));
+  }
+
+  /** Returns the Java source of a raw classifier for the given metadata. */
+  static String toJavaSource(MetadataProto proto, String javaPackage, String className) {
+    checkArgument(
+        !javaPackage.isEmpty() && SourceVersion.isName(javaPackage),
+        "invalid Java package name: '%s'",
+        javaPackage);
+    checkArgument(SourceVersion.isIdentifier(className), "invalid class name: '%s'", className);
+
+    MetadataProto.Builder embedded = proto.toBuilder();
+    // Compiled matcher indices and generated methods for each calling code.
+    Map<Integer, List<Integer>> compiledIndices = new LinkedHashMap<>();
+    Map<Integer, String> compiledMethods = new LinkedHashMap<>();
+    for (CallingCodeProto.Builder cc : embedded.getCallingCodeDataBuilderList()) {
+      List<Integer> indices = new ArrayList<>();
+      StringBuilder methods = new StringBuilder();
+      for (int i = 0; i < cc.getMatcherDataCount(); i++) {
+        MatcherDataProto.Builder matcher = cc.getMatcherDataBuilder(i);
+        if (!matcher.getMatcherData().isEmpty()) {
+          new DfaSource(matcher.getMatcherData().toByteArray(), "m" + i + "_").write(methods);
+          indices.add(i);
+          // Only the possible lengths are needed once the matcher is compiled.
+          matcher.clearMatcherData().clearRegexData().clearIntervalTable();
+        }
+      }
+      if (!indices.isEmpty()) {
+        compiledIndices.put(cc.getCallingCode(), indices);
+        compiledMethods.put(cc.getCallingCode(), methods.toString());
+      }
+    }
+
+    StringBuilder out = new StringBuilder();
+    out.append("// Generated by GenerateMetadata (JAVA_SOURCE). DO NOT EDIT.\n")
+        .append("package ").append(javaPackage).append(";\n\n")
+        .append("import static net.goui.phonenumbers.MatchResult.EXCESS_DIGITS;\n")
+        .append("import static net.goui.phonenumbers.MatchResult.INVALID;\n")
+        .append("import static net.goui.phonenumbers.MatchResult.MATCHED;\n")
+        .append("import static net.goui.phonenumbers.MatchResult.PARTIAL_MATCH;\n\n")
+        .append("import net.goui.phonenumbers.DigitSequence.Digits;\n")
+        .append("import net.goui.phonenumbers.MatchResult;\n")
+        .append("import net.goui.phonenumbers.service.proto.CompiledMatcher;\n")
+        .append("import net.goui.phonenumbers.service.proto.CompiledRawClassifier;\n\n");
+    MetadataProto.VersionInfo version = proto.getVersion();
+    out.append(
+        String.format(
+            "/** Raw classifier for schema \"%s\" (version %d) with compiled matchers. */\n",
+            version.getDataSchemaUri(), version.getDataSchemaVersion()));
+    out.append("public final class ")
+        .append(className)
+        .append(" extends CompiledRawClassifier {\n");
+    out.append("  private static final String[] METADATA = {\n");
+    String encoded = Base64.getEncoder().encodeToString(embedded.build().toByteArray());
+    for (int start = 0; start < encoded.length(); start += MAX_LITERAL_LENGTH) {
+      int end = Math.min(start + MAX_LITERAL_LENGTH, encoded.length());
+      out.append("    \"").append(encoded, start, end).append("\",\n");
+    }
+    out.append("  };\n\n");
+    out.append("  public ").append(className).append("() {\n")
+        .append("    super(METADATA, ").append(className).append("::getMatcher);\n")
+        .append("  }\n\n");
+    out.append("  private static CompiledMatcher getMatcher(int callingCode) {\n")
+        .append("    switch (callingCode) {\n");
+    for (int cc : compiledIndices.keySet()) {
+      out.append("      case ").append(cc).append(":\n")
+          .append("        return Cc").append(cc).append("::match;\n");
+    }
+    out.append("      default:\n")
+        .append("        return null;\n")
+        .append("    }\n")
+        .append("  }\n");
+    for (Map.Entry<Integer, List<Integer>> e : compiledIndices.entrySet()) {
+      out.append("\n  private static final class Cc").append(e.getKey()).append(" {\n")
+          .append("    static MatchResult match(int index, Digits in) {\n")
+          .append("      switch (index) {\n");
+      for (int i : e.getValue()) {
+        out.append("        case ").append(i).append(":\n")
+            .append("          return m").append(i).append("_0(in);\n");
+      }
+      out.append("        default:\n")
+          .append("          return INVALID;\n")
+          .append("      }\n")
+          .append("    }\n")
+          .append(compiledMethods.get(e.getKey()))
+          .append("  }\n");
+    }
+    out.append("}\n");
+    return out.toString();
+  }
+
+  /** Generates the methods for a single DFA, as a sequence of static methods. */
+  private static final class DfaSource {
+    private final byte[] bytes;
+    private final String prefix;
+    // Number of places from which each instruction is reached (by jumping or continuing).
+    private final int[] references;
+    // Positions of instructions which start a method (the first instruction is always one).
+    private final TreeSet<Integer> methods = new TreeSet<>();
+
+    DfaSource(byte[] bytes, String prefix) {
+      this.bytes = bytes;
+      this.prefix = prefix;
+      this.references = new int[bytes.length];
+      // Find all reachable instructions and count the references to them.
+      List<Integer> reachable = new ArrayList<>();
+      boolean[] visited = new boolean[bytes.length];
+      Deque<Integer> pending = new ArrayDeque<>();
+      pending.add(0);
+      while (!pending.isEmpty()) {
+        int pos = pending.pop();
+        if (visited[pos]) {
+          continue;
+        }
+        visited[pos] = true;
+        reachable.add(pos);
+        for (int target : successors(pos)) {
+          references[target]++;
+          pending.push(target);
+        }
+      }
+      // Since all jumps are forward, nested sizes can be determined in reverse order.
+      reachable.sort(null);
+      int[] nestedSize = new int[bytes.length];
+      methods.add(0);
+      for (int n = reachable.size() - 1; n >= 0; n--) {
+        int pos = reachable.get(n);
+        int size = length(pos);
+        for (int target : successors(pos)) {
+          if (references[target] > 1 || (isJump(pos) && nestedSize[target] > MAX_NESTED_BYTES)) {
+            methods.add(target);
+          } else {
+            size += nestedSize[target];
+          }
+        }
+        nestedSize[pos] = size;
+      }
+    }
+
+    void write(StringBuilder out) {
+      for (int pos : methods) {
+        out.append("\n    private static MatchResult ")
+            .append(methodName(pos))
+            .append("(Digits in) {\n");
+        writeCode(pos, "      ", out);
+        out.append("    }\n");
+      }
+    }
+
+    private String methodName(int pos) {
+      return prefix + pos;
+    }
+
+    // Writes code from the given position until the end of the method (code always returns).
+    private void writeCode(int pos, String indent, StringBuilder out) {
+      while (true) {
+        int op = opCode(pos);
+        String noInput = "return " + (isTerminating(pos) ? "MATCHED" : "PARTIAL_MATCH") + ";";
+        switch (op) {
+          case BRANCH:
+            writeJump(jumpTargets(pos)[0], indent, out);
+            return;
+
+          case SINGLE:
+            line(out, indent, "if (!in.hasNext()) {");
+            line(out, indent, "  " + noInput);
+            line(out, indent, "}");
+            line(out, indent, "if (in.next() != " + (unsigned(pos) & 0xF) + ") {");
+            line(out, indent, "  return INVALID;");
+            line(out, indent, "}");
+            break;
+
+          case ANY:
+            int count = (unsigned(pos) & 0xF) + 1;
+            String innerIndent = indent;
+            if (count > 1) {
+              line(out, indent, "for (int n = 0; n < " + count + "; n++) {");
+              innerIndent = indent + "  ";
+            }
+            line(out, innerIndent, "if (!in.hasNext()) {");
+            line(out, innerIndent, "  " + noInput);
+            line(out, innerIndent, "}");
+            line(out, innerIndent, "in.next();");
+            if (count > 1) {
+              line(out, indent, "}");
+            }
+            break;
+
+          case RANGE:
+            int mask = ((unsigned(pos) << 8) | unsigned(pos + 1)) & 0x3FF;
+            line(out, indent, "if (!in.hasNext()) {");
+            line(out, indent, "  " + noInput);
+            line(out, indent, "}");
+            if (!isJump(pos)) {
+              line(out, indent, String.format("if ((0x%03X & (1 << in.next())) == 0) {", mask));
+              line(out, indent, "  return INVALID;");
+              line(out, indent, "}");
+              break;
+            }
+            // Set bits use the first jump table entry, and all other digits the second.
+            int[] rangeTargets = jumpTargets(pos);
+            line(out, indent, "switch (in.next()) {");
+            writeCase(out, indent, mask, rangeTargets[0]);
+            line(out, indent, "  default:");
+            writeJump(rangeTargets[1], indent + "    ", out);
+            line(out, indent, "}");
+            return;
+
+          case MAP:
+          case TMAP:
+            line(out, indent, "if (!in.hasNext()) {");
+            line(out, indent, "  return " + (op == TMAP ? "MATCHED" : "PARTIAL_MATCH") + ";");
+            line(out, indent, "}");
+            // Group digits by target, since jump table entries need not be distinct.
+            int[] mapTargets = jumpTargets(pos);
+            Map<Integer, Integer> digitMasks = new LinkedHashMap<>();
+            for (int i = 0; i < mapTargets.length; i++) {
+              digitMasks.merge(mapTargets[i], digitMask(pos, i + 1), (a, b) -> a | b);
+            }
+            line(out, indent, "switch (in.next()) {");
+            digitMasks.forEach((target, digits) -> writeCase(out, indent, digits, target));
+            line(out, indent, "  default:");
+            line(out, indent, "    return INVALID;");
+            line(out, indent, "}");
+            return;
+
+          default:
+            throw new IllegalStateException("invalid matcher data at index: " + pos);
+        }
+        pos += length(pos);
+        if (methods.contains(pos)) {
+          line(out, indent, "return " + methodName(pos) + "(in);");
+          return;
+        }
+      }
+    }
+
+    private void writeCase(StringBuilder out, String indent, int digitMask, int target) {
+      for (int d = 0; d <= 9; d++) {
+        if ((digitMask & (1 << d)) != 0) {
+          line(out, indent, "  case " + d + ":");
+        }
+      }
+      writeJump(target, indent + "    ", out);
+    }
+
+    private void writeJump(int target, String indent, StringBuilder out) {
+      if (target == TERMINAL) {
+        line(out, indent, TERMINAL_RESULT);
+      } else if (methods.contains(target)) {
+        line(out, indent, "return " + methodName(target) + "(in);");
+      } else {
+        if (indent.length() > 2 * 40) {
+          // Nesting is bounded by the maximum number of digits, so this should never happen.
+          throw new IllegalStateException("matcher data nested too deeply");
+        }
+        line(out, indent, "{");
+        writeCode(target, indent + "  ", out);
+        line(out, indent, "}");
+      }
+    }
+
+    private static void line(StringBuilder out, String indent, String code) {
+      out.append(indent).append(code).append('\n');
+    }
+
+    // ---- Decoding of matcher data (see OpCode and DigitSequenceMatcher). ----
+
+    private int unsigned(int pos) {
+      return bytes[pos] & 0xFF;
+    }
+
+    private int opCode(int pos) {
+      return unsigned(pos) >>> 5;
+    }
+
+    // For SINGLE, ANY and RANGE, whether the instruction can terminate if there's no more input.
+    private boolean isTerminating(int pos) {
+      return (unsigned(pos) & (1 << 4)) != 0;
+    }
+
+    // True for instructions which jump (and so never continue to the next instruction).
+    private boolean isJump(int pos) {
+      int op = opCode(pos);
+      return op == BRANCH
+          || op == MAP
+          || op == TMAP
+          || (op == RANGE && (unsigned(pos) & (1 << 3)) != 0);
+    }
+
+    // The bit-mask of digits mapped to the given (1-based) jump table index in a MAP instruction.
+    private int digitMask(int pos, int index) {
+      int op = readInt(pos);
+      int mask = 0;
+      for (int d = 0; d <= 9; d++) {
+        if (((op >>> OpCode.getMapShift(d)) & OpCode.getMapMask(d)) == index) {
+          mask |= 1 << d;
+        }
+      }
+      return mask;
+    }
+
+    private int readInt(int pos) {
+      return (unsigned(pos) << 24)
+          | (unsigned(pos + 1) << 16)
+          | (unsigned(pos + 2) << 8)
+          | unsigned(pos + 3);
+    }
+
+    // Length of the instruction itself (excluding any jump table).
+    private int opLength(int pos) {
+      switch (opCode(pos)) {
+        case BRANCH:
+          // Bit 4 of a branch indicates a 12-bit (2 byte) offset.
+          return (unsigned(pos) & (1 << 4)) != 0 ? 2 : 1;
+        case SINGLE:
+        case ANY:
+          return 1;
+        case RANGE:
+          return 2;
+        case MAP:
+        case TMAP:
+          return 4;
+        default:
+          throw new IllegalStateException("invalid matcher data at index: " + pos);
+      }
+    }
+
+    private int tableSize(int pos) {
+      int op = opCode(pos);
+      if (op == RANGE) {
+        return isJump(pos) ? 2 : 0;
+      }
+      if (op == MAP || op == TMAP) {
+        int max = 0;
+        for (int d = 0; d <= 9; d++) {
+          max = Math.max(max, (readInt(pos) >>> OpCode.getMapShift(d)) & OpCode.getMapMask(d));
+        }
+        return max;
+      }
+      return 0;
+    }
+
+    private int length(int pos) {
+      return opLength(pos) + tableSize(pos);
+    }
+
+    // Jump targets (in jump table order) for instructions which jump, or TERMINAL.
+    private int[] jumpTargets(int pos) {
+      int tableStart = pos + opLength(pos);
+      if (opCode(pos) == BRANCH) {
+        int offset = unsigned(pos) & 0xF;
+        if (opLength(pos) == 2) {
+          offset = (offset << 8) + unsigned(pos + 1);
+        }
+        return new int[] {offset != 0 ? tableStart + offset : TERMINAL};
+      }
+      int[] targets = new int[tableSize(pos)];
+      for (int i = 0; i < targets.length; i++) {
+        int offset = unsigned(tableStart + i);
+        targets[i] = offset != 0 ? tableStart + offset : TERMINAL;
+      }
+      return targets;
+    }
+
+    // Distinct, non-terminal positions reached from an instruction.
+    private ImmutableList<Integer> successors(int pos) {
+      if (!isJump(pos)) {
+        int next = pos + length(pos);
+        checkState(next < bytes.length, "invalid matcher data (no terminal instruction)");
+        return ImmutableList.of(next);
+      }
+      TreeSet<Integer> targets = new TreeSet<>();
+      for (int target : jumpTargets(pos)) {
+        if (target != TERMINAL) {
+          targets.add(target);
+        }
+      }
+      return ImmutableList.copyOf(targets);
+    }
+  }
+
+  private JavaSourceWriter() {}
+}
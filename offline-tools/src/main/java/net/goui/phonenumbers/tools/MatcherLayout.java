@@ -0,0 +1,487 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.OpCode;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Reorders the instructions of compiled DFA matcher data using a sample of real traffic, so that
+ * frequently executed paths are contiguous, and frequently taken jump targets come first.
+ *
+ * <p>Matcher data is decoded into "blocks" of instructions (where each block is entered only at
+ * its first instruction), which are then laid out again in a different order. Since all jumps in
+ * matcher data are forward jumps with limited range, blocks can only be placed after all the
+ * blocks which jump to them, and if the new layout would exceed the range of any jump, the
+ * original data is returned unchanged. Otherwise the instructions and the transitions between
+ * blocks are unchanged, so the matcher is semantically identical to the original.
+ *
+ * <p>See {@link OpCode} for a description of the instructions in the matcher data.
+ */
+final class MatcherLayout {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  // Instruction op-codes (the top 3 bits of the first byte of each instruction).
+  private static final int BRANCH = 0;
+  private static final int SINGLE = 1;
+  private static final int ANY = 2;
+  private static final int RANGE = 3;
+  private static final int MAP = 4;
+  private static final int TMAP = 5;
+
+  // Block target index used for terminating transitions (i.e. a zero jump offset).
+  private static final int TERMINAL = -1;
+  private static final int MAX_BRANCH_OFFSET = 0xFFF;
+  private static final int MAX_JUMP_TABLE_OFFSET = 0xFF;
+
+  /**
+   * Returns matcher data which is semantically identical to the given data, but with instructions
+   * laid out according to how often they are executed when matching the given sample of numbers.
+   */
+  static byte[] optimize(byte[] bytes, List<DigitSequence> sample) {
+    if (sample.isEmpty()) {
+      return bytes;
+    }
+    MatcherLayout layout = new MatcherLayout(bytes);
+    for (DigitSequence number : sample) {
+      layout.profile(number);
+    }
+    byte[] optimized = layout.emit(layout.hotOrder());
+    if (optimized == null) {
+      logger.atFine().log("cannot reorder matcher data (jump offsets would be out of range)");
+      return bytes;
+    }
+    // Matching the sample must execute the same instructions (apart from branches) in both.
+    long originalDistance = 0;
+    long optimizedDistance = 0;
+    for (DigitSequence number : sample) {
+      StringBuilder originalTrace = new StringBuilder();
+      StringBuilder optimizedTrace = new StringBuilder();
+      originalDistance += run(bytes, number, p -> trace(bytes, p, originalTrace));
+      optimizedDistance += run(optimized, number, p -> trace(optimized, p, optimizedTrace));
+      checkState(
+          originalTrace.toString().contentEquals(optimizedTrace),
+          "reordered matcher data is not equivalent for: %s",
+          number);
+    }
+    logger.atFine().log(
+        "reordered matcher data (%d -> %d bytes), total jump distance for sample: %d -> %d",
+        bytes.length, optimized.length, originalDistance, optimizedDistance);
+    return optimized;
+  }
+
+  // Branches are added or removed when blocks are reordered, so are not traced.
+  private static void trace(byte[] bytes, int pos, StringBuilder out) {
+    if ((bytes[pos] & 0xFF) >>> 5 != BRANCH) {
+      out.append(bytes[pos]).append(',');
+    }
+  }
+
+  /** A sequence of instructions which can only be entered at its first instruction. */
+  private static final class Block {
+    // Position of the block in the original data.
+    final int start;
+    // Instructions which never jump (and always continue to the next instruction).
+    final byte[] body;
+    // The instruction and target blocks of the jump table which ends the block (if present).
+    final byte[] tableOp;
+    final int[] targets;
+    // For blocks without a jump table, the block to continue with (or TERMINAL).
+    final int next;
+    // Number of times the block was entered when matching the sample.
+    long count = 0;
+
+    Block(int start, byte[] body, byte[] tableOp, int[] targets, int next) {
+      this.start = start;
+      this.body = body;
+      this.tableOp = tableOp;
+      this.targets = targets;
+      this.next = next;
+    }
+
+    boolean hasJumpTable() {
+      return tableOp != null;
+    }
+  }
+
+  private final byte[] bytes;
+  private final List<Block> blocks = new ArrayList<>();
+  // Maps the original start position of each block to its index.
+  private final Map<Integer, Integer> blockIndex = new TreeMap<>();
+
+  private MatcherLayout(byte[] bytes) {
+    this.bytes = bytes;
+    // Find the start of every block (the initial instruction and all jump targets).
+    TreeSet<Integer> leaders = new TreeSet<>();
+    leaders.add(0);
+    Deque<Integer> pending = new ArrayDeque<>();
+    pending.add(0);
+    boolean[] visited = new boolean[bytes.length];
+    while (!pending.isEmpty()) {
+      int pos = pending.pop();
+      if (visited[pos]) {
+        continue;
+      }
+      visited[pos] = true;
+      for (int target : jumpTargets(pos)) {
+        if (target != TERMINAL) {
+          leaders.add(target);
+          pending.push(target);
+        }
+      }
+      if (!endsBlock(pos)) {
+        pending.push(pos + length(pos));
+      }
+    }
+    leaders.forEach(p -> blockIndex.put(p, blockIndex.size()));
+    // Decode each block, ending it at a jump, or before the start of another block.
+    for (int start : leaders) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      int pos = start;
+      while (!endsBlock(pos)) {
+        body.write(bytes, pos, length(pos));
+        pos += length(pos);
+        if (leaders.contains(pos)) {
+          break;
+        }
+      }
+      byte[] tableOp = null;
+      int[] targets = null;
+      int next;
+      if (leaders.contains(pos) && pos != start) {
+        next = blockIndex.get(pos);
+      } else if (opCode(pos) == BRANCH) {
+        next = toBlock(jumpTargets(pos)[0]);
+      } else {
+        tableOp = Arrays.copyOfRange(bytes, pos, pos + opLength(pos));
+        targets = Arrays.stream(jumpTargets(pos)).map(this::toBlock).toArray();
+        next = TERMINAL;
+      }
+      blocks.add(new Block(start, body.toByteArray(), tableOp, targets, next));
+    }
+  }
+
+  private int toBlock(int target) {
+    return target != TERMINAL ? blockIndex.get(target) : TERMINAL;
+  }
+
+  private int unsigned(int pos) {
+    return bytes[pos] & 0xFF;
+  }
+
+  private int opCode(int pos) {
+    return unsigned(pos) >>> 5;
+  }
+
+  // True for instructions which jump (and so never continue to the next instruction).
+  private boolean endsBlock(int pos) {
+    int op = opCode(pos);
+    return op == BRANCH || op == MAP || op == TMAP || (op == RANGE && hasRangeJumpTable(pos));
+  }
+
+  private boolean hasRangeJumpTable(int pos) {
+    return (unsigned(pos) & (1 << 3)) != 0;
+  }
+
+  // The length of an instruction, excluding any jump table.
+  private int opLength(int pos) {
+    switch (opCode(pos)) {
+      case BRANCH:
+        return (unsigned(pos) & (1 << 4)) != 0 ? 2 : 1;
+      case SINGLE:
+      case ANY:
+        return 1;
+      case RANGE:
+        return 2;
+      case MAP:
+      case TMAP:
+        return 4;
+      default:
+        throw new IllegalStateException("invalid instruction at: " + pos);
+    }
+  }
+
+  // The length of an instruction, including any jump table.
+  private int length(int pos) {
+    return opLength(pos) + jumpTableSize(pos);
+  }
+
+  private int jumpTableSize(int pos) {
+    switch (opCode(pos)) {
+      case RANGE:
+        return hasRangeJumpTable(pos) ? 2 : 0;
+      case MAP:
+      case TMAP:
+        int map = readInt(bytes, pos);
+        int size = 0;
+        for (int n = 0; n <= 9; n++) {
+          size = Math.max(size, (map >>> OpCode.getMapShift(n)) & OpCode.getMapMask(n));
+        }
+        return size;
+      default:
+        return 0;
+    }
+  }
+
+  // The original positions jumped to by an instruction (or TERMINAL for zero offsets).
+  private int[] jumpTargets(int pos) {
+    int start = pos + opLength(pos);
+    if (opCode(pos) == BRANCH) {
+      int offset = unsigned(pos) & 0xF;
+      if (opLength(pos) == 2) {
+        offset = (offset << 8) + unsigned(pos + 1);
+      }
+      return new int[] {offset != 0 ? start + offset : TERMINAL};
+    }
+    int[] targets = new int[jumpTableSize(pos)];
+    for (int i = 0; i < targets.length; i++) {
+      int offset = unsigned(start + i);
+      targets[i] = offset != 0 ? start + offset : TERMINAL;
+    }
+    return targets;
+  }
+
+  private void profile(DigitSequence number) {
+    run(
+        bytes,
+        number,
+        pos -> {
+          Integer index = blockIndex.get(pos);
+          if (index != null) {
+            blocks.get(index).count++;
+          }
+        });
+  }
+
+  /**
+   * Returns an ordering of blocks in which every block comes after all the blocks which jump to
+   * it. Where there is a choice, the block which continues the current block without a jump is
+   * preferred, then the most frequently executed block (and then the original order).
+   */
+  private List<Integer> hotOrder() {
+    int[] unplacedPredecessors = new int[blocks.size()];
+    for (Block block : blocks) {
+      for (int target : successors(block)) {
+        unplacedPredecessors[target]++;
+      }
+    }
+    TreeSet<Integer> ready = new TreeSet<>((a, b) -> compareHotness(blocks.get(a), blocks.get(b)));
+    List<Integer> order = new ArrayList<>();
+    int current = 0;
+    while (true) {
+      order.add(current);
+      Block block = blocks.get(current);
+      for (int target : successors(block)) {
+        if (--unplacedPredecessors[target] == 0) {
+          ready.add(target);
+        }
+      }
+      if (order.size() == blocks.size()) {
+        break;
+      }
+      checkState(!ready.isEmpty(), "matcher data contains a backward jump");
+      if (block.next != TERMINAL && ready.contains(block.next)) {
+        current = block.next;
+      } else {
+        current = ready.first();
+      }
+      ready.remove(current);
+    }
+    return order;
+  }
+
+  // Each distinct successor block appears once, to match the number of predecessors counted.
+  private static int[] successors(Block block) {
+    int[] targets = block.hasJumpTable() ? block.targets : new int[] {block.next};
+    return Arrays.stream(targets).filter(t -> t != TERMINAL).distinct().toArray();
+  }
+
+  private static int compareHotness(Block a, Block b) {
+    int signum = Long.compare(b.count, a.count);
+    return signum != 0 ? signum : Integer.compare(a.start, b.start);
+  }
+
+  /** Emits blocks in the given order, or returns null if any jump offset is out of range. */
+  private byte[] emit(List<Integer> order) {
+    int[] positionInOrder = new int[blocks.size()];
+    for (int i = 0; i < order.size(); i++) {
+      positionInOrder[order.get(i)] = i;
+    }
+    // Length of any branch needed to reach the next block (zero if it is emitted next). Branches
+    // start short and are lengthened until all offsets fit, which always terminates since
+    // lengths only ever increase.
+    int[] branchLength = new int[blocks.size()];
+    for (int i = 0; i < order.size(); i++) {
+      Block block = blocks.get(order.get(i));
+      if (!block.hasJumpTable()) {
+        boolean isNextEmitted = i + 1 < order.size() && order.get(i + 1) == block.next;
+        branchLength[order.get(i)] = isNextEmitted ? 0 : 1;
+      }
+    }
+    int[] position = new int[blocks.size()];
+    boolean changed = true;
+    while (changed) {
+      int pos = 0;
+      for (int index : order) {
+        position[index] = pos;
+        pos += blockLength(index, branchLength);
+      }
+      changed = false;
+      for (int index : order) {
+        Block block = blocks.get(index);
+        if (branchLength[index] == 1 && block.next != TERMINAL) {
+          int branchEnd = position[index] + block.body.length + 1;
+          if (position[block.next] - branchEnd > 0xF) {
+            branchLength[index] = 2;
+            changed = true;
+          }
+        }
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int index : order) {
+      Block block = blocks.get(index);
+      out.write(block.body, 0, block.body.length);
+      int start = position[index] + block.body.length;
+      if (block.hasJumpTable()) {
+        out.write(block.tableOp, 0, block.tableOp.length);
+        int tableStart = start + block.tableOp.length;
+        for (int target : block.targets) {
+          int offset = target != TERMINAL ? position[target] - tableStart : 0;
+          if (target != TERMINAL && (offset <= 0 || offset > MAX_JUMP_TABLE_OFFSET)) {
+            return null;
+          }
+          out.write(offset);
+        }
+      } else if (block.next == TERMINAL) {
+        // A single zero byte is a terminating branch.
+        out.write(0);
+      } else if (branchLength[index] > 0) {
+        int offset = position[block.next] - (start + branchLength[index]);
+        if (offset <= 0 || offset > MAX_BRANCH_OFFSET) {
+          return null;
+        }
+        if (branchLength[index] == 1) {
+          out.write(offset);
+        } else {
+          out.write((1 << 4) | (offset >>> 8));
+          out.write(offset & 0xFF);
+        }
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private int blockLength(int index, int[] branchLength) {
+    Block block = blocks.get(index);
+    if (block.hasJumpTable()) {
+      return block.body.length + block.tableOp.length + block.targets.length;
+    }
+    return block.body.length + (block.next == TERMINAL ? 1 : branchLength[index]);
+  }
+
+  private static int readInt(byte[] bytes, int pos) {
+    return ((bytes[pos] & 0xFF) << 24)
+        | ((bytes[pos + 1] & 0xFF) << 16)
+        | ((bytes[pos + 2] & 0xFF) << 8)
+        | (bytes[pos + 3] & 0xFF);
+  }
+
+  /**
+   * Runs matcher data against a number (in the same way as {@code DigitSequenceMatcher}), passing
+   * the position of each instruction executed to the given consumer, and returning the total
+   * distance jumped.
+   */
+  private static long run(byte[] bytes, DigitSequence number, IntConsumer instructions) {
+    int pos = 0;
+    int digit = 0;
+    long distance = 0;
+    while (true) {
+      instructions.accept(pos);
+      int op = bytes[pos] & 0xFF;
+      int offset;
+      switch (op >>> 5) {
+        case BRANCH:
+          int length = (op & (1 << 4)) != 0 ? 2 : 1;
+          offset = op & 0xF;
+          if (length == 2) {
+            offset = (offset << 8) + (bytes[pos + 1] & 0xFF);
+          }
+          pos += length;
+          break;
+        case SINGLE:
+          if (digit == number.length() || (op & 0xF) != number.getDigit(digit++)) {
+            return distance;
+          }
+          pos += 1;
+          continue;
+        case ANY:
+          for (int n = (op & 0xF) + 1; n > 0; n--) {
+            if (digit == number.length()) {
+              return distance;
+            }
+            digit++;
+          }
+          pos += 1;
+          continue;
+        case RANGE:
+          int range = (op << 8) | (bytes[pos + 1] & 0xFF);
+          if (digit == number.length()) {
+            return distance;
+          }
+          int n = number.getDigit(digit++);
+          pos += 2;
+          if ((range & (1 << 11)) == 0) {
+            if ((range & (1 << n)) == 0) {
+              return distance;
+            }
+            continue;
+          }
+          offset = bytes[pos + ((~range >>> n) & 1)] & 0xFF;
+          break;
+        case MAP:
+        case TMAP:
+          int map = readInt(bytes, pos);
+          if (digit == number.length()) {
+            return distance;
+          }
+          int d = number.getDigit(digit++);
+          int index = (map >>> OpCode.getMapShift(d)) & OpCode.getMapMask(d);
+          if (index == 0) {
+            return distance;
+          }
+          pos += 4;
+          offset = bytes[pos + index - 1] & 0xFF;
+          break;
+        default:
+          throw new IllegalStateException("invalid instruction at: " + pos);
+      }
+      if (offset == 0) {
+        return distance;
+      }
+      pos += offset;
+      distance += offset;
+    }
+  }
+}
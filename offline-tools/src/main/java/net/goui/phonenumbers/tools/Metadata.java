@@ -35,6 +35,7 @@ import com.google.i18n.phonenumbers.metadata.table.ColumnGroup;
 import com.google.i18n.phonenumbers.metadata.table.CsvTable;
 import com.google.i18n.phonenumbers.metadata.table.RangeTable;
 import java.io.IOException;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 
 /**
@@ -270,11 +271,25 @@ abstract class Metadata {
     }
     Metadata.Builder trimmedMetadata = Metadata.builder(root());
     for (DigitSequence cc : getAvailableCallingCodes()) {
-      RangeMap rangeMap = getRangeMap(cc).trimValidRanges();
-      if (!rangeMap.getAllRanges().isEmpty() || includeEmptyCallingCodes) {
-        trimmedMetadata.put(cc, rangeMap);
-      }
+      trimValidRanges(cc, includeEmptyCallingCodes).ifPresent(r -> trimmedMetadata.put(cc, r));
     }
     return trimmedMetadata.build();
   }
+
+  /**
+   * Trims the range map of a single calling code according to an internally held (special)
+   * "validation" type (see {@link #trimValidRanges(boolean)}). This returns empty if the trimmed
+   * calling code has no valid ranges and should be omitted from the metadata.
+   */
+  public final Optional<RangeMap> trimValidRanges(
+      DigitSequence cc, boolean includeEmptyCallingCodes) {
+    RangeMap rangeMap = getRangeMap(cc);
+    if (!getTypes().contains(VALIDITY)) {
+      return Optional.of(rangeMap);
+    }
+    rangeMap = rangeMap.trimValidRanges();
+    return !rangeMap.getAllRanges().isEmpty() || includeEmptyCallingCodes
+        ? Optional.of(rangeMap)
+        : Optional.empty();
+  }
 }
@@ -106,6 +106,13 @@ abstract class MetadataConfig {
             ? Optional.of(OutType.valueOf(configOutputType.name()))
             : Optional.empty();
 
+    ImmutableSet<MatcherType> matcherTypes = ImmutableSet.copyOf(configProto.getMatcherTypeList());
+    checkArgument(
+        !matcherTypes.contains(MatcherType.INTERVAL_TABLE)
+            || matcherTypes.contains(MatcherType.DIGIT_SEQUENCE_MATCHER),
+        "Interval tables can only be used with DFA matcher data: %s",
+        matcherTypes);
+
     return new AutoValue_MetadataConfig(
         defaultOutputType,
         version,
@@ -115,7 +122,8 @@ abstract class MetadataConfig {
         RangeMapTransformer.from(configProto),
         ImmutableMap.copyOf(configMap),
         implicitDefault,
-        ImmutableSet.copyOf(configProto.getMatcherTypeList()));
+        matcherTypes,
+        configProto.getShareMatcherData());
   }
 
   /** Returns a very simplified metadata configuration which can serve as a default. */
@@ -135,7 +143,8 @@ abstract class MetadataConfig {
         RangeMapTransformer.identity(classifierTypes),
         ImmutableMap.of(),
         Optional.of(defaultConfig),
-        ImmutableSet.of(matcherType));
+        ImmutableSet.of(matcherType),
+        /* shareMatcherData= */ false);
   }
 
   private static ImmutableSet<DigitSequence> loadCallingCodes(
@@ -173,6 +182,9 @@ abstract class MetadataConfig {
   /** Returns the set of output types for the matcher data (either regex or DFA matcher data). */
   public abstract ImmutableSet<MatcherType> matcherTypes();
 
+  /** Returns whether matcher data used by several calling codes should be stored only once. */
+  public abstract boolean shareMatcherData();
+
   /**
    * Returns the configuration for a specific calling code (either the default configuration or an
    * override).
@@ -55,6 +55,9 @@ final class MetadataJson {
 
   @VisibleForTesting
   static JsObject toJson(MetadataProto metadata) {
+    checkArgument(
+        metadata.getSharedMatcherDataCount() == 0,
+        "shared matcher data is not supported in JSON metadata");
     List<JsObject.Field> fields = new ArrayList<>();
     fields.add(field("ver", toJson(metadata.getVersion())));
     if (!metadata.getTypeList().isEmpty()) {
@@ -146,6 +149,9 @@ final class MetadataJson {
 
   @VisibleForTesting
   static JsObject toJson(MatcherDataProto proto) {
+    checkArgument(
+        proto.getIntervalTableCount() == 0,
+        "interval tables are not supported in JSON metadata (use DFA matcher data)");
     return obj(
         field("l", num(proto.getPossibleLengthsMask())),
         field("b", str(toBase64(proto.getMatcherData()))));
@@ -18,8 +18,10 @@ import static com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema.MA
 import static com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema.NATIONAL_PREFIX;
 import static java.util.stream.Collectors.joining;
 import static net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto.MatcherType.DIGIT_SEQUENCE_MATCHER;
+import static net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto.MatcherType.INTERVAL_TABLE;
 import static net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto.MatcherType.REGULAR_EXPRESSION;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -27,8 +29,10 @@ import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.flogger.LazyArg;
+import com.google.common.math.LongMath;
 import com.google.common.primitives.Bytes;
 import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import com.google.i18n.phonenumbers.metadata.RangeSpecification;
 import com.google.i18n.phonenumbers.metadata.RangeTree;
 import com.google.i18n.phonenumbers.metadata.finitestatematcher.compiler.MatcherCompiler;
 import com.google.i18n.phonenumbers.metadata.i18n.PhoneRegion;
@@ -36,21 +40,31 @@ import com.google.i18n.phonenumbers.metadata.proto.Types.ValidNumberType;
 import com.google.i18n.phonenumbers.metadata.regex.RegexGenerator;
 import com.google.i18n.phonenumbers.metadata.table.MultiValue;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
 import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
 import net.goui.phonenumbers.proto.Metadata.MatcherDataProto;
 import net.goui.phonenumbers.proto.Metadata.MatcherFunctionProto;
 import net.goui.phonenumbers.proto.Metadata.MetadataProto;
 import net.goui.phonenumbers.proto.Metadata.NationalNumberDataProto;
+import net.goui.phonenumbers.tools.proto.Cache.CachedCallingCodeProto;
 
 final class MetadataProtoBuilder {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -64,6 +78,9 @@ final class MetadataProtoBuilder {
       Comparator.comparing(MatcherFunctionProto::getSerializedSize)
           .thenComparing(MatcherFunctionProto::getValue);
 
+  // Bitmask of a range specification position which accepts any digit.
+  private static final int ALL_DIGITS_MASK = (1 << 10) - 1;
+
   private static final RegexGenerator REGEX_GENERATOR =
       RegexGenerator.basic()
           .withDfaFactorization()
@@ -78,14 +95,73 @@ final class MetadataProtoBuilder {
           ValidNumberType.MOBILE, ValidNumberType.FIXED_LINE_OR_MOBILE, ValidNumberType.FIXED_LINE);
 
   public static MetadataProto toMetadataProto(Metadata metadata, MetadataConfig config) {
-    return new MetadataProtoBuilder(config).buildMetadata(metadata);
+    return toMetadataProto(metadata, config, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Builds the metadata proto, compiling matcher data concurrently in the given pool. The output is
+   * identical to that built sequentially, since only matcher compilation is done concurrently.
+   */
+  public static MetadataProto toMetadataProto(
+      Metadata metadata, MetadataConfig config, ForkJoinPool pool) {
+    return toMetadataProto(metadata, config, TrafficSample.empty(), pool);
+  }
+
+  /**
+   * Builds the metadata proto, compiling matcher data concurrently in the given pool, with the
+   * layout of DFA matcher data optimized for the given traffic sample (see {@link MatcherLayout}).
+   */
+  public static MetadataProto toMetadataProto(
+      Metadata metadata, MetadataConfig config, TrafficSample sample, ForkJoinPool pool) {
+    return mergeCallingCodeData(
+        metadata, buildCallingCodeData(metadata, config, sample, pool).values(), config);
+  }
+
+  /**
+   * Builds the data for each calling code of the given metadata separately, with each calling code
+   * having its own local token table. This data can be cached and later merged with the data of
+   * other calling codes via {@link #mergeCallingCodeData(Metadata, Collection, MetadataConfig)}.
+   */
+  static ImmutableMap<DigitSequence, CachedCallingCodeProto> buildCallingCodeData(
+      Metadata metadata, MetadataConfig config, ForkJoinPool pool) {
+    return buildCallingCodeData(metadata, config, TrafficSample.empty(), pool);
+  }
+
+  private static ImmutableMap<DigitSequence, CachedCallingCodeProto> buildCallingCodeData(
+      Metadata metadata, MetadataConfig config, TrafficSample sample, ForkJoinPool pool) {
+    ImmutableMap<RangeTree, MatcherDataProto> matcherData =
+        new MetadataProtoBuilder(config).compileMatcherData(metadata, sample, pool);
+    ImmutableMap.Builder<DigitSequence, CachedCallingCodeProto> callingCodeData =
+        ImmutableMap.builder();
+    for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
+      callingCodeData.put(
+          cc,
+          new MetadataProtoBuilder(config)
+              .buildCallingCodeData(
+                  metadata, cc, matcherData, sample.getNationalNumbers(cc)));
+    }
+    return callingCodeData.buildOrThrow();
+  }
+
+  /**
+   * Merges separately built calling code data into the final metadata proto. The result is
+   * identical to building the metadata in one pass, provided that the calling code data is given
+   * in the same order as the calling codes of the metadata from which it was built.
+   *
+   * @param typeMetadata metadata from which the classifier types (and their attributes) of the
+   *     output are determined. This need not be the same metadata from which the calling code data
+   *     was built, but it must have the same classifier types.
+   * @param callingCodeData calling code data, in output order (omitted calling codes are ignored).
+   */
+  static MetadataProto mergeCallingCodeData(
+      Metadata typeMetadata,
+      Collection<CachedCallingCodeProto> callingCodeData,
+      MetadataConfig config) {
+    return new MetadataProtoBuilder(config).mergeCallingCodeData(typeMetadata, callingCodeData);
   }
 
   private final MetadataConfig config;
   private final LinkedHashMap<String, Integer> tokens = new LinkedHashMap<>();
-  // Map of builders for each calling code. This permits metadata to be built in multiple passes.
-  private final LinkedHashMap<DigitSequence, CallingCodeProto.Builder> callingCodeDataMap =
-      new LinkedHashMap<>();
 
   private MetadataProtoBuilder(MetadataConfig config) {
     this.config = config;
@@ -98,72 +174,46 @@ final class MetadataProtoBuilder {
     return tokens.computeIfAbsent(string, s -> tokens.size());
   }
 
-  /** Sets up a builder for every calling code to be modified in successive passes. */
-  private void addCallingCodeProtos(MetadataProto.Builder outputProto, Metadata metadata) {
-    for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
-      callingCodeDataMap.put(cc, outputProto.addCallingCodeDataBuilder());
-    }
-  }
-
-  /** Returns the build for modification during a pass. */
-  private CallingCodeProto.Builder callingCodeProto(DigitSequence cc) {
-    return checkNotNull(callingCodeDataMap.get(cc));
-  }
-
-  private MetadataProto buildMetadata(Metadata metadata) {
+  private MetadataProto mergeCallingCodeData(
+      Metadata typeMetadata, Collection<CachedCallingCodeProto> callingCodeData) {
     MetadataProto.Builder outputProto = MetadataProto.newBuilder();
-    addCallingCodeProtos(outputProto, metadata);
     outputProto.setVersion(config.getVersion());
-
-    // To ensure contiguous indices for region codes, this MUST come first. All region codes
-    // must be tokenized before anything else (which is why there are multiple passes to
-    // populate the builders).
-    if (config.includeParserInfo()) {
-      addParserData(metadata);
+    ImmutableList<CachedCallingCodeProto> included =
+        callingCodeData.stream().filter(d -> !d.getOmitted()).collect(toImmutableList());
+
+    // To ensure contiguous indices for region codes, region tokens MUST come first. All region
+    // codes must be tokenized before anything else (which is why there are multiple passes over
+    // the calling code data).
+    for (CachedCallingCodeProto data : included) {
+      data.getTokenList().subList(1, 1 + data.getRegionTokenCount()).forEach(this::tokenize);
     }
-
-    metadata.getTypes().stream()
+    for (CachedCallingCodeProto data : included) {
+      int start = 1 + data.getRegionTokenCount();
+      data.getTokenList()
+          .subList(start, start + data.getNationalPrefixTokenCount())
+          .forEach(this::tokenize);
+    }
+    typeMetadata.getTypes().stream()
         .map(ClassifierType::id)
         .map(this::tokenize)
         .forEach(outputProto::addType);
+    for (CachedCallingCodeProto data : included) {
+      int start = 1 + data.getRegionTokenCount() + data.getNationalPrefixTokenCount();
+      data.getTokenList().subList(start, data.getTokenCount()).forEach(this::tokenize);
+    }
+    included.stream().map(this::remapTokens).forEach(outputProto::addCallingCodeData);
+    if (config.shareMatcherData()) {
+      shareMatcherData(outputProto);
+    }
 
     Map<Integer, Boolean> singleValuedTypes = new HashMap<>();
     Map<Integer, Boolean> classifierOnlyTypes = new HashMap<>();
-    for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
-      CallingCodeProto.Builder callingCodeData = callingCodeProto(cc);
-      callingCodeData.setCallingCode(Integer.parseInt(cc.toString()));
-
-      RangeMap rangeMap = metadata.getRangeMap(cc);
-      RangeTree allRanges = rangeMap.getAllRanges();
-      Map<RangeTree, Integer> rangesMap = new LinkedHashMap<>();
-
-      // Adds shared matcher data, returning its index.
-      Function<RangeTree, Integer> matcherDataCollector =
-          ranges -> {
-            int index = rangesMap.computeIfAbsent(ranges, r -> rangesMap.size());
-            int matcherCount = callingCodeData.getMatcherDataCount();
-            // Add new data if not previous in the list.
-            if (index == matcherCount) {
-              logger.atFine().log("ranges[%d]: %s", index, ranges);
-              callingCodeData.addMatcherData(buildMatcherData(ranges));
-            }
-            return index;
-          };
-
-      // We assume that an empty validity matcher index list means "use index 0", so no need to
-      // call addValidityMatcherIndex(0) with the result.
-      checkState(
-          matcherDataCollector.apply(allRanges) == 0,
-          "bad validity matcher index (should be zero): %s",
-          callingCodeData);
-      checkState(rangeMap.getTypes().asList().equals(metadata.getTypes()));
-
-      for (int typeIndex = 0; typeIndex < metadata.getTypes().size(); typeIndex++) {
-        ClassifierType type = metadata.getTypes().get(typeIndex);
+    for (DigitSequence cc : typeMetadata.getAvailableCallingCodes()) {
+      RangeMap rangeMap = typeMetadata.getRangeMap(cc);
+      checkState(rangeMap.getTypes().asList().equals(typeMetadata.getTypes()));
+      for (int typeIndex = 0; typeIndex < typeMetadata.getTypes().size(); typeIndex++) {
+        ClassifierType type = typeMetadata.getTypes().get(typeIndex);
         RangeClassifier classifier = rangeMap.getClassifier(type);
-
-        callingCodeData.addNationalNumberData(
-            buildNationalNumberData(classifier, matcherDataCollector));
         Boolean previous = singleValuedTypes.put(typeIndex, classifier.isSingleValued());
         checkState(
             previous == null || previous == classifier.isSingleValued(),
@@ -192,41 +242,225 @@ final class MetadataProtoBuilder {
     return outputProto.build();
   }
 
-  private void addParserData(Metadata metadata) {
-    for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
-      CallingCodeProto.Builder callingCodeData = callingCodeProto(cc);
-
-      // There's always at least one region (and the first is the main region).
-      List<PhoneRegion> regions = collectAllRegions(metadata, cc);
-      callingCodeData.setMainRegion(tokenize(regions.get(0).toString()));
-      if (regions.size() > 1) {
-        regions.stream().skip(1).map(Object::toString).forEach(this::tokenize);
-        callingCodeData.setRegionCount(regions.size());
+  /**
+   * Moves matcher data used by more than one calling code into the shared matcher data of the
+   * metadata, and updates matcher indices accordingly. Remaining local matcher data keeps its
+   * relative order, and shared data is added in order of first use.
+   */
+  private static void shareMatcherData(MetadataProto.Builder proto) {
+    Map<MatcherDataProto, Integer> useCounts = new HashMap<>();
+    for (CallingCodeProto callingCodeData : proto.getCallingCodeDataList()) {
+      ImmutableSet.copyOf(callingCodeData.getMatcherDataList())
+          .forEach(m -> useCounts.merge(m, 1, Integer::sum));
+    }
+    Map<MatcherDataProto, Integer> sharedIndices = new LinkedHashMap<>();
+    for (CallingCodeProto callingCodeData : proto.getCallingCodeDataList()) {
+      callingCodeData.getMatcherDataList().stream()
+          .filter(m -> useCounts.get(m) > 1)
+          .forEach(m -> sharedIndices.computeIfAbsent(m, k -> sharedIndices.size()));
+    }
+    if (sharedIndices.isEmpty()) {
+      return;
+    }
+    logger.atFine().log(
+        "shared matcher data: %d entries (used %d times)",
+        sharedIndices.size(),
+        sharedIndices.keySet().stream().mapToInt(useCounts::get).sum());
+    proto.addAllSharedMatcherData(sharedIndices.keySet());
+    for (CallingCodeProto.Builder callingCodeData : proto.getCallingCodeDataBuilderList()) {
+      shareMatcherData(callingCodeData, sharedIndices);
+    }
+  }
+
+  private static void shareMatcherData(
+      CallingCodeProto.Builder proto, Map<MatcherDataProto, Integer> sharedIndices) {
+    ImmutableList<MatcherDataProto> matcherData = ImmutableList.copyOf(proto.getMatcherDataList());
+    ImmutableList<MatcherDataProto> localData =
+        matcherData.stream().filter(m -> !sharedIndices.containsKey(m)).collect(toImmutableList());
+    // Shared data is referenced by indices after the local data (see MetadataProto).
+    int[] newIndices = new int[matcherData.size()];
+    int localIndex = 0;
+    for (int i = 0; i < newIndices.length; i++) {
+      Integer sharedIndex = sharedIndices.get(matcherData.get(i));
+      newIndices[i] = sharedIndex != null ? localData.size() + sharedIndex : localIndex++;
+    }
+    proto.clearMatcherData().addAllMatcherData(localData);
+
+    List<Integer> validityIndices =
+        remapMatcherIndices(proto.getValidityMatcherIndexList(), newIndices);
+    proto.clearValidityMatcherIndex().addAllValidityMatcherIndex(validityIndices);
+    for (NationalNumberDataProto.Builder nnd : proto.getNationalNumberDataBuilderList()) {
+      for (MatcherFunctionProto.Builder function : nnd.getMatcherBuilderList()) {
+        List<Integer> indices = remapMatcherIndices(function.getMatcherIndexList(), newIndices);
+        function.clearMatcherIndex().addAllMatcherIndex(indices);
       }
+    }
+  }
 
-      if (config.includeExampleNumbers()) {
-        ImmutableTable<PhoneRegion, ValidNumberType, DigitSequence> exampleNumbers =
-            metadata.getRangeMap(cc).getExampleNumbers();
-        for (PhoneRegion region : regions) {
-          callingCodeData.addExampleNumber(getExampleNumberString(exampleNumbers.row(region)));
-        }
+  // An empty list of matcher indices implies index zero, so this must be made explicit if index
+  // zero is remapped (and conversely, a remapped index of zero can be omitted).
+  private static ImmutableList<Integer> remapMatcherIndices(
+      List<Integer> indices, int[] newIndices) {
+    ImmutableList<Integer> remapped =
+        (indices.isEmpty() ? ImmutableList.of(0) : indices).stream()
+            .map(i -> newIndices[i])
+            .collect(toImmutableList());
+    return remapped.equals(ImmutableList.of(0)) ? ImmutableList.of() : remapped;
+  }
+
+  /** Converts the local token indices in calling code data to those of this builder. */
+  private CallingCodeProto remapTokens(CachedCallingCodeProto data) {
+    IntUnaryOperator remap = i -> tokenize(data.getToken(i));
+    CallingCodeProto.Builder proto;
+    try {
+      proto = CallingCodeProto.parseFrom(data.getCallingCodeData()).toBuilder();
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("invalid calling code data: " + data.getKey(), e);
+    }
+    proto.setMainRegion(remap.applyAsInt(proto.getMainRegion()));
+    for (int i = 0; i < proto.getNationalPrefixCount(); i++) {
+      proto.setNationalPrefix(i, remap.applyAsInt(proto.getNationalPrefix(i)));
+    }
+    for (NationalNumberDataProto.Builder nnd : proto.getNationalNumberDataBuilderList()) {
+      nnd.setDefaultValue(remap.applyAsInt(nnd.getDefaultValue()));
+      for (MatcherFunctionProto.Builder function : nnd.getMatcherBuilderList()) {
+        function.setValue(remap.applyAsInt(function.getValue()));
       }
     }
+    return proto.build();
+  }
+
+  /**
+   * Compiles matcher data for every distinct range used in the metadata. This is by far the most
+   * expensive part of building the metadata proto, but since compilation does not tokenize any
+   * strings, it can safely be done concurrently. The compiled data is added to the proto in a
+   * later, sequential pass to ensure the output is deterministic.
+   *
+   * <p>If the traffic sample is not empty, the layout of DFA matcher data is optimized using the
+   * sampled national numbers of every calling code in which the range is used.
+   */
+  private ImmutableMap<RangeTree, MatcherDataProto> compileMatcherData(
+      Metadata metadata, TrafficSample sample, ForkJoinPool pool) {
+    // Maps each distinct range to the calling codes in which it is used.
+    Map<RangeTree, List<DigitSequence>> distinctRanges = new LinkedHashMap<>();
     for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
-      CallingCodeProto.Builder callingCodeData = callingCodeProto(cc);
-      ImmutableSet<DigitSequence> nationalPrefixes =
-          metadata
-              .root()
-              .get(cc, NATIONAL_PREFIX)
-              .map(MultiValue::getValues)
-              .orElse(ImmutableSet.of());
-      nationalPrefixes.stream()
-          .map(Object::toString)
-          .map(this::tokenize)
-          .forEach(callingCodeData::addNationalPrefix);
-      if (metadata.getRangeMap(cc).nationalPrefixOptional()) {
-        callingCodeData.setNationalPrefixOptional(true);
+      RangeMap rangeMap = metadata.getRangeMap(cc);
+      Set<RangeTree> ccRanges = new LinkedHashSet<>();
+      ccRanges.add(rangeMap.getAllRanges());
+      for (ClassifierType type : rangeMap.getTypes()) {
+        rangeMap.getClassifier(type).orderedEntries().stream()
+            .map(Map.Entry::getValue)
+            .filter(r -> !r.isEmpty())
+            .forEach(ccRanges::add);
       }
+      ccRanges.forEach(r -> distinctRanges.computeIfAbsent(r, k -> new ArrayList<>()).add(cc));
+    }
+    Map<RangeTree, ForkJoinTask<MatcherDataProto>> tasks = new LinkedHashMap<>();
+    for (Map.Entry<RangeTree, List<DigitSequence>> e : distinctRanges.entrySet()) {
+      RangeTree ranges = e.getKey();
+      ImmutableList<DigitSequence> sampleNumbers = sample.getNationalNumbers(e.getValue());
+      tasks.put(ranges, pool.submit(() -> buildMatcherData(ranges, sampleNumbers)));
+    }
+    ImmutableMap.Builder<RangeTree, MatcherDataProto> matcherData = ImmutableMap.builder();
+    tasks.forEach((ranges, task) -> matcherData.put(ranges, task.join()));
+    return matcherData.buildOrThrow();
+  }
+
+  /**
+   * Builds the data for a single calling code. Strings are tokenized in the same order as they are
+   * when merging data (regions codes, then national prefixes, then classifier values), and the
+   * number of tokens in each phase is recorded.
+   *
+   * <p>If sample numbers are given, matchers for classifiers with disjoint values are ordered by
+   * how many sample numbers they match (see {@link #buildNationalNumberData}).
+   */
+  private CachedCallingCodeProto buildCallingCodeData(
+      Metadata metadata,
+      DigitSequence cc,
+      ImmutableMap<RangeTree, MatcherDataProto> matcherData,
+      ImmutableList<DigitSequence> sampleNumbers) {
+    CallingCodeProto.Builder callingCodeData = CallingCodeProto.newBuilder();
+    int regionTokenCount = 0;
+    int nationalPrefixTokenCount = 0;
+    if (config.includeParserInfo()) {
+      addRegionData(metadata, cc, callingCodeData);
+      regionTokenCount = tokens.size() - 1;
+      addNationalPrefixData(metadata, cc, callingCodeData);
+      nationalPrefixTokenCount = tokens.size() - 1 - regionTokenCount;
+    }
+    callingCodeData.setCallingCode(Integer.parseInt(cc.toString()));
+
+    RangeMap rangeMap = metadata.getRangeMap(cc);
+    RangeTree allRanges = rangeMap.getAllRanges();
+    Map<RangeTree, Integer> rangesMap = new LinkedHashMap<>();
+
+    // Adds shared matcher data, returning its index.
+    Function<RangeTree, Integer> matcherDataCollector =
+        ranges -> {
+          int index = rangesMap.computeIfAbsent(ranges, r -> rangesMap.size());
+          int matcherCount = callingCodeData.getMatcherDataCount();
+          // Add new data if not previous in the list.
+          if (index == matcherCount) {
+            logger.atFine().log("ranges[%d]: %s", index, ranges);
+            callingCodeData.addMatcherData(checkNotNull(matcherData.get(ranges)));
+          }
+          return index;
+        };
+
+    // We assume that an empty validity matcher index list means "use index 0", so no need to
+    // call addValidityMatcherIndex(0) with the result.
+    checkState(
+        matcherDataCollector.apply(allRanges) == 0,
+        "bad validity matcher index (should be zero): %s",
+        callingCodeData);
+    checkState(rangeMap.getTypes().asList().equals(metadata.getTypes()));
+
+    for (ClassifierType type : metadata.getTypes()) {
+      callingCodeData.addNationalNumberData(
+          buildNationalNumberData(
+              rangeMap.getClassifier(type), matcherDataCollector, sampleNumbers));
+    }
+    return CachedCallingCodeProto.newBuilder()
+        .setCallingCodeData(callingCodeData.build().toByteString())
+        .addAllToken(tokens.keySet())
+        .setRegionTokenCount(regionTokenCount)
+        .setNationalPrefixTokenCount(nationalPrefixTokenCount)
+        .build();
+  }
+
+  private void addRegionData(
+      Metadata metadata, DigitSequence cc, CallingCodeProto.Builder callingCodeData) {
+    // There's always at least one region (and the first is the main region).
+    List<PhoneRegion> regions = collectAllRegions(metadata, cc);
+    callingCodeData.setMainRegion(tokenize(regions.get(0).toString()));
+    if (regions.size() > 1) {
+      regions.stream().skip(1).map(Object::toString).forEach(this::tokenize);
+      callingCodeData.setRegionCount(regions.size());
+    }
+
+    if (config.includeExampleNumbers()) {
+      ImmutableTable<PhoneRegion, ValidNumberType, DigitSequence> exampleNumbers =
+          metadata.getRangeMap(cc).getExampleNumbers();
+      for (PhoneRegion region : regions) {
+        callingCodeData.addExampleNumber(getExampleNumberString(exampleNumbers.row(region)));
+      }
+    }
+  }
+
+  private void addNationalPrefixData(
+      Metadata metadata, DigitSequence cc, CallingCodeProto.Builder callingCodeData) {
+    ImmutableSet<DigitSequence> nationalPrefixes =
+        metadata
+            .root()
+            .get(cc, NATIONAL_PREFIX)
+            .map(MultiValue::getValues)
+            .orElse(ImmutableSet.of());
+    nationalPrefixes.stream()
+        .map(Object::toString)
+        .map(this::tokenize)
+        .forEach(callingCodeData::addNationalPrefix);
+    if (metadata.getRangeMap(cc).nationalPrefixOptional()) {
+      callingCodeData.setNationalPrefixOptional(true);
     }
   }
 
@@ -265,11 +499,21 @@ final class MetadataProtoBuilder {
   }
 
   private NationalNumberDataProto buildNationalNumberData(
-      RangeClassifier classifier, Function<RangeTree, Integer> dataCollector) {
+      RangeClassifier classifier,
+      Function<RangeTree, Integer> dataCollector,
+      ImmutableList<DigitSequence> sampleNumbers) {
     NationalNumberDataProto.Builder proto = NationalNumberDataProto.newBuilder();
+    boolean hasDisjointValues = hasDisjointValues(classifier);
+    Comparator<Map.Entry<String, RangeTree>> order = BY_RANGE_SIZE;
+    if (hasDisjointValues && !sampleNumbers.isEmpty()) {
+      // When values are disjoint, the order in which matchers are tested does not affect the
+      // result, so test the most frequently matched values first (the sort is stable, so values
+      // with equal counts remain ordered by range size).
+      order = bySampleCount(sampleNumbers).thenComparing(BY_RANGE_SIZE);
+    }
     ImmutableList<MatcherFunctionProto> sortedMatchers =
         classifier.orderedEntries().stream()
-            .sorted(BY_RANGE_SIZE)
+            .sorted(order)
             .filter(e -> !e.getValue().isEmpty())
             .map(e -> buildMatcherFunction(e.getKey(), dataCollector.apply(e.getValue())))
             .collect(toImmutableList());
@@ -289,9 +533,33 @@ final class MetadataProtoBuilder {
     }
 
     sortedMatchers.stream().filter(includedMatchers).forEach(proto::addMatcher);
+    if (proto.getMatcherCount() > 1 && hasDisjointValues) {
+      proto.setDisjointValues(true);
+    }
     return proto.build();
   }
 
+  // Orders entries by decreasing number of sample numbers contained in their ranges.
+  private static Comparator<Map.Entry<String, RangeTree>> bySampleCount(
+      ImmutableList<DigitSequence> sampleNumbers) {
+    Map<RangeTree, Long> counts = new HashMap<>();
+    return Comparator.comparingLong(
+        (Map.Entry<String, RangeTree> e) ->
+            -counts.computeIfAbsent(
+                e.getValue(), r -> sampleNumbers.stream().filter(r::contains).count()));
+  }
+
+  private static boolean hasDisjointValues(RangeClassifier classifier) {
+    RangeTree allRanges = RangeTree.empty();
+    for (Map.Entry<String, RangeTree> e : classifier.orderedEntries()) {
+      if (!allRanges.intersect(e.getValue()).isEmpty()) {
+        return false;
+      }
+      allRanges = allRanges.union(e.getValue());
+    }
+    return true;
+  }
+
   private MatcherFunctionProto buildMatcherFunction(String value, int index) {
     MatcherFunctionProto.Builder function =
         MatcherFunctionProto.newBuilder().setValue(tokenize(value));
@@ -304,15 +572,29 @@ final class MetadataProtoBuilder {
     return function.build();
   }
 
-  private MatcherDataProto buildMatcherData(RangeTree ranges) {
+  private MatcherDataProto buildMatcherData(
+      RangeTree ranges, ImmutableList<DigitSequence> sampleNumbers) {
     MatcherDataProto.Builder proto = MatcherDataProto.newBuilder();
     int lengthMask = ranges.getLengths().stream().mapToInt(n -> 1 << n).reduce(0, (a, b) -> a | b);
     proto.setPossibleLengthsMask(lengthMask);
     if (config.matcherTypes().contains(DIGIT_SEQUENCE_MATCHER)) {
       if (!ranges.isEmpty()) {
-        byte[] bytes = MatcherCompiler.compile(ranges);
-        proto.setMatcherData(ByteString.copyFrom(bytes));
-        logger.atFine().log("matcher bytes: %s", toHexString(bytes));
+        byte[] bytes = MatcherLayout.optimize(MatcherCompiler.compile(ranges), sampleNumbers);
+        // Only use an interval table when it's no larger than the DFA, since lookup is then
+        // always at least as fast (it's a binary search over a handful of values).
+        long[] intervals =
+            config.matcherTypes().contains(INTERVAL_TABLE)
+                ? buildIntervalTable(ranges, bytes.length)
+                : null;
+        if (intervals != null) {
+          Arrays.stream(intervals).forEach(proto::addIntervalTable);
+          logger.atFine().log(
+              "interval table: %d intervals (replacing %d matcher bytes)",
+              intervals.length / 2, bytes.length);
+        } else {
+          proto.setMatcherData(ByteString.copyFrom(bytes));
+          logger.atFine().log("matcher bytes: %s", toHexString(bytes));
+        }
       } else {
         logger.atWarning().log("empty matcher range");
       }
@@ -325,6 +607,111 @@ final class MetadataProtoBuilder {
     return proto.build();
   }
 
+  /**
+   * Returns the delta encoded interval table for the given (non-empty) ranges (see the
+   * {@code interval_table} field in {@code MatcherDataProto}), or null if the encoded table would
+   * be larger than the given maximum number of bytes.
+   */
+  @VisibleForTesting
+  static long[] buildIntervalTable(RangeTree ranges, int maxBytes) {
+    // Every merged interval needs at least two bytes to encode, so this leaves room for merging
+    // while still bounding the work done for complex ranges.
+    int maxIntervals = maxBytes;
+    List<long[]> intervals = new ArrayList<>();
+    for (RangeSpecification spec : ranges.asRangeSpecifications()) {
+      if (!addIntervals(spec, intervals, maxIntervals)) {
+        return null;
+      }
+    }
+    intervals.sort(Comparator.comparingLong(i -> i[0]));
+    // Merge adjacent intervals (range specifications are disjoint, so cannot overlap).
+    List<Long> bounds = new ArrayList<>();
+    for (long[] interval : intervals) {
+      int last = bounds.size() - 1;
+      if (!bounds.isEmpty() && bounds.get(last) + 1 == interval[0]) {
+        bounds.set(last, interval[1]);
+      } else {
+        bounds.add(interval[0]);
+        bounds.add(interval[1]);
+      }
+    }
+    long[] table = new long[bounds.size()];
+    long previous = 0;
+    int size = 0;
+    for (int i = 0; i < table.length; i++) {
+      table[i] = bounds.get(i) - previous;
+      previous = bounds.get(i);
+      size += CodedOutputStream.computeUInt64SizeNoTag(table[i]);
+    }
+    return size <= maxBytes ? table : null;
+  }
+
+  // Adds the encoded intervals for a range specification (e.g. "1[2-46]xx" is the 2 intervals
+  // [1200, 1499] and [1600, 1699], offset by 1111 to encode 4 digit sequences). Returns false if
+  // this would result in more than the given maximum number of intervals.
+  @VisibleForTesting
+  static boolean addIntervals(RangeSpecification spec, List<long[]> intervals, int maxIntervals) {
+    int length = spec.length();
+    // The index of the last position which doesn't accept every digit, or -1 if all positions do.
+    int last = length - 1;
+    while (last >= 0 && spec.getBitmask(last) == ALL_DIGITS_MASK) {
+      last--;
+    }
+    long offset = 0;
+    long scale = 1;
+    for (int n = 0; n < length; n++) {
+      offset += scale;
+      scale *= 10;
+    }
+    if (last < 0) {
+      intervals.add(new long[] {offset, offset + scale - 1});
+      return intervals.size() <= maxIntervals;
+    }
+    long tailScale = LongMath.pow(10, length - (last + 1));
+    return addIntervals(spec, 0, last, 0, offset, tailScale, intervals, maxIntervals);
+  }
+
+  private static boolean addIntervals(
+      RangeSpecification spec,
+      int index,
+      int last,
+      long prefix,
+      long offset,
+      long tailScale,
+      List<long[]> intervals,
+      int maxIntervals) {
+    int mask = spec.getBitmask(index);
+    if (index < last) {
+      for (int d = 0; d <= 9; d++) {
+        if ((mask & (1 << d)) == 0) {
+          continue;
+        }
+        long nextPrefix = 10 * prefix + d;
+        if (!addIntervals(
+            spec, index + 1, last, nextPrefix, offset, tailScale, intervals, maxIntervals)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    // At the last position, each run of consecutive digits is one interval.
+    for (int d = 0; d <= 9; d++) {
+      if ((mask & (1 << d)) != 0) {
+        int start = d;
+        while (d < 9 && (mask & (1 << (d + 1))) != 0) {
+          d++;
+        }
+        long lo = (10 * prefix + start) * tailScale + offset;
+        long hi = (10 * prefix + d + 1) * tailScale - 1 + offset;
+        intervals.add(new long[] {lo, hi});
+        if (intervals.size() > maxIntervals) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   private static LazyArg<String> toHexString(byte[] bytes) {
     return () ->
         Bytes.asList(bytes).stream()
@@ -16,13 +16,13 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema.NATIONAL_PREFIX;
 import static java.util.function.Function.identity;
 
-import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.flogger.LazyArg;
+import com.google.common.math.LongMath;
 import com.google.i18n.phonenumbers.metadata.DigitSequence;
 import com.google.i18n.phonenumbers.metadata.PrefixTree;
 import com.google.i18n.phonenumbers.metadata.RangeSpecification;
@@ -37,7 +37,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.IntStream;
 import net.goui.phonenumbers.tools.MetadataConfig.CallingCodeConfig;
 
@@ -58,74 +60,71 @@ final class MetadataSimplifier {
           .boxed()
           .collect(toImmutableMap(identity(), n -> RangeTree.from(RangeSpecification.any(n))));
 
-  @AutoValue
-  abstract static class SimplifiedKey {
-    static SimplifiedKey of(RangeKey original, RangeKey simplified, int index) {
-      RangeTree ranges = simplified.asRangeTree();
-      long cost = ranges.size() - original.asRangeTree().size();
-      return new AutoValue_MetadataSimplifier_SimplifiedKey(ranges, cost, index);
-    }
-
-    abstract RangeTree ranges();
-
-    abstract long cost();
-
-    abstract int index();
+  /**
+   * Simplifies metadata according to the given configuration, using the common fork-join pool.
+   */
+  public static Metadata simplify(Metadata metadata, MetadataConfig config) {
+    return simplify(metadata, config, ForkJoinPool.commonPool());
   }
 
   /**
    * Simplifies metadata according to the given configuration.
    *
    * <p>Range information for each country calling code is simplified separately and different
-   * limits can be applied on a per calling code basis.
+   * limits can be applied on a per calling code basis. Since this is independent for each calling
+   * code, simplification is run concurrently in the given pool, but results are collected in
+   * calling code order so the returned metadata is always the same.
    */
-  public static Metadata simplify(Metadata metadata, MetadataConfig config) {
-    Metadata.Builder simplifiedMetadata = Metadata.builder(metadata.root());
-
+  public static Metadata simplify(Metadata metadata, MetadataConfig config, ForkJoinPool pool) {
+    Map<DigitSequence, ForkJoinTask<RangeMap>> tasks = new LinkedHashMap<>();
     for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
-      Optional<CallingCodeConfig> callingCodeConfig = config.getCallingCodeConfig(cc);
-      if (callingCodeConfig.isEmpty()) {
-        continue;
-      }
-
-      int maxFalsePositivePercent = callingCodeConfig.get().maxFalsePositivePercent();
-      RangeMap rangeMap = metadata.getRangeMap(cc);
-
-      // If the configuration specifies no additional false-positives, we just copy the range.
-      if (maxFalsePositivePercent == 0) {
-        simplifiedMetadata.put(cc, rangeMap);
-        continue;
-      }
-
-      // Special case to avoid over-shortening ranges in cases where national prefixes exist.
-      // This avoids cases where range simplification could create new ranges which begin with
-      // two copies of the national prefix (causing problems when parsing).
-      //
-      // The most egregious case of this is Belarus (BY) where the national prefixes include
-      // "80", but ranges between 7 and 9 digits can also start with "80", but not "8080".
-      // If ranges were simplified too much then ranges starting with "8080" could be introduced,
-      // making it impossible to reliably remove the national prefix during parsing.
-      //
-      // In most cases, this limits the minimum prefix length to 1 or 2, which will not make a
-      // noticeable difference to metadata size.
-      int minPrefixLength = callingCodeConfig.get().minPrefixLength();
-      ImmutableSet<DigitSequence> nationalPrefixes =
-          metadata
-              .root()
-              .get(cc, NATIONAL_PREFIX)
-              .map(DigitSequences::getValues)
-              .orElse(ImmutableSet.of());
-      int maxNationalPrefixLength =
-          nationalPrefixes.stream().mapToInt(DigitSequence::length).max().orElse(0);
-      minPrefixLength = Math.max(minPrefixLength, maxNationalPrefixLength + 1);
-
-      simplifiedMetadata.put(
-          cc, simplifyRangeMap(rangeMap, maxFalsePositivePercent, minPrefixLength));
+      config
+          .getCallingCodeConfig(cc)
+          .ifPresent(
+              c -> tasks.put(cc, pool.submit(() -> simplifyCallingCode(metadata, cc, c))));
     }
+    Metadata.Builder simplifiedMetadata = Metadata.builder(metadata.root());
+    tasks.forEach((cc, task) -> simplifiedMetadata.put(cc, task.join()));
     // Return the final metadata with simplified ranges for every calling code.
     return simplifiedMetadata.build();
   }
 
+  /** Simplifies the range map of a single calling code according to the given configuration. */
+  static RangeMap simplifyCallingCode(
+      Metadata metadata, DigitSequence cc, CallingCodeConfig callingCodeConfig) {
+    int maxFalsePositivePercent = callingCodeConfig.maxFalsePositivePercent();
+    RangeMap rangeMap = metadata.getRangeMap(cc);
+
+    // If the configuration specifies no additional false-positives, we just copy the range.
+    if (maxFalsePositivePercent == 0) {
+      return rangeMap;
+    }
+
+    // Special case to avoid over-shortening ranges in cases where national prefixes exist.
+    // This avoids cases where range simplification could create new ranges which begin with
+    // two copies of the national prefix (causing problems when parsing).
+    //
+    // The most egregious case of this is Belarus (BY) where the national prefixes include
+    // "80", but ranges between 7 and 9 digits can also start with "80", but not "8080".
+    // If ranges were simplified too much then ranges starting with "8080" could be introduced,
+    // making it impossible to reliably remove the national prefix during parsing.
+    //
+    // In most cases, this limits the minimum prefix length to 1 or 2, which will not make a
+    // noticeable difference to metadata size.
+    int minPrefixLength = callingCodeConfig.minPrefixLength();
+    ImmutableSet<DigitSequence> nationalPrefixes =
+        metadata
+            .root()
+            .get(cc, NATIONAL_PREFIX)
+            .map(DigitSequences::getValues)
+            .orElse(ImmutableSet.of());
+    int maxNationalPrefixLength =
+        nationalPrefixes.stream().mapToInt(DigitSequence::length).max().orElse(0);
+    minPrefixLength = Math.max(minPrefixLength, maxNationalPrefixLength + 1);
+
+    return simplifyRangeMap(rangeMap, maxFalsePositivePercent, minPrefixLength);
+  }
+
   @VisibleForTesting
   static RangeMap simplifyRangeMap(
       RangeMap rangeMap, int maxFalsePositivePercent, int minPrefixLength) {
@@ -339,7 +338,7 @@ final class MetadataSimplifier {
       ImmutableList<RangeKey> originalRangeKeys = RangeKey.decompose(range);
 
       // Simplify each RangeKey with a sufficiently long prefix.
-      List<SimplifiedKey> simplifiedKeys = new ArrayList<>();
+      List<Candidate> candidates = new ArrayList<>();
       for (int i = 0; i < originalRangeKeys.size(); i++) {
         RangeKey key = originalRangeKeys.get(i);
         RangeSpecification prefix = key.getPrefix();
@@ -351,13 +350,15 @@ final class MetadataSimplifier {
         // Remove the "least significant" entry in the range specification and store it.
         RangeKey simplifiedKey =
             RangeKey.create(prefix.first(newLength).getPrefix(), key.getLengths());
-        simplifiedKeys.add(SimplifiedKey.of(key, simplifiedKey, i));
+        candidates.add(new Candidate(simplifiedKey, sizeOf(simplifiedKey) - sizeOf(key), i));
       }
-      // Sort and apply the keys by increasing cost to make a new range.
-      simplifiedKeys.sort(
-          Comparator.comparing(SimplifiedKey::cost).thenComparing(SimplifiedKey::index));
-      for (SimplifiedKey simplifiedKey : simplifiedKeys) {
-        RangeTree modifiedRanges = range.union(simplifiedKey.ranges());
+      // Apply the keys by increasing cost to make a new range. Candidates are heapified (in linear
+      // time) and polled until the limit is reached, so candidates which are never applied are not
+      // sorted. This saves little when most candidates are applied (e.g. for high false positive
+      // percentages), since each applied candidate still needs a union and a size check.
+      PriorityQueue<Candidate> queue = new PriorityQueue<>(candidates);
+      while (!queue.isEmpty()) {
+        RangeTree modifiedRanges = range.union(queue.poll().simplifiedKey.asRangeTree());
         // If after applying a simplification the maximum size is exceeded, return the previous
         // range. Note that the amount by which the size of the range increases is often less
         // than the size of the simplified range (due to overlaps). So we cannot just increment
@@ -372,6 +373,46 @@ final class MetadataSimplifier {
       // maximally simplified.
     } while (range.size() > lastSize && range.size() < maxSize);
 
+    logSimplifiedRange(range, maxFalsePositivePercent, minPrefixLength);
+    return range;
+  }
+
+  /**
+   * A candidate simplification of a single range key, ordered by the number of sequences it would
+   * add (and then by the index of the original key, to ensure a stable order). The cost is
+   * calculated arithmetically, so the range of a simplified key is only created if the candidate
+   * is applied.
+   */
+  private static final class Candidate implements Comparable<Candidate> {
+    private final RangeKey simplifiedKey;
+    private final long cost;
+    private final int index;
+
+    Candidate(RangeKey simplifiedKey, long cost, int index) {
+      this.simplifiedKey = simplifiedKey;
+      this.cost = cost;
+      this.index = index;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      int signum = Long.compare(cost, other.cost);
+      return signum != 0 ? signum : Integer.compare(index, other.index);
+    }
+  }
+
+  /** Returns the number of sequences in a range key (i.e. {@code key.asRangeTree().size()}). */
+  private static long sizeOf(RangeKey key) {
+    RangeSpecification prefix = key.getPrefix();
+    long suffixCount = 0;
+    for (int length : key.getLengths()) {
+      suffixCount += LongMath.pow(10, length - prefix.length());
+    }
+    return prefix.getSequenceCount() * suffixCount;
+  }
+
+  private static void logSimplifiedRange(
+      RangeTree range, int maxFalsePositivePercent, int minPrefixLength) {
     logger.atFine().log(
         "%s%%, %d, %d", maxFalsePositivePercent, minPrefixLength, lazyCompiledLength(range));
     if (logger.atFinest().isEnabled()) {
@@ -379,7 +420,6 @@ final class MetadataSimplifier {
           .asRangeSpecifications()
           .forEach(s -> logger.atFinest().log("%s, %s, %s", s, s.length(), s.getSequenceCount()));
     }
-    return range;
   }
 
   static LazyArg<Integer> lazyCompiledLength(RangeTree r) {
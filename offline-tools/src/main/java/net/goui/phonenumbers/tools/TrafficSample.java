@@ -0,0 +1,99 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.flogger.FluentLogger;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A sample of real phone number traffic, used to optimize the layout of matcher data for the
+ * numbers which are most frequently matched.
+ *
+ * <p>A traffic sample file contains one E.164 formatted number per line (e.g. "+447700900123"),
+ * and numbers should appear in the proportions in which they are expected to be matched. Blank
+ * lines and lines starting with '#' are ignored.
+ */
+final class TrafficSample {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final Pattern E164_NUMBER = Pattern.compile("\\+[0-9]{2,17}");
+  private static final TrafficSample EMPTY = new TrafficSample(ImmutableListMultimap.of());
+
+  /** Returns an empty sample (for which matcher data is not reordered). */
+  static TrafficSample empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Loads a traffic sample from the given path. Numbers are split into calling code and national
+   * number using the given calling codes, and any numbers which cannot be split are ignored.
+   */
+  static TrafficSample load(Path path, Set<DigitSequence> callingCodes) throws IOException {
+    ImmutableListMultimap.Builder<DigitSequence, DigitSequence> numbers =
+        ImmutableListMultimap.builder();
+    int ignored = 0;
+    for (String line : Files.readAllLines(path)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      boolean isSplit = false;
+      if (E164_NUMBER.matcher(line).matches()) {
+        // Calling codes are prefix free, so at most one can match.
+        for (int n = 1; n <= 3 && !isSplit; n++) {
+          DigitSequence cc = DigitSequence.of(line.substring(1, n + 1));
+          if (callingCodes.contains(cc)) {
+            numbers.put(cc, DigitSequence.of(line.substring(n + 1)));
+            isSplit = true;
+          }
+        }
+      }
+      if (!isSplit) {
+        logger.atFine().log("ignoring traffic sample line: %s", line);
+        ignored++;
+      }
+    }
+    TrafficSample sample = new TrafficSample(numbers.build());
+    logger.atInfo().log(
+        "Loaded traffic sample: %d numbers (%d lines ignored)", sample.numbers.size(), ignored);
+    return sample;
+  }
+
+  private final ImmutableListMultimap<DigitSequence, DigitSequence> numbers;
+
+  private TrafficSample(ImmutableListMultimap<DigitSequence, DigitSequence> numbers) {
+    this.numbers = numbers;
+  }
+
+  boolean isEmpty() {
+    return numbers.isEmpty();
+  }
+
+  /** Returns the national numbers in the sample for the given calling code. */
+  ImmutableList<DigitSequence> getNationalNumbers(DigitSequence cc) {
+    return numbers.get(cc);
+  }
+
+  /** Returns the national numbers in the sample for any of the given calling codes. */
+  ImmutableList<DigitSequence> getNationalNumbers(List<DigitSequence> callingCodes) {
+    ImmutableList.Builder<DigitSequence> nationalNumbers = ImmutableList.builder();
+    callingCodes.forEach(cc -> nationalNumbers.addAll(numbers.get(cc)));
+    return nationalNumbers.build();
+  }
+}
@@ -0,0 +1,456 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.naturalOrder;
+import static java.util.stream.Collectors.joining;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import com.google.protobuf.TextFormat;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.goui.phonenumbers.tools.MetadataConfig.CallingCodeConfig;
+import net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto;
+import net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto.ConfigOverrideProto;
+
+/**
+ * Searches the simplification parameters ({@code maximum_false_positive_percent} and {@code
+ * minimum_prefix_length}) for each calling code of a metadata configuration, to find the smallest
+ * metadata which meets a given size budget and/or accuracy target.
+ *
+ * <p>Every combination of the given parameter values is evaluated for each calling code (in
+ * parallel) by simplifying its ranges and building its calling code data, and recording the data
+ * size and the actual false positive rate (the percentage increase in the number of valid phone
+ * numbers). Only candidates on the Pareto front of size against false positive rate are
+ * considered for selection, and candidates are selected as follows:
+ *
+ * <ul>
+ *   <li>Candidates exceeding {@code --max_false_positive_percent} are discarded.
+ *   <li>If {@code --max_calling_code_bytes} is given, the most accurate candidate within that size
+ *       is selected for each calling code. If {@code --max_total_bytes} is given, the accuracy of
+ *       calling codes is then reduced, choosing whichever step saves the most bytes per percent of
+ *       additional false positives, until the total size is within the budget.
+ *   <li>If neither budget is given, the smallest candidate for each calling code is selected.
+ * </ul>
+ *
+ * <p>The output is a copy of the given configuration in which the selected parameters are
+ * specified as overrides for every calling code (this can be used directly with {@link
+ * GenerateMetadata}). An optional CSV report lists all evaluated candidates, showing which are on
+ * the Pareto front and which were selected.
+ *
+ * <p>Note that data sizes are those of the serialized calling code data, and exclude the shared
+ * token table and any per-file overhead, so the total size of the generated metadata will be
+ * slightly larger than the total given here.
+ */
+public final class TuneMetadata {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final class Flags {
+    @Parameter(names = "--zip", description = "Standard format zip file path")
+    private String zipPath = "";
+
+    @Parameter(names = "--dir", description = "Root overlay directory (unzipped files)")
+    private String dirPath = "";
+
+    @Parameter(
+        names = "--csv_separator",
+        description = "CSV separator for unzipped overlay files (single char)")
+    private String csvSeparator = ",";
+
+    @Parameter(names = "--config", description = "Config text proto path", required = true)
+    private String configPath = "";
+
+    @Parameter(names = "--out", description = "Output config text proto path", required = true)
+    private String outPath = "";
+
+    @Parameter(names = "--report", description = "Output CSV report path (optional)")
+    private String reportPath = "";
+
+    @Parameter(
+        names = "--max_total_bytes",
+        description = "Budget for the total calling code data size (optional)")
+    private long maxTotalBytes = 0;
+
+    @Parameter(
+        names = "--max_calling_code_bytes",
+        description = "Budget for the data size of each calling code (optional)")
+    private long maxCallingCodeBytes = 0;
+
+    @Parameter(
+        names = "--max_false_positive_percent",
+        description = "Maximum actual false positive rate for any calling code (optional)")
+    private double maxFalsePositivePercent = Double.MAX_VALUE;
+
+    @Parameter(
+        names = "--false_positive_percents",
+        description = "Comma separated values of maximum_false_positive_percent to evaluate")
+    private String falsePositivePercents = "0,5,10,15,20,30,50,75,100";
+
+    @Parameter(
+        names = "--min_prefix_lengths",
+        description = "Comma separated values of minimum_prefix_length to evaluate")
+    private String minPrefixLengths = "1,2,3,4";
+
+    @Parameter(names = "--log_level", description = "JDK log level name")
+    private String logLevel = "INFO";
+
+    @Parameter(
+        names = "--parallelism",
+        description = "Number of threads to use (optional, defaults to the number of processors)")
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+  }
+
+  /** The evaluated result of simplifying a calling code with a specific configuration. */
+  @AutoValue
+  abstract static class Candidate {
+    static Candidate of(CallingCodeConfig config, long bytes, double falsePositivePercent) {
+      return new AutoValue_TuneMetadata_Candidate(config, bytes, falsePositivePercent);
+    }
+
+    /** The configuration used for simplification. */
+    abstract CallingCodeConfig config();
+
+    /** The size of the resulting calling code data. */
+    abstract long bytes();
+
+    /** The actual percentage increase in the number of valid phone numbers. */
+    abstract double falsePositivePercent();
+  }
+
+  // Orders candidates by size, then accuracy, then by "least aggressive" simplification.
+  private static final Comparator<Candidate> BY_SIZE_THEN_ACCURACY =
+      comparing(Candidate::bytes)
+          .thenComparing(Candidate::falsePositivePercent)
+          .thenComparing(c -> c.config().maxFalsePositivePercent())
+          .thenComparing(c -> -c.config().minPrefixLength());
+
+  private static final Comparator<CallingCodeConfig> CONFIG_ORDER =
+      comparing(CallingCodeConfig::maxFalsePositivePercent)
+          .thenComparing(CallingCodeConfig::minPrefixLength);
+
+  public static void main(String[] args) throws IOException {
+    Flags flags = new Flags();
+    JCommander.newBuilder().addObject(flags).build().parse(args);
+    Level level = Level.parse(flags.logLevel);
+    Arrays.stream(Logger.getLogger("").getHandlers()).forEach(h -> h.setLevel(level));
+    Logger.getLogger("net.goui.phonenumbers").setLevel(level);
+
+    Path configPath = Paths.get(flags.configPath);
+    MetadataConfigProto configProto =
+        TextFormat.parse(Files.readString(configPath), MetadataConfigProto.class);
+    MetadataConfig config = MetadataConfig.from(configProto);
+    Metadata metadata =
+        Metadata.load(flags.zipPath, flags.dirPath, flags.csvSeparator)
+            .transform(config.getOutputTransformer());
+
+    // Zero is always evaluated to ensure there is a lossless candidate for every calling code.
+    ImmutableSortedSet<Integer> falsePositivePercents =
+        ImmutableSortedSet.<Integer>naturalOrder()
+            .add(0)
+            .addAll(parseValues(flags.falsePositivePercents))
+            .build();
+    ImmutableSortedSet<Integer> minPrefixLengths = parseValues(flags.minPrefixLengths);
+    checkArgument(!minPrefixLengths.isEmpty(), "must specify minimum prefix lengths");
+
+    checkArgument(flags.parallelism > 0, "invalid parallelism: %s", flags.parallelism);
+    ForkJoinPool pool = new ForkJoinPool(flags.parallelism);
+    Map<DigitSequence, List<Candidate>> candidates;
+    try {
+      candidates =
+          evaluateAll(metadata, config, falsePositivePercents, minPrefixLengths, pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    Map<DigitSequence, ImmutableList<Candidate>> fronts = new LinkedHashMap<>();
+    candidates.forEach(
+        (cc, list) -> {
+          ImmutableList<Candidate> front =
+              paretoFront(list).stream()
+                  // This never removes the lossless candidate (with zero false positives).
+                  .filter(c -> c.falsePositivePercent() <= flags.maxFalsePositivePercent)
+                  .collect(toImmutableList());
+          fronts.put(cc, front);
+        });
+    ImmutableMap<DigitSequence, Candidate> selected =
+        select(fronts, flags.maxCallingCodeBytes, flags.maxTotalBytes);
+    long totalBytes = selected.values().stream().mapToLong(Candidate::bytes).sum();
+    logger.atInfo().log(
+        "Selected configuration for %d calling codes (total size %d bytes)",
+        selected.size(), totalBytes);
+
+    Path outPath = Paths.get(flags.outPath);
+    logger.atInfo().log("Writing: %s", outPath);
+    MetadataConfigProto tunedConfig = tunedConfig(configProto, selected);
+    Files.writeString(outPath, TextFormat.printer().printToString(tunedConfig));
+    if (!flags.reportPath.isEmpty()) {
+      Path reportPath = Paths.get(flags.reportPath);
+      logger.atInfo().log("Writing: %s", reportPath);
+      try (Writer w = Files.newBufferedWriter(reportPath, UTF_8)) {
+        writeReport(candidates, fronts, selected, w);
+      }
+    }
+  }
+
+  private static ImmutableSortedSet<Integer> parseValues(String values) {
+    return Splitter.on(",").trimResults().omitEmptyStrings().splitToStream(values)
+        .map(Integer::parseInt)
+        .peek(n -> checkArgument(n >= 0, "invalid parameter value: %s", n))
+        .collect(toImmutableSortedSet(naturalOrder()));
+  }
+
+  /**
+   * Evaluates every combination of parameters for each calling code in the configuration.
+   * Calling codes which would be omitted from the output (because they have no valid ranges) are
+   * not present in the returned map.
+   */
+  private static Map<DigitSequence, List<Candidate>> evaluateAll(
+      Metadata metadata,
+      MetadataConfig config,
+      ImmutableSortedSet<Integer> falsePositivePercents,
+      ImmutableSortedSet<Integer> minPrefixLengths,
+      ForkJoinPool pool) {
+    Map<DigitSequence, List<ForkJoinTask<Optional<Candidate>>>> tasks = new LinkedHashMap<>();
+    for (DigitSequence cc : metadata.getAvailableCallingCodes()) {
+      if (config.getCallingCodeConfig(cc).isEmpty()) {
+        continue;
+      }
+      List<ForkJoinTask<Optional<Candidate>>> ccTasks = new ArrayList<>();
+      for (int percent : falsePositivePercents) {
+        for (int minPrefixLength : minPrefixLengths) {
+          CallingCodeConfig ccConfig = CallingCodeConfig.of(percent, minPrefixLength);
+          ccTasks.add(pool.submit(() -> evaluate(metadata, cc, ccConfig, config, pool)));
+          // Without simplification, the minimum prefix length has no effect.
+          if (percent == 0) {
+            break;
+          }
+        }
+      }
+      tasks.put(cc, ccTasks);
+    }
+    Map<DigitSequence, List<Candidate>> candidates = new LinkedHashMap<>();
+    tasks.forEach(
+        (cc, ccTasks) -> {
+          List<Candidate> ccCandidates = new ArrayList<>();
+          ccTasks.forEach(t -> t.join().ifPresent(ccCandidates::add));
+          if (!ccCandidates.isEmpty()) {
+            candidates.put(cc, ccCandidates);
+          }
+        });
+    return candidates;
+  }
+
+  private static Optional<Candidate> evaluate(
+      Metadata metadata,
+      DigitSequence cc,
+      CallingCodeConfig ccConfig,
+      MetadataConfig config,
+      ForkJoinPool pool) {
+    RangeMap original = metadata.getRangeMap(cc);
+    RangeMap simplified = MetadataSimplifier.simplifyCallingCode(metadata, cc, ccConfig);
+    Optional<RangeMap> trimmed =
+        Metadata.builder(metadata.root())
+            .put(cc, simplified)
+            .build()
+            .trimValidRanges(cc, config.includeEmptyCallingCodes());
+    if (trimmed.isEmpty()) {
+      return Optional.empty();
+    }
+    Metadata trimmedMetadata = Metadata.builder(metadata.root()).put(cc, trimmed.get()).build();
+    long bytes =
+        MetadataProtoBuilder.buildCallingCodeData(trimmedMetadata, config, pool)
+            .get(cc)
+            .getCallingCodeData()
+            .size();
+    long originalSize = original.getAllRanges().size();
+    double falsePositivePercent =
+        originalSize > 0
+            ? 100.0 * (simplified.getAllRanges().size() - originalSize) / originalSize
+            : 0;
+    logger.atFine().log(
+        "[cc=%s] %s: %d bytes, %.2f%%", cc, ccConfig, bytes, falsePositivePercent);
+    return Optional.of(Candidate.of(ccConfig, bytes, falsePositivePercent));
+  }
+
+  /**
+   * Returns the candidates on the Pareto front of size against false positive rate (i.e. those
+   * for which no other candidate is both smaller and more accurate). The returned list is ordered
+   * by increasing size and strictly decreasing false positive rate.
+   */
+  @VisibleForTesting
+  static ImmutableList<Candidate> paretoFront(List<Candidate> candidates) {
+    ImmutableList.Builder<Candidate> front = ImmutableList.builder();
+    double bestFalsePositivePercent = Double.POSITIVE_INFINITY;
+    for (Candidate c : ImmutableList.sortedCopyOf(BY_SIZE_THEN_ACCURACY, candidates)) {
+      if (c.falsePositivePercent() < bestFalsePositivePercent) {
+        front.add(c);
+        bestFalsePositivePercent = c.falsePositivePercent();
+      }
+    }
+    return front.build();
+  }
+
+  /**
+   * Selects a candidate for each calling code from its Pareto front (see {@link #paretoFront}).
+   *
+   * @param fronts the non-empty Pareto front for each calling code.
+   * @param maxCallingCodeBytes the size budget for each calling code (or zero for no budget).
+   * @param maxTotalBytes the total size budget (or zero for no budget).
+   */
+  @VisibleForTesting
+  static ImmutableMap<DigitSequence, Candidate> select(
+      Map<DigitSequence, ImmutableList<Candidate>> fronts,
+      long maxCallingCodeBytes,
+      long maxTotalBytes) {
+    boolean hasBudget = maxCallingCodeBytes > 0 || maxTotalBytes > 0;
+    // Index of the selected candidate in each front.
+    Map<DigitSequence, Integer> selected = new LinkedHashMap<>();
+    long totalBytes = 0;
+    for (Map.Entry<DigitSequence, ImmutableList<Candidate>> e : fronts.entrySet()) {
+      ImmutableList<Candidate> front = e.getValue();
+      checkArgument(!front.isEmpty(), "no candidates for calling code: %s", e.getKey());
+      int index = hasBudget ? front.size() - 1 : 0;
+      if (maxCallingCodeBytes > 0) {
+        while (index > 0 && front.get(index).bytes() > maxCallingCodeBytes) {
+          index--;
+        }
+        if (front.get(index).bytes() > maxCallingCodeBytes) {
+          logger.atWarning().log(
+              "[cc=%s] cannot meet calling code budget (smallest size is %d bytes)",
+              e.getKey(), front.get(index).bytes());
+        }
+      }
+      selected.put(e.getKey(), index);
+      totalBytes += front.get(index).bytes();
+    }
+    if (maxTotalBytes > 0) {
+      while (totalBytes > maxTotalBytes) {
+        // Find the step which saves the most bytes per additional percent of false positives.
+        DigitSequence bestCc = null;
+        double bestRatio = -1;
+        for (Map.Entry<DigitSequence, Integer> e : selected.entrySet()) {
+          int index = e.getValue();
+          if (index == 0) {
+            continue;
+          }
+          ImmutableList<Candidate> front = fronts.get(e.getKey());
+          Candidate current = front.get(index);
+          Candidate next = front.get(index - 1);
+          double ratio =
+              (current.bytes() - next.bytes())
+                  / (next.falsePositivePercent() - current.falsePositivePercent());
+          if (ratio > bestRatio) {
+            bestCc = e.getKey();
+            bestRatio = ratio;
+          }
+        }
+        if (bestCc == null) {
+          logger.atWarning().log(
+              "cannot meet total budget (smallest total size is %d bytes)", totalBytes);
+          break;
+        }
+        int index = selected.get(bestCc);
+        ImmutableList<Candidate> front = fronts.get(bestCc);
+        totalBytes -= front.get(index).bytes() - front.get(index - 1).bytes();
+        selected.put(bestCc, index - 1);
+      }
+    }
+    ImmutableMap.Builder<DigitSequence, Candidate> result = ImmutableMap.builder();
+    selected.forEach((cc, index) -> result.put(cc, fronts.get(cc).get(index)));
+    return result.buildOrThrow();
+  }
+
+  /**
+   * Returns a copy of the given configuration in which the selected parameters are specified as
+   * overrides for exactly the tuned calling codes.
+   */
+  @VisibleForTesting
+  static MetadataConfigProto tunedConfig(
+      MetadataConfigProto configProto, Map<DigitSequence, Candidate> selected) {
+    Map<CallingCodeConfig, List<DigitSequence>> callingCodesByConfig = new TreeMap<>(CONFIG_ORDER);
+    selected.forEach(
+        (cc, c) ->
+            callingCodesByConfig.computeIfAbsent(c.config(), k -> new ArrayList<>()).add(cc));
+    MetadataConfigProto.Builder tuned =
+        configProto.toBuilder()
+            .clearCallingCode()
+            .clearCallingCodes()
+            .clearOverride()
+            // All tuned calling codes are listed explicitly in overrides.
+            .setExcludeByDefault(true);
+    callingCodesByConfig.forEach(
+        (ccConfig, ccs) ->
+            tuned.addOverride(
+                ConfigOverrideProto.newBuilder()
+                    .setCallingCodes(ccs.stream().map(Object::toString).collect(joining(", ")))
+                    .setMaximumFalsePositivePercent(ccConfig.maxFalsePositivePercent())
+                    .setMinimumPrefixLength(ccConfig.minPrefixLength())));
+    return tuned.build();
+  }
+
+  private static void writeReport(
+      Map<DigitSequence, List<Candidate>> candidates,
+      Map<DigitSequence, ImmutableList<Candidate>> fronts,
+      Map<DigitSequence, Candidate> selected,
+      Writer writer) {
+    PrintWriter out = new PrintWriter(writer);
+    out.println(
+        "calling_code,maximum_false_positive_percent,minimum_prefix_length,bytes,"
+            + "false_positive_percent,pareto,selected");
+    candidates.forEach(
+        (cc, list) -> {
+          for (Candidate c : list) {
+            out.format(
+                "%s,%d,%d,%d,%.2f,%b,%b%n",
+                cc,
+                c.config().maxFalsePositivePercent(),
+                c.config().minPrefixLength(),
+                c.bytes(),
+                c.falsePositivePercent(),
+                fronts.get(cc).contains(c),
+                c.equals(selected.get(cc)));
+          }
+        });
+    out.flush();
+  }
+
+  private TuneMetadata() {}
+}
@@ -13,19 +13,33 @@ package net.goui.phonenumbers.tools;
 import static com.google.common.truth.Truth.assertThat;
 import static net.goui.phonenumbers.tools.ClassifierType.TYPE;
 import static net.goui.phonenumbers.tools.ClassifierType.VALIDITY;
+import static net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto.MatcherType.DIGIT_SEQUENCE_MATCHER;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
 import com.google.i18n.phonenumbers.metadata.RangeSpecification;
 import com.google.i18n.phonenumbers.metadata.RangeTree;
+import com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema;
+import com.google.i18n.phonenumbers.metadata.table.CsvTable;
 import com.google.protobuf.TextFormat;
 import com.google.protobuf.TextFormat.ParseException;
+import java.io.StringReader;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
 import net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 @RunWith(JUnit4.class)
 public class GenerateMetadataTest {
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
   // This is an important test because it shows that simplification cannot reintroduce ranges
   // which are excluded in `validation_ranges` expression. If simplification naively reset the
   // validation range before simplification, this test would fail.
@@ -108,6 +122,91 @@ public class GenerateMetadataTest {
     assertThat(trimmed.getAllRanges().intersect(originalBar)).isEqualTo(RangeTree.empty());
   }
 
+  // Cached calling code data has its own local token indices, which must be remapped when merged
+  // with other calling code data. This is tested by building metadata with an empty cache, a
+  // partially populated cache and a fully populated cache, all of which must give the same output
+  // as building it without a cache.
+  @Test
+  public void testCachedOutputIsIdentical() throws Exception {
+    CsvTable<DigitSequence> root =
+        CsvTable.importCsv(
+            MetadataTableSchema.SCHEMA,
+            new StringReader(
+                String.join(
+                    "\n",
+                    "Calling Code;Main Region;Extra Regions;National Prefix",
+                    "1;\"US\";\"CA\";\"1\"",
+                    "41;\"CH\";;\"0\"",
+                    "44;\"GB\";\"GG,IM,JE\";\"0\"")));
+    RangeMap ranges1 =
+        typeMap(
+            RangeClassifier.builder().setSingleValued(true)
+                .put("FIXED_LINE_OR_MOBILE", r("[2-9]xx[2-9]xxxxxx"))
+                .build());
+    RangeMap ranges41 =
+        typeMap(
+            RangeClassifier.builder().setSingleValued(true)
+                .put("FIXED_LINE", r("[2-6]xxxxxxxx"))
+                .put("MOBILE", r("7[5-9]xxxxxxx"))
+                .build());
+    RangeMap ranges44 =
+        typeMap(
+            RangeClassifier.builder().setSingleValued(true)
+                .put("TOLL_FREE", r("80[08]xxxxxx"))
+                .put("MOBILE", r("7[1-57-9]xxxxxxxx"))
+                .put("FIXED_LINE", r("[12]xxxxxxxxx"))
+                .build());
+    MetadataConfig config =
+        MetadataConfig.simple(ImmutableSet.of(TYPE), DIGIT_SEQUENCE_MATCHER, 0, 1);
+    Metadata metadata =
+        Metadata.builder(root)
+            .put(DigitSequence.of("1"), ranges1)
+            .put(DigitSequence.of("41"), ranges41)
+            .put(DigitSequence.of("44"), ranges44)
+            .build()
+            .transform(config.getOutputTransformer());
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    MetadataProto expected =
+        MetadataProtoBuilder.toMetadataProto(
+            MetadataSimplifier.simplify(metadata, config, pool)
+                .trimValidRanges(config.includeEmptyCallingCodes()),
+            config,
+            pool);
+
+    // Only +44 is cached, so its data is merged with newly built data for other calling codes.
+    Path partialDir = tmp.newFolder("partial").toPath();
+    Metadata metadata44 =
+        Metadata.builder(root)
+            .put(DigitSequence.of("44"), ranges44)
+            .build()
+            .transform(config.getOutputTransformer());
+    GenerateMetadata.buildMetadataProtoWithCache(
+        metadata44, config, new CallingCodeCache(partialDir), pool);
+    MetadataProto partial =
+        GenerateMetadata.buildMetadataProtoWithCache(
+            metadata, config, new CallingCodeCache(partialDir), pool);
+    assertThat(partial.toByteString()).isEqualTo(expected.toByteString());
+
+    Path cacheDir = tmp.newFolder("cache").toPath();
+    MetadataProto cold =
+        GenerateMetadata.buildMetadataProtoWithCache(
+            metadata, config, new CallingCodeCache(cacheDir), pool);
+    MetadataProto warm =
+        GenerateMetadata.buildMetadataProtoWithCache(
+            metadata, config, new CallingCodeCache(cacheDir), pool);
+    assertThat(cold.toByteString()).isEqualTo(expected.toByteString());
+    assertThat(warm.toByteString()).isEqualTo(expected.toByteString());
+  }
+
+  private static RangeMap typeMap(RangeClassifier classifier) {
+    RangeTree allRanges =
+        classifier.orderedEntries().stream()
+            .map(Map.Entry::getValue)
+            .reduce(RangeTree.empty(), RangeTree::union);
+    return RangeMap.builder().put(TYPE, classifier).build(allRanges);
+  }
+
   private static MetadataConfigProto config(String... lines) throws ParseException {
     String config = String.join("\n", lines);
     return TextFormat.parse(config, MetadataConfigProto.class);
@@ -0,0 +1,174 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.i18n.phonenumbers.metadata.RangeSpecification;
+import com.google.common.collect.ImmutableList;
+import com.google.i18n.phonenumbers.metadata.RangeTree;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.compiler.MatcherCompiler;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import net.goui.phonenumbers.DigitSequence;
+import net.goui.phonenumbers.MatchResult;
+import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherDataProto;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+import net.goui.phonenumbers.service.proto.CompiledMatcher;
+import net.goui.phonenumbers.service.proto.CompiledRawClassifier;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JavaSourceWriterTest {
+  @Test
+  public void testClassName() {
+    assertThat(JavaSourceWriter.toClassName("lpn_dfa_compact")).isEqualTo("LpnDfaCompact");
+    assertThat(JavaSourceWriter.toClassName("simple-data")).isEqualTo("SimpleData");
+  }
+
+  @Test
+  public void testJavaSource() throws Exception {
+    RangeTree ranges = r("1[2-4]xxx", "20xxxx", "5xxxx");
+    MatcherDataProto matcherData =
+        MatcherDataProto.newBuilder()
+            .setPossibleLengthsMask((1 << 5) | (1 << 6))
+            .setMatcherData(ByteString.copyFrom(MatcherCompiler.compile(ranges)))
+            .build();
+    MetadataProto proto =
+        MetadataProto.newBuilder()
+            .addCallingCodeData(
+                CallingCodeProto.newBuilder().setCallingCode(44).addMatcherData(matcherData))
+            .build();
+
+    String source = JavaSourceWriter.toJavaSource(proto, "com.example", "Example");
+    assertThat(source).contains("package com.example;");
+    assertThat(source).contains("public final class Example extends CompiledRawClassifier {");
+    assertThat(source).contains("case 44:\n        return Cc44::match;");
+    assertThat(source).contains("switch (in.next()) {");
+
+    // The embedded metadata retains only the possible lengths of compiled matchers.
+    String encoded =
+        source.substring(source.indexOf("METADATA = {\n    \"") + 18, source.indexOf("\",\n  };"));
+    MetadataProto embedded = MetadataProto.parseFrom(Base64.getDecoder().decode(encoded));
+    assertThat(embedded.getCallingCodeData(0).getMatcherData(0))
+        .isEqualTo(matcherData.toBuilder().clearMatcherData().build());
+  }
+
+  @Test
+  public void testCompiledSourceMatchesDfa() throws Exception {
+    ImmutableList<RangeTree> ranges =
+        ImmutableList.of(
+            r("1[2-4]xxxxx", "20[1-5]xxxxxx", "3[0-7]5xxxx", "3[89]xxxxxx", "7xxxxxxxx"),
+            r("0x", "5[0-4]xxx", "5[5-9]xxxx", "6xxxxxxxxx"),
+            r("9[0-8]xxxxxxx", "99xxxxxxxxx"));
+    CallingCodeProto.Builder cc = CallingCodeProto.newBuilder().setCallingCode(44);
+    ImmutableList.Builder<DigitSequenceMatcher> dfas = ImmutableList.builder();
+    for (RangeTree r : ranges) {
+      byte[] bytes = MatcherCompiler.compile(r);
+      cc.addMatcherData(
+          MatcherDataProto.newBuilder()
+              .setPossibleLengthsMask(r.getLengths().stream().mapToInt(n -> 1 << n).sum())
+              .setMatcherData(ByteString.copyFrom(bytes)));
+      dfas.add(DigitSequenceMatcher.create(bytes));
+    }
+    CompiledMatcher compiled = compile(MetadataProto.newBuilder().addCallingCodeData(cc).build());
+    ImmutableList<DigitSequenceMatcher> dfaMatchers = dfas.build();
+
+    Random random = new Random(1234);
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder number = new StringBuilder();
+      for (int n = random.nextInt(12); n > 0; n--) {
+        number.append((char) ('0' + random.nextInt(10)));
+      }
+      for (int index = 0; index < dfaMatchers.size(); index++) {
+        DigitSequenceMatcher.Result expected =
+            dfaMatchers.get(index).match(DigitSequenceMatcher.digitsFromString(number));
+        assertThat(compiled.match(index, DigitSequence.parse(number.toString()).iterate()))
+            .isEqualTo(toMatchResult(expected));
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidNames() {
+    MetadataProto proto = MetadataProto.getDefaultInstance();
+    assertThrows(
+        IllegalArgumentException.class, () -> JavaSourceWriter.toJavaSource(proto, "", "Foo"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> JavaSourceWriter.toJavaSource(proto, "com.example", "foo-bar"));
+  }
+
+  // Compiles the generated source for the given metadata and returns the matcher for +44.
+  private static CompiledMatcher compile(MetadataProto proto) throws Exception {
+    Path dir = Files.createTempDirectory("compiled");
+    Path src = dir.resolve("com/example/Example.java");
+    Files.createDirectories(src.getParent());
+    Files.writeString(src, JavaSourceWriter.toJavaSource(proto, "com.example", "Example"));
+    // The test classpath may be a manifest-only jar, so derive it from the required classes.
+    String classPath =
+        Stream.of(
+                CompiledRawClassifier.class,
+                MatchResult.class,
+                MetadataProto.class,
+                Message.class,
+                ImmutableList.class)
+            .map(c -> c.getProtectionDomain().getCodeSource().getLocation())
+            .map(url -> Paths.get(url.getPath()).toString())
+            .distinct()
+            .collect(Collectors.joining(System.getProperty("path.separator")));
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertThat(javac.run(null, null, null, "-cp", classPath, "-d", dir.toString(), src.toString()))
+        .isEqualTo(0);
+
+    URL[] urls = {dir.toUri().toURL()};
+    ClassLoader loader = new URLClassLoader(urls, JavaSourceWriterTest.class.getClassLoader());
+    Method getMatcher =
+        loader.loadClass("com.example.Example").getDeclaredMethod("getMatcher", int.class);
+    getMatcher.setAccessible(true);
+    return (CompiledMatcher) getMatcher.invoke(null, 44);
+  }
+
+  private static MatchResult toMatchResult(DigitSequenceMatcher.Result result) {
+    switch (result) {
+      case MATCHED:
+        return MatchResult.MATCHED;
+      case TOO_SHORT:
+        return MatchResult.PARTIAL_MATCH;
+      case TOO_LONG:
+        return MatchResult.EXCESS_DIGITS;
+      default:
+        return MatchResult.INVALID;
+    }
+  }
+
+  private static RangeTree r(String... specs) {
+    return RangeTree.from(Arrays.stream(specs).map(RangeSpecification::parse));
+  }
+}
@@ -0,0 +1,128 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import com.google.i18n.phonenumbers.metadata.RangeSpecification;
+import com.google.i18n.phonenumbers.metadata.RangeTree;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.DigitSequenceMatcher;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.OpCode;
+import com.google.i18n.phonenumbers.metadata.finitestatematcher.compiler.MatcherCompiler;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MatcherLayoutTest {
+  // MAP instruction: 1 -> JUMP_1, 5 -> JUMP_2
+  private static final int MAP =
+      (4 << 29) | (1 << OpCode.getMapShift(1)) | (2 << OpCode.getMapShift(5));
+
+  @Test
+  public void testHotJumpTargetFirst() {
+    byte[] original =
+        bytes(
+            MAP >>> 24, MAP >>> 16, MAP >>> 8, MAP, 0x02, 0x06,
+            // 1[2-4]xx
+            0x60, 0x1C, 0x41, 0x00,
+            // 5xxx
+            0x42, 0x00);
+    byte[] optimized = MatcherLayout.optimize(original, repeat("5123", 5, "1234"));
+    assertThat(optimized)
+        .isEqualTo(
+            bytes(
+                MAP >>> 24, MAP >>> 16, MAP >>> 8, MAP, 0x04, 0x02,
+                // 5xxx
+                0x42, 0x00,
+                // 1[2-4]xx
+                0x60, 0x1C, 0x41, 0x00));
+    assertEquivalent(original, optimized);
+  }
+
+  @Test
+  public void testBranchesAreMoved() {
+    byte[] original =
+        bytes(
+            MAP >>> 24, MAP >>> 16, MAP >>> 8, MAP, 0x02, 0x04,
+            // 12 (branch to shared suffix)
+            0x22, 0x01,
+            // 53 (falls through to shared suffix)
+            0x23,
+            // xx
+            0x41, 0x00);
+    // Unchanged if the original layout is already best.
+    assertThat(MatcherLayout.optimize(original, repeat("1299", 5, "5399"))).isEqualTo(original);
+
+    byte[] optimized = MatcherLayout.optimize(original, repeat("5399", 5, "1299"));
+    assertThat(optimized)
+        .isEqualTo(
+            bytes(
+                MAP >>> 24, MAP >>> 16, MAP >>> 8, MAP, 0x04, 0x02,
+                // 53 (branch to shared suffix)
+                0x23, 0x01,
+                // 12 (falls through to shared suffix)
+                0x22,
+                // xx
+                0x41, 0x00));
+    assertEquivalent(original, optimized);
+  }
+
+  @Test
+  public void testCompiledMatcherData() {
+    RangeTree ranges =
+        r("1[2-4]xxxxx", "20[1-5]xxxxxx", "3[0-7]5xxxx", "3[89]xxxxxx", "7xxxxxxxx");
+    byte[] original = MatcherCompiler.compile(ranges);
+    byte[] optimized = MatcherLayout.optimize(original, repeat("388765432", 10, "12123456"));
+    assertEquivalent(original, optimized);
+  }
+
+  private static void assertEquivalent(byte[] original, byte[] optimized) {
+    DigitSequenceMatcher originalMatcher = DigitSequenceMatcher.create(original);
+    DigitSequenceMatcher optimizedMatcher = DigitSequenceMatcher.create(optimized);
+    Random random = new Random(1234);
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder number = new StringBuilder();
+      for (int n = random.nextInt(12); n > 0; n--) {
+        number.append((char) ('0' + random.nextInt(10)));
+      }
+      assertThat(optimizedMatcher.match(DigitSequenceMatcher.digitsFromString(number)))
+          .isEqualTo(originalMatcher.match(DigitSequenceMatcher.digitsFromString(number)));
+    }
+  }
+
+  private static ImmutableList<DigitSequence> repeat(String hot, int count, String cold) {
+    return ImmutableList.<DigitSequence>builder()
+        .addAll(Collections.nCopies(count, DigitSequence.of(hot)))
+        .add(DigitSequence.of(cold))
+        .build();
+  }
+
+  private static RangeTree r(String... specs) {
+    return Arrays.stream(specs)
+        .map(RangeSpecification::parse)
+        .map(RangeTree::from)
+        .reduce(RangeTree.empty(), RangeTree::union);
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,256 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static net.goui.phonenumbers.tools.ClassifierType.TYPE;
+
+import com.google.common.collect.ImmutableList;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import com.google.i18n.phonenumbers.metadata.RangeSpecification;
+import com.google.i18n.phonenumbers.metadata.RangeTree;
+import com.google.i18n.phonenumbers.metadata.model.MetadataTableSchema;
+import com.google.i18n.phonenumbers.metadata.table.CsvTable;
+import com.google.protobuf.TextFormat;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import net.goui.phonenumbers.proto.Metadata.CallingCodeProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherDataProto;
+import net.goui.phonenumbers.proto.Metadata.MatcherFunctionProto;
+import net.goui.phonenumbers.proto.Metadata.MetadataProto;
+import net.goui.phonenumbers.proto.Metadata.NationalNumberDataProto;
+import net.goui.phonenumbers.tools.proto.Config.MetadataConfigProto;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MetadataProtoBuilderTest {
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testShareMatcherData() throws Exception {
+    // The ranges "[2-6]xxxxxxxx" are used by all calling codes, but for different purposes:
+    // +41: a value of TYPE (all ranges are at index 0).
+    // +44: all ranges (index 0, with values of TYPE at indices 1 and 2).
+    // +423: all ranges and the only value of TYPE (index 0).
+    Metadata metadata =
+        metadata(
+            "41",
+            typeMap("FIXED_LINE", r("[2-6]xxxxxxxx"), "MOBILE", r("7[5-9]xxxxxxx")),
+            "44",
+            typeMap("FIXED_LINE", r("[2-4]xxxxxxxx"), "MOBILE", r("[56]xxxxxxxx")),
+            "423",
+            typeMap("FIXED_LINE", r("[2-6]xxxxxxxx")));
+    MetadataProto unshared = MetadataProtoBuilder.toMetadataProto(metadata, config(false));
+    MetadataProto shared = MetadataProtoBuilder.toMetadataProto(metadata, config(true));
+
+    assertThat(unshared.getSharedMatcherDataCount()).isEqualTo(0);
+    // The common matcher data is stored once, and removed from the local data.
+    assertThat(shared.getSharedMatcherDataList())
+        .containsExactly(unshared.getCallingCodeData(2).getMatcherData(0));
+    assertThat(shared.getCallingCodeData(0).getMatcherDataCount()).isEqualTo(2);
+    assertThat(shared.getCallingCodeData(1).getMatcherDataCount()).isEqualTo(2);
+    assertThat(shared.getCallingCodeData(2).getMatcherDataCount()).isEqualTo(0);
+
+    // An empty index list means index zero, so it must be made explicit if index zero is remapped
+    // (+44), but can stay empty when index zero is unchanged (+41, +423).
+    assertThat(shared.getCallingCodeData(0).getValidityMatcherIndexList()).isEmpty();
+    assertThat(shared.getCallingCodeData(1).getValidityMatcherIndexList()).containsExactly(2);
+    assertThat(shared.getCallingCodeData(2).getValidityMatcherIndexList()).isEmpty();
+
+    // Apart from matcher indices, the metadata is unchanged, and every index resolves to the same
+    // matcher data as before.
+    for (int i = 0; i < unshared.getCallingCodeDataCount(); i++) {
+      CallingCodeProto expected = unshared.getCallingCodeData(i);
+      CallingCodeProto actual = shared.getCallingCodeData(i);
+      assertThat(resolve(shared, actual, actual.getValidityMatcherIndexList()))
+          .isEqualTo(resolve(unshared, expected, expected.getValidityMatcherIndexList()));
+      assertThat(actual.getNationalNumberDataCount())
+          .isEqualTo(expected.getNationalNumberDataCount());
+      for (int n = 0; n < expected.getNationalNumberDataCount(); n++) {
+        NationalNumberDataProto expectedData = expected.getNationalNumberData(n);
+        NationalNumberDataProto actualData = actual.getNationalNumberData(n);
+        assertThat(actualData.getMatcherCount()).isEqualTo(expectedData.getMatcherCount());
+        for (int m = 0; m < expectedData.getMatcherCount(); m++) {
+          MatcherFunctionProto expectedFunction = expectedData.getMatcher(m);
+          MatcherFunctionProto actualFunction = actualData.getMatcher(m);
+          assertThat(actualFunction.getValue()).isEqualTo(expectedFunction.getValue());
+          assertThat(resolve(shared, actual, actualFunction.getMatcherIndexList()))
+              .isEqualTo(resolve(unshared, expected, expectedFunction.getMatcherIndexList()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBuildIntervalTable() {
+    // Sequences of length N are encoded by adding "1...1" (N ones), so "1[2-46]xx" becomes the
+    // intervals [2311, 2610] and [2711, 2810], which are then delta encoded.
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("1[2-46]xx"), 100))
+        .isEqualTo(new long[] {2311, 299, 101, 99});
+    // Several intervals of different lengths.
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("1x", "2xx"), 100))
+        .isEqualTo(new long[] {21, 9, 281, 99});
+    // Adjacent intervals are merged ([1200, 1299] and [1300, 1349]).
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("12xx", "13[0-4]x"), 100))
+        .isEqualTo(new long[] {2311, 149});
+    // The first and last sequences of a length can also be adjacent to those of other lengths.
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("9", "0x"), 100))
+        .isEqualTo(new long[] {10, 10});
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("9999", "00000"), 100))
+        .isEqualTo(new long[] {11110, 1});
+  }
+
+  @Test
+  public void testBuildIntervalTableTooLarge() {
+    // The encoded table {2311, 299, 101, 99} needs 6 bytes (2 + 2 + 1 + 1).
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("1[2-46]xx"), 6)).isNotNull();
+    assertThat(MetadataProtoBuilder.buildIntervalTable(r("1[2-46]xx"), 5)).isNull();
+  }
+
+  @Test
+  public void testAddIntervals() {
+    List<long[]> intervals = new ArrayList<>();
+    assertThat(MetadataProtoBuilder.addIntervals(RangeSpecification.parse("xxx"), intervals, 1))
+        .isTrue();
+    assertThat(intervals).hasSize(1);
+    assertThat(intervals.get(0)).isEqualTo(new long[] {111, 1110});
+
+    // Each digit in the last restricted position is a separate interval (unless consecutive).
+    RangeSpecification spec = RangeSpecification.parse("[13579]x");
+    intervals.clear();
+    assertThat(MetadataProtoBuilder.addIntervals(spec, intervals, 5)).isTrue();
+    assertThat(intervals).hasSize(5);
+    assertThat(intervals.get(0)).isEqualTo(new long[] {21, 30});
+    assertThat(intervals.get(4)).isEqualTo(new long[] {101, 110});
+
+    intervals.clear();
+    assertThat(MetadataProtoBuilder.addIntervals(spec, intervals, 4)).isFalse();
+  }
+
+  @Test
+  public void testDisjointValuesOrderedBySampleCount() throws Exception {
+    // By range size, FIXED_LINE is tested before MOBILE for both calling codes, but the values
+    // only overlap for +41.
+    Metadata metadata =
+        metadata(
+            "41",
+            typeMap("FIXED_LINE", r("[2-7]xxxxxxxx"), "MOBILE", r("7[5-9]xxxxxxx")),
+            "44",
+            typeMap("FIXED_LINE", r("[2-4]xxxxxxxxx"), "MOBILE", r("7xxxxxxxxx")));
+    // Most sampled numbers are mobile numbers.
+    Path samplePath = tmp.newFile("sample.txt").toPath();
+    Files.write(
+        samplePath,
+        ImmutableList.of(
+            "+41791234567", "+41781234567", "+442071234567", "+447700900123", "+447700900456"));
+    TrafficSample sample = TrafficSample.load(samplePath, metadata.getAvailableCallingCodes());
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    MetadataProto unsampled =
+        MetadataProtoBuilder.toMetadataProto(metadata, config(false), TrafficSample.empty(), pool);
+    MetadataProto sampled =
+        MetadataProtoBuilder.toMetadataProto(metadata, config(false), sample, pool);
+
+    // Without a sample, values are ordered by range size.
+    assertThat(typeValues(unsampled, 41)).containsExactly("FIXED_LINE", "MOBILE").inOrder();
+    assertThat(typeValues(unsampled, 44)).containsExactly("FIXED_LINE", "MOBILE").inOrder();
+    // Disjoint values are reordered by sample count, but overlapping values are not (since the
+    // first match determines the value of a number).
+    assertThat(typeValues(sampled, 41)).containsExactly("FIXED_LINE", "MOBILE").inOrder();
+    assertThat(typeValues(sampled, 44)).containsExactly("MOBILE", "FIXED_LINE").inOrder();
+    assertThat(typeData(sampled, 41).getDisjointValues()).isFalse();
+    assertThat(typeData(sampled, 44).getDisjointValues()).isTrue();
+  }
+
+  private static NationalNumberDataProto typeData(MetadataProto proto, int cc) {
+    return proto.getCallingCodeDataList().stream()
+        .filter(c -> c.getCallingCode() == cc)
+        .findFirst()
+        .orElseThrow()
+        .getNationalNumberData(0);
+  }
+
+  // Returns the values of the TYPE classifier, in the order in which they are tested.
+  private static ImmutableList<String> typeValues(MetadataProto proto, int cc) {
+    return typeData(proto, cc).getMatcherList().stream()
+        .map(m -> proto.getToken(m.getValue()))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  // Resolves matcher indices to matcher data, where indices after the local data refer to shared
+  // data, and an empty list means index zero.
+  private static ImmutableList<MatcherDataProto> resolve(
+      MetadataProto proto, CallingCodeProto callingCodeData, List<Integer> indices) {
+    int localCount = callingCodeData.getMatcherDataCount();
+    return (indices.isEmpty() ? ImmutableList.of(0) : indices).stream()
+        .map(
+            i ->
+                i < localCount
+                    ? callingCodeData.getMatcherData(i)
+                    : proto.getSharedMatcherData(i - localCount))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private static MetadataConfig config(boolean shareMatcherData) throws Exception {
+    return MetadataConfig.from(
+        TextFormat.parse(
+            String.join(
+                "\n",
+                "version { data_schema_uri: 'test' data_schema_version: 1 }",
+                "exclude_parser_metadata: true",
+                "matcher_type: DIGIT_SEQUENCE_MATCHER",
+                "share_matcher_data: " + shareMatcherData,
+                "classifier { type_name: 'TYPE' }"),
+            MetadataConfigProto.class));
+  }
+
+  // Returns metadata for pairs of calling codes and range maps.
+  private static Metadata metadata(Object... ccAndRangeMaps) throws Exception {
+    StringBuilder csv = new StringBuilder("Calling Code;Main Region\n");
+    for (int i = 0; i < ccAndRangeMaps.length; i += 2) {
+      csv.append(ccAndRangeMaps[i]).append(";\"ZZ\"\n");
+    }
+    CsvTable<DigitSequence> root =
+        CsvTable.importCsv(MetadataTableSchema.SCHEMA, new StringReader(csv.toString()));
+    Metadata.Builder metadata = Metadata.builder(root);
+    for (int i = 0; i < ccAndRangeMaps.length; i += 2) {
+      metadata.put(DigitSequence.of((String) ccAndRangeMaps[i]), (RangeMap) ccAndRangeMaps[i + 1]);
+    }
+    return metadata.build();
+  }
+
+  // Returns a range map with a single valued TYPE classifier for pairs of values and ranges.
+  private static RangeMap typeMap(Object... valuesAndRanges) {
+    RangeClassifier.Builder classifier = RangeClassifier.builder().setSingleValued(true);
+    for (int i = 0; i < valuesAndRanges.length; i += 2) {
+      classifier.put((String) valuesAndRanges[i], (RangeTree) valuesAndRanges[i + 1]);
+    }
+    RangeClassifier types = classifier.build();
+    RangeTree allRanges =
+        types.orderedEntries().stream()
+            .map(Map.Entry::getValue)
+            .reduce(RangeTree.empty(), RangeTree::union);
+    return RangeMap.builder().put(TYPE, types).build(allRanges);
+  }
+
+  private static RangeTree r(String... specs) {
+    return RangeTree.from(Arrays.stream(specs).map(RangeSpecification::parse));
+  }
+}
@@ -15,10 +15,16 @@ import static net.goui.phonenumbers.tools.ClassifierType.REGION;
 import static net.goui.phonenumbers.tools.ClassifierType.TYPE;
 import static net.goui.phonenumbers.tools.MetadataSimplifier.simplifyRange;
 
+import com.google.common.collect.ImmutableList;
 import com.google.i18n.phonenumbers.metadata.PrefixTree;
 import com.google.i18n.phonenumbers.metadata.RangeSpecification;
 import com.google.i18n.phonenumbers.metadata.RangeTree;
+import com.google.i18n.phonenumbers.metadata.table.RangeKey;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import net.goui.phonenumbers.tools.MetadataSimplifier.RangeExpander;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -131,6 +137,75 @@ public class MetadataSimplifierTest {
     assertThat(simplifyRange(r, maxFalsePositivePercent, minPrefixLength)).isEqualTo(r);
   }
 
+  @Test
+  public void testRangeSimplificationMatchesSortingImplementation() {
+    RangeTree[] testRanges = {
+      r("12[0-4]xxxx"),
+      r("12[01]xxx", "34[0-7]xxx", "56[0-4]xxx"),
+      r("1[2-4]5[0-3]xxx", "1[89]6[2-7]xx", "2[0-8]0xxxx", "30[1-59]xxxx"),
+      r("20[2-9]xxxxxx", "21[0-35-9]xxxxx", "2[2-9]1[0-6]xxxx", "3[0-2]xxxxxx", "456[4-7]x"),
+      r("7[0-8]1xxxxx", "7[0-8]1xxxxxx", "8[1-9][02468]xxx", "9[1-4][0-3][5-8]xxx"),
+    };
+    for (RangeTree range : testRanges) {
+      for (int percent : new int[] {0, 10, 20, 55, 100, 700, 1900}) {
+        for (int minPrefixLength = 0; minPrefixLength <= 3; minPrefixLength++) {
+          assertThat(simplifyRange(range, percent, minPrefixLength))
+              .isEqualTo(simplifyRangeBySorting(range, percent, minPrefixLength));
+        }
+      }
+    }
+  }
+
+  // The original implementation of simplifyRange(), which sorts all candidate simplifications in
+  // each pass and calculates their cost from the range trees.
+  private static RangeTree simplifyRangeBySorting(
+      RangeTree range, int maxFalsePositivePercent, int minPrefixLength) {
+    long maxSize =
+        BigInteger.valueOf(range.size())
+            .multiply(BigInteger.valueOf(100 + maxFalsePositivePercent))
+            .divide(BigInteger.valueOf(100))
+            .min(BigInteger.valueOf(Long.MAX_VALUE))
+            .longValueExact();
+    long lastSize;
+    do {
+      lastSize = range.size();
+      ImmutableList<RangeKey> originalRangeKeys = RangeKey.decompose(range);
+      List<SimplifiedKey> simplifiedKeys = new ArrayList<>();
+      for (int i = 0; i < originalRangeKeys.size(); i++) {
+        RangeKey key = originalRangeKeys.get(i);
+        RangeSpecification prefix = key.getPrefix();
+        if (prefix.length() <= minPrefixLength) {
+          continue;
+        }
+        RangeKey simplifiedKey =
+            RangeKey.create(prefix.first(prefix.length() - 1).getPrefix(), key.getLengths());
+        simplifiedKeys.add(new SimplifiedKey(key, simplifiedKey, i));
+      }
+      simplifiedKeys.sort(
+          Comparator.comparingLong((SimplifiedKey k) -> k.cost).thenComparingInt(k -> k.index));
+      for (SimplifiedKey simplifiedKey : simplifiedKeys) {
+        RangeTree modifiedRanges = range.union(simplifiedKey.ranges);
+        if (modifiedRanges.size() > maxSize) {
+          break;
+        }
+        range = modifiedRanges;
+      }
+    } while (range.size() > lastSize && range.size() < maxSize);
+    return range;
+  }
+
+  private static final class SimplifiedKey {
+    final RangeTree ranges;
+    final long cost;
+    final int index;
+
+    SimplifiedKey(RangeKey original, RangeKey simplified, int index) {
+      this.ranges = simplified.asRangeTree();
+      this.cost = ranges.size() - original.asRangeTree().size();
+      this.index = index;
+    }
+  }
+
   private static PrefixTree p(String... specs) {
     return PrefixTree.from(r(specs));
   }
@@ -0,0 +1,69 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+Copyright (c) 2023, David Beaumont (https://github.com/hagbard).
+
+This program and the accompanying materials are made available under the terms of the
+Eclipse Public License v. 2.0 available at https://www.eclipse.org/legal/epl-2.0, or the
+Apache License, Version 2.0 available at https://www.apache.org/licenses/LICENSE-2.0.
+
+SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package net.goui.phonenumbers.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+import static net.goui.phonenumbers.tools.TuneMetadata.paretoFront;
+import static net.goui.phonenumbers.tools.TuneMetadata.select;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.i18n.phonenumbers.metadata.DigitSequence;
+import java.util.Map;
+import net.goui.phonenumbers.tools.MetadataConfig.CallingCodeConfig;
+import net.goui.phonenumbers.tools.TuneMetadata.Candidate;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TuneMetadataTest {
+  private static final Candidate LOSSLESS = c(0, 1, 1000, 0);
+  private static final Candidate SMALL_CHANGE = c(10, 2, 800, 5);
+  // Dominated by SMALL_CHANGE (larger and less accurate).
+  private static final Candidate DOMINATED = c(10, 1, 900, 8);
+  private static final Candidate LARGE_CHANGE = c(50, 1, 300, 40);
+
+  @Test
+  public void testParetoFront() {
+    assertThat(paretoFront(ImmutableList.of(LOSSLESS, DOMINATED, LARGE_CHANGE, SMALL_CHANGE)))
+        .containsExactly(LARGE_CHANGE, SMALL_CHANGE, LOSSLESS)
+        .inOrder();
+    // Identical results prefer the least aggressive simplification.
+    Candidate sameAsLossless = c(10, 1, 1000, 0);
+    assertThat(paretoFront(ImmutableList.of(sameAsLossless, LOSSLESS))).containsExactly(LOSSLESS);
+  }
+
+  @Test
+  public void testSelect() {
+    ImmutableList<Candidate> frontA = ImmutableList.of(LARGE_CHANGE, SMALL_CHANGE, LOSSLESS);
+    // Saves more bytes per percent than either step in frontA.
+    ImmutableList<Candidate> frontB = ImmutableList.of(c(20, 1, 100, 2), c(0, 1, 500, 0));
+    Map<DigitSequence, ImmutableList<Candidate>> fronts =
+        ImmutableMap.of(DigitSequence.of("1"), frontA, DigitSequence.of("44"), frontB);
+
+    // No budget selects the smallest data.
+    assertThat(select(fronts, 0, 0).values()).containsExactly(frontA.get(0), frontB.get(0));
+    // A large budget selects the most accurate data.
+    assertThat(select(fronts, 0, 10000).values()).containsExactly(LOSSLESS, frontB.get(1));
+    // Per calling code budget.
+    assertThat(select(fronts, 900, 0).values()).containsExactly(SMALL_CHANGE, frontB.get(1));
+    // Total budget is met by reducing accuracy where it saves the most bytes first.
+    assertThat(select(fronts, 0, 1100).values()).containsExactly(LOSSLESS, frontB.get(0));
+    assertThat(select(fronts, 0, 900).values()).containsExactly(SMALL_CHANGE, frontB.get(0));
+    // An impossible budget selects the smallest data.
+    assertThat(select(fronts, 0, 1).values()).containsExactly(frontA.get(0), frontB.get(0));
+  }
+
+  private static Candidate c(int percent, int minPrefixLength, long bytes, double falsePositives) {
+    return Candidate.of(CallingCodeConfig.of(percent, minPrefixLength), bytes, falsePositives);
+  }
+}